@@ -1,5 +1,7 @@
 package nl.siegmann.epublib.domain;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -403,7 +405,7 @@ import java.util.Map;
  * @author paul
  *
  */
-public class Book implements Serializable {
+public class Book implements Serializable, Closeable {
 
     private static final long serialVersionUID = 2068355170895770100L;
 
@@ -415,6 +417,7 @@ public class Book implements Serializable {
     private Resource opfResource;
     private Resource ncxResource;
     private Resource coverImage;
+    private transient LazyResourceProvider resourceProvider;
 
     /**
      * Adds the resource to the table of contents of the book as a child section of the given parentSection
@@ -639,5 +642,38 @@ public class Book implements Serializable {
     public Resource getNcxResource() {
         return this.ncxResource;
     }
-}
 
+    /**
+     * The provider that serves the lazy-loaded resources of this book.
+     *
+     * @return null if this book was not read lazily.
+     */
+    public LazyResourceProvider getResourceProvider() {
+        return this.resourceProvider;
+    }
+
+    public void setResourceProvider(final LazyResourceProvider resourceProvider) {
+        this.resourceProvider = resourceProvider;
+    }
+
+    /**
+     * Releases the epub file this book was lazily read from.
+     *
+     * Lazy resources that have not been loaded yet can no longer be read after the book has been closed.
+     * The data of resources that is kept in a ResourceDataCache is released from it.
+     * If the book was not read lazily this is a no-op.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        for (final Resource resource : this.resources.getAll()) {
+            if (resource.getDataCache() != null) {
+                resource.close();
+            }
+        }
+        if (this.resourceProvider != null) {
+            this.resourceProvider.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package nl.siegmann.epublib.domain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Supplies the contents of lazy-loaded Resources.
+ *
+ * A Book that was read lazily keeps its provider open until the Book is closed.
+ *
+ * @author paul
+ *
+ */
+public interface LazyResourceProvider extends Closeable {
+
+    /**
+     * Opens a stream on the contents of the resource that was read from the given href.
+     *
+     * @param href The location of the resource within the epub file. Example: "OEBPS/chapter1.html".
+     * @return a stream on the contents of the resource.
+     * @throws IOException
+     */
+    InputStream getResourceStream(String href) throws IOException;
+
+    /**
+     * Gets the contents of the resource that was read from the given href as a read-only ByteBuffer,
+     * if this can be done without copying the data.
+     *
+     * @param href The location of the resource within the epub file. Example: "OEBPS/images/cover.jpg".
+     * @return null if the contents are not directly available as a buffer.
+     * @throws IOException
+     */
+    ByteBuffer getResourceBuffer(String href) throws IOException;
+}
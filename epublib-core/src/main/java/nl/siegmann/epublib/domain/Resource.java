@@ -11,8 +11,12 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -35,10 +39,20 @@ public class Resource implements Serializable {
     private final String originalHref;
     private MediaType mediaType;
     private String inputEncoding = Constants.CHARACTER_ENCODING;
-    private byte[] data;
+    private volatile byte[] data;
 
     private String fileName;
     private long cachedSize;
+    private volatile boolean modified = false;
+    private transient LazyResourceProvider resourceProvider;
+    private transient volatile Resources owner;
+    private transient volatile ResourceDataCache dataCache;
+    private transient volatile DataLoad dataLoad;
+
+    private static final AtomicReferenceFieldUpdater<Resource, byte[]> DATA_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Resource.class, byte[].class, "data");
+    private static final AtomicReferenceFieldUpdater<Resource, DataLoad> DATA_LOAD_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Resource.class, DataLoad.class, "dataLoad");
 
     private static final Logger LOG = LoggerFactory.getLogger(Resource.class);
 
@@ -154,6 +168,21 @@ public class Resource implements Serializable {
         this.cachedSize = size;
     }
 
+    /**
+     * Creates a Lazy resource whose data will be loaded through the given LazyResourceProvider.
+     *
+     * The data will be loaded on the first call to getData()
+     *
+     * @param resourceProvider the provider that serves the contents of this resource.
+     * @param size the size of this resource.
+     * @param href The resource's href within the epub.
+     */
+    public Resource(final LazyResourceProvider resourceProvider, final long size, final String href) {
+        this(null, null, href, MediatypeService.determineMediaType(href));
+        this.resourceProvider = resourceProvider;
+        this.cachedSize = size;
+    }
+
     /**
      * Creates a resource with the given id, data, mediatype at the specified href.
      * Assumes that if the data is of a text type (html/css/etc) then the encoding will be UTF-8
@@ -215,30 +244,177 @@ public class Resource implements Serializable {
      * it will be loaded into memory at this point.
      *  This included opening the zip file, so expect a first load to be slow.
      *
+     * The data is read once, directly into an array of the size of the zip entry. If several threads ask for
+     * data that is not loaded yet, one of them loads it and the others wait for that load. If setData is called
+     * while the data is loading, the loaded data is discarded and the data that was set is returned.
+     *
      * @return The contents of the resource
      */
     byte[] getData() throws IOException {
+        final byte[] currentData = this.data;
+        final ResourceDataCache currentDataCache = this.dataCache;
+        if (currentData != null) {
+            if ((currentDataCache != null) && !this.modified) {
+                currentDataCache.accessed(this);
+            }
+            return currentData;
+        }
+        while (true) {
+            final DataLoad currentDataLoad = this.dataLoad;
+            if (currentDataLoad != null) {
+                return currentDataLoad.await();
+            }
+            final DataLoad newDataLoad = new DataLoad();
+            if (DATA_LOAD_UPDATER.compareAndSet(this, null, newDataLoad)) {
+                return load(newDataLoad, currentDataCache);
+            }
+        }
+    }
 
-        if (this.data == null) {
+    /**
+     * Loads the data as the single load that other threads wait for.
+     *
+     * @param newDataLoad
+     * @param currentDataCache
+     * @return the data of this resource.
+     * @throws IOException
+     */
+    private byte[] load(final DataLoad newDataLoad, final ResourceDataCache currentDataCache) throws IOException {
+        try {
+            // the previous load may have finished between reading the data and starting this load
+            byte[] result = this.data;
+            if (result == null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Initializing lazy resource " + this.fileName + "#" + this.href);
+                }
+                final byte[] loadedData = loadData();
+                if (!this.modified && DATA_UPDATER.compareAndSet(this, null, loadedData)) {
+                    result = loadedData;
+                    if (currentDataCache != null) {
+                        currentDataCache.loaded(this, result);
+                        // setData may have run between publishing the data and registering it
+                        if (this.modified) {
+                            currentDataCache.removed(this);
+                        }
+                    }
+                } else {
+                    // setData replaced the data while it was loading
+                    result = this.data;
+                }
+            }
+            newDataLoad.succeeded(result);
+            return result;
+        } catch (IOException e) {
+            newDataLoad.failed(e);
+            throw e;
+        } catch (RuntimeException e) {
+            newDataLoad.failed(e);
+            throw e;
+        } catch (Error e) {
+            newDataLoad.failed(e);
+            throw e;
+        } finally {
+            DATA_LOAD_UPDATER.compareAndSet(this, newDataLoad, null);
+        }
+    }
 
-            LOG.info("Initializing lazy resource " + this.fileName + "#" + this.href);
+    /**
+     * A load of the data of a lazy resource that is in progress, for other threads to wait for.
+     */
+    private static final class DataLoad {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile byte[] result;
+        private volatile Throwable failure;
+
+        void succeeded(final byte[] data) {
+            this.result = data;
+            this.done.countDown();
+        }
 
-            final InputStream in = getResourceStream();
-            final byte[] readData = IOUtil.toByteArray(in, (int) this.cachedSize);
-            if (readData == null) {
-                throw new IOException("Could not lazy-load data.");
+        void failed(final Throwable throwable) {
+            this.failure = throwable;
+            this.done.countDown();
+        }
+
+        byte[] await() throws IOException {
+            try {
+                this.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the data of a lazy resource");
             }
-            this.data = readData;
-            this.data = IOUtil.toByteArray(in);
+            final Throwable currentFailure = this.failure;
+            if (currentFailure instanceof IOException) {
+                throw new IOException(currentFailure.getMessage(), currentFailure);
+            } else if (currentFailure instanceof RuntimeException) {
+                throw (RuntimeException) currentFailure;
+            } else if (currentFailure instanceof Error) {
+                throw (Error) currentFailure;
+            }
+            return this.result;
+        }
+    }
 
-            in.close();
+    /**
+     * Reads the data of this lazy-loaded resource from the epub.
+     *
+     * @return the data of this lazy-loaded resource.
+     * @throws IOException
+     */
+    private byte[] loadData() throws IOException {
+        if (this.resourceProvider != null) {
+            final InputStream in = this.resourceProvider.getResourceStream(this.originalHref);
+            try {
+                return IOUtil.readFully(in, this.cachedSize);
+            } finally {
+                in.close();
+            }
+        }
+        if (this.fileName == null) {
+            throw new IOException("Could not lazy-load data.");
+        }
+        final ZipFile zipResource = new ZipFile(this.fileName);
+        try {
+            final ZipEntry zipEntry = zipResource.getEntry(this.originalHref);
+            if (zipEntry == null) {
+                throw new IllegalStateException("Cannot find resources href in the epub file");
+            }
+            final InputStream in = zipResource.getInputStream(zipEntry);
+            try {
+                return IOUtil.readFully(in, (zipEntry.getSize() >= 0) ? zipEntry.getSize() : this.cachedSize);
+            } finally {
+                in.close();
+            }
+        } finally {
+            zipResource.close();
         }
+    }
 
-        return this.data;
+    /**
+     * Gets the contents of the Resource as a read-only ByteBuffer.
+     *
+     * If this resource was lazy-loaded from a memory-mapped epub and is stored uncompressed, the buffer is
+     * a slice of the mapped epub file and the data is not copied onto the heap.
+     * Otherwise the data is loaded into memory and wrapped.
+     *
+     * @return The contents of the resource
+     * @throws IOException
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        if ((this.data == null) && (this.resourceProvider != null)) {
+            final ByteBuffer result = this.resourceProvider.getResourceBuffer(this.originalHref);
+            if (result != null) {
+                return result;
+            }
+        }
+        return ByteBuffer.wrap(getData()).asReadOnlyBuffer();
     }
 
     private InputStream getResourceStream() throws
                                             IOException {
+        if (this.resourceProvider != null) {
+            return this.resourceProvider.getResourceStream(this.originalHref);
+        }
         final ZipFile zipResource = new ZipFile(this.fileName);
         final ZipEntry zipEntry = zipResource.getEntry(this.originalHref);
         if (zipEntry == null) {
@@ -251,11 +427,71 @@ public class Resource implements Serializable {
     /**
      * Tells this resource to release its cached data.
      *
-     * If this resource was not lazy-loaded, this is a no-op.
+     * If this resource was not lazy-loaded or its data was changed, this is a no-op.
      */
     public void close() {
-        if (this.fileName != null) {
-            this.data = null;
+        if (!isLazy()) {
+            return;
+        }
+        final byte[] currentData = this.data;
+        // a concurrent setData replaces the array, so the compare-and-set does not release its data
+        if (!this.modified && DATA_UPDATER.compareAndSet(this, currentData, null)) {
+            final ResourceDataCache currentDataCache = this.dataCache;
+            if (currentDataCache != null) {
+                currentDataCache.removed(this);
+            }
+        }
+    }
+
+    /**
+     * Releases the cached data of this resource on behalf of its ResourceDataCache, unless the data was changed
+     * and can not be loaded again.
+     *
+     * @param evictedData the data the cache registered; data that was set since then is kept
+     */
+    void releaseData(final byte[] evictedData) {
+        if (isLazy() && !this.modified) {
+            DATA_UPDATER.compareAndSet(this, evictedData, null);
+        }
+    }
+
+    /**
+     * Whether the data of this resource can be loaded again from the epub it was read from.
+     *
+     * @return Whether the data of this resource can be loaded again from the epub it was read from.
+     */
+    private boolean isLazy() {
+        return (this.fileName != null) || (this.resourceProvider != null);
+    }
+
+    /**
+     * The cache that keeps the data of this lazy-loaded resource in memory.
+     *
+     * @return null if the data is kept until the resource is closed.
+     */
+    public ResourceDataCache getDataCache() {
+        return this.dataCache;
+    }
+
+    /**
+     * Sets the cache that keeps the data of this resource in memory once it is loaded.
+     *
+     * Only the data of lazy-loaded resources is cached; for other resources this is a no-op.
+     *
+     * @param dataCache null to keep the data until the resource is closed.
+     */
+    public void setDataCache(final ResourceDataCache dataCache) {
+        if (!isLazy() || (dataCache == this.dataCache)) {
+            return;
+        }
+        final ResourceDataCache oldDataCache = this.dataCache;
+        if (oldDataCache != null) {
+            oldDataCache.removed(this);
+        }
+        this.dataCache = dataCache;
+        final byte[] currentData = this.data;
+        if ((dataCache != null) && (currentData != null) && !this.modified) {
+            dataCache.add(this, currentData);
         }
     }
 
@@ -266,7 +502,41 @@ public class Resource implements Serializable {
      * @param data
      */
     public void setData(final byte[] data) {
+        this.modified = true;
         this.data = data;
+        final ResourceDataCache currentDataCache = this.dataCache;
+        if (currentDataCache != null) {
+            currentDataCache.removed(this);
+        }
+    }
+
+    /**
+     * Whether the contents of this resource were changed through setData since it was created or read.
+     *
+     * @return whether the contents of this resource were changed since it was created or read.
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    /**
+     * The provider that serves the contents of this resource if it was lazy-loaded from an epub file.
+     *
+     * @return null if this resource is not served by a LazyResourceProvider.
+     */
+    public LazyResourceProvider getResourceProvider() {
+        return this.resourceProvider;
+    }
+
+    /**
+     * The location of the resource within the epub file it was read from.
+     *
+     * Example: "OEBPS/images/cover.jpg".
+     *
+     * @return The location of the resource within the epub file it was read from.
+     */
+    public String getOriginalHref() {
+        return this.originalHref;
     }
 
     /**
@@ -306,7 +576,36 @@ public class Resource implements Serializable {
      * @param id
      */
     public void setId(final String id) {
+        final String oldId = this.id;
         this.id = id;
+        final Resources currentOwner = this.owner;
+        if (currentOwner != null) {
+            currentOwner.resourceIdChanged(this, oldId);
+        }
+    }
+
+    /**
+     * Sets the Resources this resource was last added to, so that it can keep its indexes up to date.
+     *
+     * @param owner
+     */
+    void setOwner(final Resources owner) {
+        this.owner = owner;
+    }
+
+    boolean isOwnedBy(final Resources owner) {
+        return this.owner == owner;
+    }
+
+    /**
+     * Forgets the given Resources as owner, unless the resource has been added to another Resources since.
+     *
+     * @param owner
+     */
+    void clearOwner(final Resources owner) {
+        if (this.owner == owner) {
+            this.owner = null;
+        }
     }
 
     /**
@@ -403,7 +702,12 @@ public class Resource implements Serializable {
     }
 
     public void setMediaType(final MediaType mediaType) {
+        final MediaType oldMediaType = this.mediaType;
         this.mediaType = mediaType;
+        final Resources currentOwner = this.owner;
+        if ((currentOwner != null) && (oldMediaType != mediaType)) {
+            currentOwner.resourceMediaTypeChanged(this, oldMediaType);
+        }
     }
 
     public void setTitle(final String title) {
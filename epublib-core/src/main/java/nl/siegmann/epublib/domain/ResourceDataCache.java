@@ -0,0 +1,257 @@
+package nl.siegmann.epublib.domain;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the data of lazy-loaded Resources in memory up to a maximum number of bytes.
+ *
+ * Lazy resources that use the cache register their data with it when it is loaded. When the total size of the
+ * registered data exceeds the maximum size, the data of the least recently used resources is released. A
+ * released resource loads its data again on its next access.
+ *
+ * A cache can be shared by the resources of one book or by the resources of all books of a process.
+ * The cache is thread-safe. Accesses to data that is already in the cache do not take the lock of the cache: they
+ * are recorded in a fixed-size buffer that is replayed into the least recently used order when data is added. If
+ * the buffer overflows between two additions the oldest accesses are dropped, so the order is approximate.
+ *
+ * @author paul
+ *
+ */
+public class ResourceDataCache {
+
+    /**
+     * A registered resource, in a doubly linked list from least to most recently used.
+     */
+    private static class Entry {
+        final Resource resource;
+        final byte[] data;
+        final long size;
+        Entry previous;
+        Entry next;
+
+        Entry(final Resource resource, final byte[] data) {
+            this.resource = resource;
+            this.data = data;
+            this.size = data.length;
+        }
+    }
+
+    /**
+     * The number of accesses that are recorded between two additions, a power of two.
+     */
+    private static final int ACCESS_BUFFER_SIZE = 128;
+
+    private final long maxSize;
+    private final AtomicReferenceArray<Resource> accessBuffer =
+            new AtomicReferenceArray<Resource>(ACCESS_BUFFER_SIZE);
+    private final AtomicLong accessCount = new AtomicLong();
+    private long drainedAccessCount = 0;
+    private final Map<Resource, Entry> entries = new IdentityHashMap<Resource, Entry>();
+    private Entry leastRecentlyUsed;
+    private Entry mostRecentlyUsed;
+    private long size = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Creates a cache that keeps at most maxSize bytes of resource data in memory.
+     *
+     * @param maxSize
+     */
+    public ResourceDataCache(final long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Registers the freshly loaded data of the given resource as most recently used and releases the data of the
+     * least recently used resources if the cache is full.
+     *
+     * @param resource
+     * @param data
+     */
+    synchronized void loaded(final Resource resource, final byte[] data) {
+        this.missCount++;
+        add(resource, data);
+    }
+
+    /**
+     * Registers the data of the given resource, that was loaded before the resource used this cache, as most
+     * recently used.
+     *
+     * @param resource
+     * @param data
+     */
+    synchronized void add(final Resource resource, final byte[] data) {
+        drainAccesses();
+        final Entry oldEntry = this.entries.remove(resource);
+        if (oldEntry != null) {
+            unlink(oldEntry);
+            this.size -= oldEntry.size;
+        }
+        final Entry entry = new Entry(resource, data);
+        this.entries.put(resource, entry);
+        linkAsMostRecentlyUsed(entry);
+        this.size += entry.size;
+        while ((this.size > this.maxSize) && (this.leastRecentlyUsed != null)) {
+            final Entry eldest = this.leastRecentlyUsed;
+            this.entries.remove(eldest.resource);
+            unlink(eldest);
+            this.size -= eldest.size;
+            this.evictionCount++;
+            eldest.resource.releaseData(eldest.data);
+        }
+    }
+
+    /**
+     * Records that the data of the given resource was used, without taking the lock of the cache.
+     *
+     * @param resource
+     */
+    void accessed(final Resource resource) {
+        this.hitCount.incrementAndGet();
+        final long index = this.accessCount.getAndIncrement();
+        this.accessBuffer.set((int) (index & (ACCESS_BUFFER_SIZE - 1)), resource);
+    }
+
+    /**
+     * Marks the resources whose accesses were recorded since the previous drain as most recently used, in the
+     * order they were accessed.
+     */
+    private void drainAccesses() {
+        final long currentAccessCount = this.accessCount.get();
+        final long start = Math.max(this.drainedAccessCount, currentAccessCount - ACCESS_BUFFER_SIZE);
+        for (long index = start; index < currentAccessCount; index++) {
+            final Resource resource = this.accessBuffer.getAndSet((int) (index & (ACCESS_BUFFER_SIZE - 1)), null);
+            if (resource == null) {
+                continue;
+            }
+            final Entry entry = this.entries.get(resource);
+            if ((entry != null) && (entry != this.mostRecentlyUsed)) {
+                unlink(entry);
+                linkAsMostRecentlyUsed(entry);
+            }
+        }
+        this.drainedAccessCount = currentAccessCount;
+    }
+
+    /**
+     * Forgets the data of the given resource, because it was released or replaced.
+     *
+     * @param resource
+     */
+    synchronized void removed(final Resource resource) {
+        final Entry entry = this.entries.remove(resource);
+        if (entry != null) {
+            unlink(entry);
+            this.size -= entry.size;
+        }
+    }
+
+    private void linkAsMostRecentlyUsed(final Entry entry) {
+        entry.previous = this.mostRecentlyUsed;
+        entry.next = null;
+        if (this.mostRecentlyUsed == null) {
+            this.leastRecentlyUsed = entry;
+        } else {
+            this.mostRecentlyUsed.next = entry;
+        }
+        this.mostRecentlyUsed = entry;
+    }
+
+    private void unlink(final Entry entry) {
+        if (entry.previous == null) {
+            this.leastRecentlyUsed = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            this.mostRecentlyUsed = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    /**
+     * Releases the data of all resources in the cache.
+     */
+    public synchronized void clear() {
+        drainAccesses();
+        while (this.leastRecentlyUsed != null) {
+            final Entry eldest = this.leastRecentlyUsed;
+            this.entries.remove(eldest.resource);
+            unlink(eldest);
+            this.size -= eldest.size;
+            eldest.resource.releaseData(eldest.data);
+        }
+    }
+
+    /**
+     * The maximum number of bytes of resource data the cache keeps in memory.
+     *
+     * @return The maximum number of bytes of resource data the cache keeps in memory.
+     */
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * The number of bytes of resource data in the cache.
+     *
+     * @return The number of bytes of resource data in the cache.
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * The number of resources whose data is in the cache.
+     *
+     * @return The number of resources whose data is in the cache.
+     */
+    public synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * The number of times the data of a resource was found in the cache.
+     *
+     * @return The number of times the data of a resource was found in the cache.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * The number of times the data of a resource had to be loaded.
+     *
+     * @return The number of times the data of a resource had to be loaded.
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * The number of times the data of a resource was released to make room for other data.
+     *
+     * @return The number of times the data of a resource was released to make room for other data.
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResourceDataCache[size=" + this.size + ", maxSize=" + this.maxSize + ", entries="
+               + this.entries.size() + ", hits=" + this.hitCount.get() + ", misses=" + this.missCount + ", evictions="
+               + this.evictionCount + "]";
+    }
+}
@@ -4,32 +4,77 @@ import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.StringUtil;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * All the resources that make up the book.
  * XHTML files, images and epub xml documents must be here.
  *
+ * Resources can be added, removed and looked up from several threads at the same time.
+ * Next to the resources by href a secondary index by id is kept, so that id lookups and the creation of unique
+ * ids don't need to go through all resources.
+ * A second index by MediaType makes looking up resources by MediaType as fast as the number of results.
+ *
  * @author paul
  *
  */
 public class Resources implements Serializable {
 
     /**
-     *
+     * Changed when the resources moved to concurrent maps with id and MediaType indexes, so that Resources
+     * serialized in the old form are refused with an InvalidClassException.
      */
-    private static final long serialVersionUID = 2450876953383871451L;
+    private static final long serialVersionUID = -2401105186910404927L;
     private static final String IMAGE_PREFIX = "image_";
     private static final String ITEM_PREFIX = "item_";
-    private int lastId = 1;
+    private static final int LOCK_STRIPES = 16;
+
+    private final AtomicInteger lastId = new AtomicInteger(1);
+    private final AtomicInteger lastHref = new AtomicInteger(1);
+    private final ReentrantLock[] locks = createLocks();
+
+    private final ConcurrentMap<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+    private final ConcurrentMap<String, Resource> resourcesById = new ConcurrentHashMap<String, Resource>();
+    // ids that more than one resource had when they were indexed; set(Map) and addAll keep the ids they are given
+    private final Set<String> duplicateIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<MediaType, Set<Resource>> resourcesByMediaType =
+            new ConcurrentHashMap<MediaType, Set<Resource>>();
+
+    private static ReentrantLock[] createLocks() {
+        final ReentrantLock[] result = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new ReentrantLock();
+        }
+        return result;
+    }
 
-    private Map<String, Resource> resources = new HashMap<String, Resource>();
+    /**
+     * The lock that guards changes to the resource with the given href.
+     *
+     * @param href
+     * @return The lock that guards changes to the resource with the given href.
+     */
+    private ReentrantLock getLock(final String href) {
+        int hash = href.hashCode();
+        hash ^= (hash >>> 16);
+        return this.locks[hash & (LOCK_STRIPES - 1)];
+    }
 
     /**
      * Adds a resource to the resources.
@@ -41,17 +86,159 @@ public class Resources implements Serializable {
      */
     public Resource add(final Resource resource) {
         fixResourceHref(resource);
-        fixResourceId(resource);
-        this.resources.put(resource.getHref(), resource);
+        final ReentrantLock lock = getLock(resource.getHref());
+        lock.lock();
+        try {
+            fixResourceId(resource, true);
+            put(resource.getHref(), resource);
+        } finally {
+            lock.unlock();
+        }
         return resource;
     }
 
+    /**
+     * Puts the resource in the map of resources under the given href and removes the resource it replaces, if any, from the indexes.
+     *
+     * Must be called with the lock of the href held.
+     *
+     * @param href
+     * @param resource
+     */
+    private void put(final String href, final Resource resource) {
+        final Resource previous = this.resources.put(href, resource);
+        if ((previous != null) && (previous != resource)) {
+            unindex(previous);
+        }
+        indexId(resource);
+        indexMediaType(resource, resource.getMediaType());
+        resource.setOwner(this);
+    }
+
+    private void indexId(final Resource resource) {
+        final String id = resource.getId();
+        if (StringUtil.isBlank(id)) {
+            return;
+        }
+        final Resource current = this.resourcesById.putIfAbsent(id, resource);
+        if ((current != null) && (current != resource)) {
+            this.duplicateIds.add(id);
+        }
+    }
+
+    private void unindex(final Resource resource) {
+        unindexId(resource, resource.getId());
+        unindexMediaType(resource, resource.getMediaType());
+        resource.clearOwner(this);
+    }
+
+    /**
+     * Removes the resource from the id index under the given id.
+     *
+     * If other resources of this collection have the same id, one of them takes its place in the index.
+     *
+     * @param resource
+     * @param id
+     */
+    private void unindexId(final Resource resource, final String id) {
+        if (StringUtil.isBlank(id) || !this.resourcesById.remove(id, resource) || !this.duplicateIds.contains(id)) {
+            return;
+        }
+        int holderCount = 0;
+        for (final Resource holder : this.resources.values()) {
+            if ((holder != resource) && id.equals(holder.getId())) {
+                if (holderCount == 0) {
+                    this.resourcesById.putIfAbsent(id, holder);
+                }
+                holderCount++;
+            }
+        }
+        if (holderCount <= 1) {
+            this.duplicateIds.remove(id);
+        }
+    }
+
+    /**
+     * Adds the resource to the set of resources with the given MediaType.
+     *
+     * The sets compare resources by identity, as the href that a resource's equals and hashCode use can change.
+     *
+     * @param resource
+     * @param mediaType
+     */
+    private void indexMediaType(final Resource resource, final MediaType mediaType) {
+        if (mediaType == null) {
+            return;
+        }
+        Set<Resource> mediaTypeResources = this.resourcesByMediaType.get(mediaType);
+        if (mediaTypeResources == null) {
+            final Set<Resource> newMediaTypeResources =
+                    Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Resource, Boolean>()));
+            mediaTypeResources = this.resourcesByMediaType.putIfAbsent(mediaType, newMediaTypeResources);
+            if (mediaTypeResources == null) {
+                mediaTypeResources = newMediaTypeResources;
+            }
+        }
+        mediaTypeResources.add(resource);
+    }
+
+    private void unindexMediaType(final Resource resource, final MediaType mediaType) {
+        if (mediaType == null) {
+            return;
+        }
+        final Set<Resource> mediaTypeResources = this.resourcesByMediaType.get(mediaType);
+        if (mediaTypeResources != null) {
+            mediaTypeResources.remove(resource);
+        }
+    }
+
+    /**
+     * Called by a resource of this collection when its MediaType changes.
+     *
+     * @param resource
+     * @param oldMediaType
+     */
+    void resourceMediaTypeChanged(final Resource resource, final MediaType oldMediaType) {
+        final ReentrantLock lock = getLock(resource.getHref());
+        lock.lock();
+        try {
+            unindexMediaType(resource, oldMediaType);
+            if (resource.isOwnedBy(this)) {
+                indexMediaType(resource, resource.getMediaType());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a resource of this collection when its id changes.
+     *
+     * @param resource
+     * @param oldId
+     */
+    void resourceIdChanged(final Resource resource, final String oldId) {
+        unindexId(resource, oldId);
+        indexId(resource);
+    }
+
     /**
      * Checks the id of the given resource and changes to a unique identifier if it isn't one already.
      *
      * @param resource
      */
     public void fixResourceId(final Resource resource) {
+        // only the resources of this collection have their id in the index
+        fixResourceId(resource, resource.isOwnedBy(this));
+    }
+
+    /**
+     * Checks the id of the given resource and changes to a unique identifier if it isn't one already.
+     *
+     * @param resource
+     * @param reserve whether to reserve the id in the id index, for a resource that is being added
+     */
+    private void fixResourceId(final Resource resource, final boolean reserve) {
         String resourceId = resource.getId();
 
         // first try and create a unique id based on the resource's href
@@ -62,9 +249,9 @@ public class Resources implements Serializable {
 
         resourceId = makeValidId(resourceId, resource);
 
-        // check if the id is unique. if not: create one from scratch
-        if (StringUtil.isBlank(resourceId) || containsId(resourceId)) {
-            resourceId = createUniqueResourceId(resource);
+        // claim the id. if it is taken by another resource: create one from scratch
+        if (StringUtil.isBlank(resourceId) || !claimId(resourceId, resource, reserve)) {
+            resourceId = createUniqueResourceId(resource, reserve);
         }
         resource.setId(resourceId);
     }
@@ -88,29 +275,41 @@ public class Resources implements Serializable {
         return result;
     }
 
+    /**
+     * Reserves the given id for the given resource in the id index.
+     *
+     * @param id
+     * @param resource
+     * @param reserve false to only check that no other resource has the id
+     * @return whether the id is now reserved for the given resource, false if another resource has it.
+     */
+    private boolean claimId(final String id, final Resource resource, final boolean reserve) {
+        final Resource current = reserve ? this.resourcesById.putIfAbsent(id, resource) : getById(id);
+        return (current == null) || (current == resource);
+    }
+
     /**
      * Creates a new resource id that is guarenteed to be unique for this set of Resources
      *
+     * The counter only goes up, so ids that were handed out before are not tried again.
+     *
      * @param resource
+     * @param reserve whether to reserve the id in the id index
      * @return a new resource id that is guarenteed to be unique for this set of Resources
      */
-    private String createUniqueResourceId(final Resource resource) {
-        int counter = this.lastId;
-        if (counter == Integer.MAX_VALUE) {
-            if (this.resources.size() == Integer.MAX_VALUE) {
+    private String createUniqueResourceId(final Resource resource, final boolean reserve) {
+        final String prefix = getResourceItemPrefix(resource);
+        while (true) {
+            final int counter = this.lastId.getAndIncrement();
+            if (counter <= 0) {
                 throw new IllegalArgumentException(
-                        "Resources contains " + Integer.MAX_VALUE + " elements: no new elements can be added");
-            } else {
-                counter = 1;
+                        "Resources has used up all " + Integer.MAX_VALUE + " generated ids: no new elements can be added");
+            }
+            final String result = prefix + counter;
+            if (claimId(result, resource, reserve)) {
+                return result;
             }
         }
-        final String prefix = getResourceItemPrefix(resource);
-        String result = prefix + counter;
-        while (containsId(result)) {
-            result = prefix + (++counter);
-        }
-        this.lastId = counter;
-        return result;
     }
 
     /**
@@ -120,15 +319,7 @@ public class Resources implements Serializable {
      * @return Whether the map of resources already contains a resource with the given id.
      */
     boolean containsId(final String id) {
-        if (StringUtil.isBlank(id)) {
-            return false;
-        }
-        for (final Resource resource : this.resources.values()) {
-            if (id.equals(resource.getId())) {
-                return true;
-            }
-        }
-        return false;
+        return getById(id) != null;
     }
 
     /**
@@ -141,12 +332,12 @@ public class Resources implements Serializable {
         if (StringUtil.isBlank(id)) {
             return null;
         }
-        for (final Resource resource : this.resources.values()) {
-            if (id.equals(resource.getId())) {
-                return resource;
-            }
+        final Resource result = this.resourcesById.get(id);
+        if ((result == null) || !id.equals(result.getId())) {
+            // the id of a resource that has since moved to another Resources has changed
+            return null;
         }
-        return null;
+        return result;
     }
 
     /**
@@ -156,7 +347,20 @@ public class Resources implements Serializable {
      * @return the removed resource, null if not found
      */
     public Resource remove(final String href) {
-        return this.resources.remove(href);
+        if (href == null) {
+            return null;
+        }
+        final ReentrantLock lock = getLock(href);
+        lock.lock();
+        try {
+            final Resource result = this.resources.remove(href);
+            if (result != null) {
+                unindex(result);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void fixResourceHref(final Resource resource) {
@@ -168,10 +372,9 @@ public class Resources implements Serializable {
             if (resource.getMediaType() == null) {
                 throw new IllegalArgumentException("Resource must have either a MediaType or a href");
             }
-            int i = 1;
-            String href = createHref(resource.getMediaType(), i);
+            String href = createHref(resource.getMediaType(), this.lastHref.getAndIncrement());
             while (this.resources.containsKey(href)) {
-                href = createHref(resource.getMediaType(), (++i));
+                href = createHref(resource.getMediaType(), this.lastHref.getAndIncrement());
             }
             resource.setHref(href);
         }
@@ -199,14 +402,16 @@ public class Resources implements Serializable {
      * The resources that make up this book.
      * Resources can be xhtml pages, images, xml documents, etc.
      *
+     * The returned map can not be modified, use add and remove instead.
+     *
      * @return The resources that make up this book.
      */
     public Map<String, Resource> getResourceMap() {
-        return this.resources;
+        return Collections.unmodifiableMap(this.resources);
     }
 
     public Collection<Resource> getAll() {
-        return this.resources.values();
+        return Collections.unmodifiableCollection(this.resources.values());
     }
 
 
@@ -228,10 +433,19 @@ public class Resources implements Serializable {
      * @param resources
      */
     public void set(final Collection<Resource> resources) {
-        this.resources.clear();
+        clear();
         addAll(resources);
     }
 
+    /**
+     * Removes all resources.
+     */
+    private void clear() {
+        for (final String href : new ArrayList<String>(this.resources.keySet())) {
+            remove(href);
+        }
+    }
+
     /**
      * Adds all resources from the given Collection of resources to the existing collection.
      *
@@ -240,7 +454,13 @@ public class Resources implements Serializable {
     void addAll(final Collection<Resource> resources) {
         for (final Resource resource : resources) {
             fixResourceHref(resource);
-            this.resources.put(resource.getHref(), resource);
+            final ReentrantLock lock = getLock(resource.getHref());
+            lock.lock();
+            try {
+                put(resource.getHref(), resource);
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
@@ -250,7 +470,16 @@ public class Resources implements Serializable {
      * @param resources A map with as keys the resources href and as values the Resources
      */
     public void set(final Map<String, Resource> resources) {
-        this.resources = new HashMap<String, Resource>(resources);
+        clear();
+        for (final Map.Entry<String, Resource> entry : resources.entrySet()) {
+            final ReentrantLock lock = getLock(entry.getKey());
+            lock.lock();
+            try {
+                put(entry.getKey(), entry.getValue());
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
 
@@ -295,7 +524,17 @@ public class Resources implements Serializable {
      * @return the first resource (random order) with the give mediatype.
      */
     public Resource findFirstResourceByMediaType(final MediaType mediaType) {
-        return findFirstResourceByMediaType(this.resources.values(), mediaType);
+        if (mediaType == null) {
+            return findFirstResourceByMediaType(this.resources.values(), mediaType);
+        }
+        final Set<Resource> mediaTypeResources = this.resourcesByMediaType.get(mediaType);
+        if (mediaTypeResources == null) {
+            return null;
+        }
+        synchronized (mediaTypeResources) {
+            final Iterator<Resource> iterator = mediaTypeResources.iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
     }
 
     /**
@@ -327,11 +566,7 @@ public class Resources implements Serializable {
         if (mediaType == null) {
             return result;
         }
-        for (final Resource resource : getAll()) {
-            if (resource.getMediaType() == mediaType) {
-                result.add(resource);
-            }
-        }
+        addResourcesByMediaType(mediaType, result);
         return result;
     }
 
@@ -346,18 +581,24 @@ public class Resources implements Serializable {
         if (mediaTypes == null) {
             return result;
         }
-
-        // this is the fastest way of doing this according to
-        // http://stackoverflow.com/questions/1128723/in-java-how-can-i-test-if-an-array-contains-a-certain-value
-        final List<MediaType> mediaTypesList = Arrays.asList(mediaTypes);
-        for (final Resource resource : getAll()) {
-            if (mediaTypesList.contains(resource.getMediaType())) {
-                result.add(resource);
+        for (final MediaType mediaType : new LinkedHashSet<MediaType>(Arrays.asList(mediaTypes))) {
+            if (mediaType != null) {
+                addResourcesByMediaType(mediaType, result);
             }
         }
         return result;
     }
 
+    private void addResourcesByMediaType(final MediaType mediaType, final List<Resource> result) {
+        final Set<Resource> mediaTypeResources = this.resourcesByMediaType.get(mediaType);
+        if (mediaTypeResources == null) {
+            return;
+        }
+        synchronized (mediaTypeResources) {
+            result.addAll(mediaTypeResources);
+        }
+    }
+
 
     /**
      * All resource hrefs
@@ -365,6 +606,13 @@ public class Resources implements Serializable {
      * @return all resource hrefs
      */
     public Collection<String> getAllHrefs() {
-        return this.resources.keySet();
+        return Collections.unmodifiableSet(this.resources.keySet());
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (final Resource resource : this.resources.values()) {
+            resource.setOwner(this);
+        }
     }
 }
@@ -0,0 +1,183 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.LazyResourceProvider;
+import nl.siegmann.epublib.util.zip.ZipArchive;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+
+/**
+ * Serves the lazy resources of a book from a single shared, open epub archive.
+ *
+ * The archive is reference counted: the Book holds one reference and every stream that is handed out holds
+ * another one. The archive is closed when the Book is closed and all streams handed out have been closed.
+ *
+ * @author paul
+ *
+ */
+public abstract class ArchiveResourceProvider implements LazyResourceProvider {
+
+    private int referenceCount = 1;
+    private boolean closed = false;
+
+    /**
+     * The name of the archive, used in error messages.
+     *
+     * @return The name of the archive.
+     */
+    protected abstract String getArchiveName();
+
+    /**
+     * All entries of the archive.
+     *
+     * @return All entries of the archive.
+     */
+    public abstract Collection<? extends ZipEntry> getEntries();
+
+    /**
+     * Opens a stream on the uncompressed contents of the entry with the given name.
+     *
+     * @param href
+     * @return null if the archive does not contain an entry with the given name.
+     * @throws IOException
+     */
+    protected abstract InputStream openEntry(String href) throws IOException;
+
+    /**
+     * The archive as a ZipArchive, for access to the compressed data of its entries.
+     *
+     * @return The archive as a ZipArchive.
+     * @throws IOException
+     */
+    protected abstract ZipArchive getZipArchive() throws IOException;
+
+    /**
+     * Closes the underlying archive.
+     *
+     * @throws IOException
+     */
+    protected abstract void closeArchive() throws IOException;
+
+    @Override
+    public InputStream getResourceStream(final String href) throws IOException {
+        return openReleasingStream(href, false);
+    }
+
+    /**
+     * Gets the entry of the resource with the given href, with its crc, sizes and compression method as they
+     * are stored in the archive.
+     *
+     * @param href The location of the resource within the epub file. Example: "OEBPS/images/cover.jpg".
+     * @return null if the archive does not contain an entry with the given name.
+     * @throws IOException
+     */
+    public ZipArchiveEntry getRawEntry(final String href) throws IOException {
+        acquire();
+        try {
+            return getZipArchive().getEntry(href);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Opens a stream on the data of the resource with the given href exactly as it is stored in the archive,
+     * without inflating it.
+     *
+     * @param href The location of the resource within the epub file. Example: "OEBPS/images/cover.jpg".
+     * @return a stream on the (possibly compressed) data of the resource.
+     * @throws IOException
+     */
+    public InputStream getRawResourceStream(final String href) throws IOException {
+        return openReleasingStream(href, true);
+    }
+
+    private InputStream openReleasingStream(final String href, final boolean raw) throws IOException {
+        acquire();
+        try {
+            final InputStream result = raw ? openRawEntry(href) : openEntry(href);
+            if (result == null) {
+                throw new IllegalStateException("Cannot find resources href " + href + " in the epub file");
+            }
+            return new ReleasingInputStream(result);
+        } catch (IOException e) {
+            release();
+            throw e;
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private InputStream openRawEntry(final String href) throws IOException {
+        final ZipArchive zipArchive = getZipArchive();
+        final ZipArchiveEntry entry = zipArchive.getEntry(href);
+        if (entry == null) {
+            return null;
+        }
+        return zipArchive.getRawInputStream(entry);
+    }
+
+    @Override
+    public ByteBuffer getResourceBuffer(final String href) throws IOException {
+        return null;
+    }
+
+    /**
+     * Releases the reference held by the owner of this provider.
+     *
+     * The underlying archive stays open until all streams handed out by this provider have been closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        release();
+    }
+
+    protected synchronized void acquire() throws IOException {
+        if (this.closed) {
+            throw new IOException("Epub file " + getArchiveName() + " has already been closed");
+        }
+        this.referenceCount++;
+    }
+
+    protected synchronized void release() throws IOException {
+        this.referenceCount--;
+        if (this.referenceCount == 0) {
+            closeArchive();
+        }
+    }
+
+    /**
+     * Releases its reference to the archive when closed.
+     */
+    private class ReleasingInputStream extends FilterInputStream {
+
+        private boolean released = false;
+
+        ReleasingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+    }
+}
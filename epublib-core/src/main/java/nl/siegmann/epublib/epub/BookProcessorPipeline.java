@@ -1,25 +1,44 @@
 package nl.siegmann.epublib.epub;
 
+import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.service.MediatypeService;
+import nl.siegmann.epublib.util.IOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A book processor that combines several other bookprocessors
  *
  * Fixes coverpage/coverimage. Cleans up the XHTML.
  *
+ * Consecutive ResourceBookProcessors are run per resource: every resource goes through these processors in
+ * order before the next resource is processed. Consecutive HtmlTextBookProcessors are fused: an html resource is
+ * decoded once, its text is passed from one processor to the next and encoded once at the end.
+ *
+ * When given an executor, the resources are processed concurrently. Book-global processors act as barriers: they
+ * start after all resources went through the processors before them and finish before the next ones start.
+ *
  * @author paul.siegmann
  */
 public class BookProcessorPipeline implements BookProcessor {
 
     private final Logger log = LoggerFactory.getLogger(BookProcessorPipeline.class);
     private List<BookProcessor> bookProcessors;
+    private Executor executor;
 
     protected BookProcessorPipeline() {
         this(null);
@@ -35,15 +54,144 @@ public class BookProcessorPipeline implements BookProcessor {
         if (this.bookProcessors == null) {
             return book;
         }
-        for (final BookProcessor bookProcessor : this.bookProcessors) {
+        int i = 0;
+        while (i < this.bookProcessors.size()) {
+            final List<ResourceBookProcessor> resourceBookProcessors = new ArrayList<ResourceBookProcessor>();
+            while ((i < this.bookProcessors.size())
+                   && (this.bookProcessors.get(i) instanceof ResourceBookProcessor)) {
+                resourceBookProcessors.add((ResourceBookProcessor) this.bookProcessors.get(i));
+                i++;
+            }
+            if (resourceBookProcessors.isEmpty()) {
+                book = processBook(this.bookProcessors.get(i), book);
+                i++;
+            } else {
+                processResources(resourceBookProcessors, book);
+            }
+        }
+        return book;
+    }
+
+    private Book processBook(final BookProcessor bookProcessor, final Book book) throws IOException {
+        try {
+            return bookProcessor.processBook(book);
+        } catch (Exception e) {
+            this.log.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Runs every resource of the book through the given processors, on the executor if there is one, and waits
+     * until all resources are done.
+     *
+     * If a resource fails, the resources that have not started yet are skipped and the ones being processed are
+     * waited for, so the book does not change anymore once the exception is thrown.
+     *
+     * @param resourceBookProcessors
+     * @param book
+     * @throws IOException
+     */
+    private void processResources(final List<ResourceBookProcessor> resourceBookProcessors, final Book book)
+            throws IOException {
+        final List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        for (final Resource resource : new ArrayList<Resource>(book.getResources().getAll())) {
+            final FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+
+                @Override
+                public Object call() throws IOException {
+                    if (!stopped.get()) {
+                        processResource(resourceBookProcessors, resource, book);
+                    }
+                    return null;
+                }
+            });
+            if (this.executor == null) {
+                task.run();
+            } else {
+                try {
+                    this.executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+            tasks.add(task);
+        }
+        for (final FutureTask<Object> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                stopped.set(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while processing resources");
+            } catch (ExecutionException e) {
+                stopped.set(true);
+                this.log.error(e.getCause().getMessage(), e.getCause());
+                awaitTasks(tasks);
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Waits until the given tasks are done, ignoring their failures.
+     *
+     * @param tasks
+     * @throws InterruptedIOException
+     */
+    private static void awaitTasks(final List<FutureTask<Object>> tasks) throws InterruptedIOException {
+        for (final FutureTask<Object> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while processing resources");
+            } catch (ExecutionException e) {
+                // only the first failure is reported
+            }
+        }
+    }
+
+    /**
+     * Runs the resource through the given processors, fusing consecutive HtmlTextBookProcessors.
+     *
+     * @param resourceBookProcessors
+     * @param resource
+     * @param book
+     * @throws IOException
+     */
+    private void processResource(final List<ResourceBookProcessor> resourceBookProcessors, final Resource resource,
+                                 final Book book) throws IOException {
+        // the text of the resource while it is being passed from one HtmlTextBookProcessor to the next
+        String html = null;
+        for (final ResourceBookProcessor resourceBookProcessor : resourceBookProcessors) {
             try {
-                book = bookProcessor.processBook(book);
-            } catch (Exception e) {
+                if ((resourceBookProcessor instanceof HtmlTextBookProcessor)
+                    && (resource.getMediaType() == MediatypeService.XHTML)) {
+                    if (html == null) {
+                        html = IOUtil.toString(resource.getReader());
+                    }
+                    html = ((HtmlTextBookProcessor) resourceBookProcessor).processHtmlText(html, resource, book);
+                } else {
+                    if (html != null) {
+                        setHtml(resource, html);
+                        html = null;
+                    }
+                    resourceBookProcessor.processResource(resource, book);
+                }
+            } catch (IOException e) {
                 this.log.error(e.getMessage(), e);
-                throw new IOException(e);
             }
         }
-        return book;
+        if (html != null) {
+            setHtml(resource, html);
+        }
+    }
+
+    private static void setHtml(final Resource resource, final String html) throws IOException {
+        resource.setData(html.getBytes(Constants.CHARACTER_ENCODING));
+        resource.setInputEncoding(Constants.CHARACTER_ENCODING);
     }
 
     public void addBookProcessor(final BookProcessor bookProcessor) {
@@ -61,6 +209,21 @@ public class BookProcessorPipeline implements BookProcessor {
     }
 
 
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Sets the executor on which the resources are processed by ResourceBookProcessors.
+     *
+     * The executor is not shut down by this pipeline.
+     *
+     * @param executor null to process all resources on the calling thread.
+     */
+    public void setExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
     public List<BookProcessor> getBookProcessors() {
         return this.bookProcessors;
     }
@@ -0,0 +1,177 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.MediaType;
+import nl.siegmann.epublib.service.MediatypeService;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Decides per MediaType how the EpubWriter compresses resources.
+ *
+ * Resources that are already compressed, like jpeg images and mp3 audio, gain next to nothing from being
+ * deflated again but do cost a lot of cpu time. These can be stored uncompressed instead.
+ *
+ * In adaptive mode the first block of every resource that would be deflated is deflated as a trial. If that
+ * saves less than the given percentage the resource is stored uncompressed.
+ *
+ * @author paul
+ *
+ */
+public class CompressionPolicy {
+
+    /**
+     * How a resource is written to the epub.
+     */
+    public enum Compression {
+        STORED(Deflater.NO_COMPRESSION),
+        FAST(Deflater.BEST_SPEED),
+        DEFAULT(Deflater.DEFAULT_COMPRESSION),
+        MAXIMUM(Deflater.BEST_COMPRESSION);
+
+        private final int level;
+
+        Compression(final int level) {
+            this.level = level;
+        }
+
+        /**
+         * The deflate level.
+         *
+         * @return The deflate level.
+         */
+        public int getLevel() {
+            return this.level;
+        }
+    }
+
+    /**
+     * The number of bytes of a resource that is deflated as a trial in adaptive mode.
+     */
+    public static final int TRIAL_BLOCK_SIZE = 64 * 1024;
+
+    private static final MediaType[] COMPRESSED_MEDIATYPES = {
+            MediatypeService.JPG, MediatypeService.PNG, MediatypeService.GIF, MediatypeService.WOFF,
+            MediatypeService.MP3, MediatypeService.MP4, MediatypeService.OGG
+    };
+
+    private final Map<MediaType, Compression> compressions = new HashMap<MediaType, Compression>();
+    private Compression defaultCompression = Compression.DEFAULT;
+    private int adaptiveMinimumSaving = 0;
+
+    /**
+     * Deflates every resource with the default deflate level.
+     *
+     * @return a policy that deflates every resource with the default deflate level.
+     */
+    public static CompressionPolicy createDefaultPolicy() {
+        return new CompressionPolicy();
+    }
+
+    /**
+     * Stores images, fonts and audio that are already compressed and deflates everything else with the fastest
+     * deflate level. Meant for quick preview builds.
+     *
+     * @return a policy that favours writing speed over file size.
+     */
+    public static CompressionPolicy createFastPolicy() {
+        final CompressionPolicy result = new CompressionPolicy();
+        result.setDefaultCompression(Compression.FAST);
+        for (final MediaType mediaType : COMPRESSED_MEDIATYPES) {
+            result.setCompression(mediaType, Compression.STORED);
+        }
+        return result;
+    }
+
+    /**
+     * Deflates every resource with the maximum deflate level, unless a trial deflate shows that
+     * this saves less than 2%. Meant for distribution.
+     *
+     * @return a policy that favours file size over writing speed.
+     */
+    public static CompressionPolicy createSmallPolicy() {
+        final CompressionPolicy result = new CompressionPolicy();
+        result.setDefaultCompression(Compression.MAXIMUM);
+        result.setAdaptiveMinimumSaving(2);
+        return result;
+    }
+
+    /**
+     * The compression for resources of the given MediaType.
+     *
+     * @param mediaType
+     * @return The compression for resources of the given MediaType.
+     */
+    public Compression getCompression(final MediaType mediaType) {
+        final Compression result = this.compressions.get(mediaType);
+        return (result == null) ? this.defaultCompression : result;
+    }
+
+    public void setCompression(final MediaType mediaType, final Compression compression) {
+        this.compressions.put(mediaType, compression);
+    }
+
+    public Compression getDefaultCompression() {
+        return this.defaultCompression;
+    }
+
+    /**
+     * Sets the compression for resources of MediaTypes that have no compression of their own.
+     *
+     * @param defaultCompression
+     */
+    public void setDefaultCompression(final Compression defaultCompression) {
+        this.defaultCompression = defaultCompression;
+    }
+
+    public int getAdaptiveMinimumSaving() {
+        return this.adaptiveMinimumSaving;
+    }
+
+    /**
+     * Sets the percentage that a trial deflate of the first block of a resource must save for the resource to be
+     * deflated. Resources that save less are stored uncompressed.
+     *
+     * @param adaptiveMinimumSaving a percentage, 0 to always deflate.
+     */
+    public void setAdaptiveMinimumSaving(final int adaptiveMinimumSaving) {
+        this.adaptiveMinimumSaving = adaptiveMinimumSaving;
+    }
+
+    /**
+     * Whether the adaptive mode is on.
+     *
+     * @return whether the adaptive mode is on.
+     */
+    public boolean isAdaptive() {
+        return this.adaptiveMinimumSaving > 0;
+    }
+
+    /**
+     * Deflates the given first block of a resource as a trial.
+     *
+     * @param block
+     * @param length
+     * @param compression
+     * @return whether deflating saves at least the adaptive minimum saving.
+     */
+    public boolean isWorthDeflating(final byte[] block, final int length, final Compression compression) {
+        if (!isAdaptive() || (length == 0)) {
+            return true;
+        }
+        final Deflater deflater = new Deflater(compression.getLevel(), true);
+        try {
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+            final byte[] output = new byte[8192];
+            while (!deflater.finished()) {
+                deflater.deflate(output);
+            }
+            final long saving = 100L * (length - deflater.getBytesWritten()) / length;
+            return saving >= this.adaptiveMinimumSaving;
+        } finally {
+            deflater.end();
+        }
+    }
+}
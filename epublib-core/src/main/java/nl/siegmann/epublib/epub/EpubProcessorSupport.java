@@ -1,17 +1,21 @@
 package nl.siegmann.epublib.epub;
 
 import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.util.IOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,6 +23,8 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Various low-level support methods for reading/writing epubs.
@@ -31,12 +37,96 @@ public class EpubProcessorSupport {
     private static final Logger log = LoggerFactory.getLogger(EpubProcessorSupport.class);
 
     private static DocumentBuilderFactory documentBuilderFactory;
+    private static DocumentBuilderFactory nonNamespaceAwareDocumentBuilderFactory;
+    private static CachedDocumentBuilder documentBuilders;
+    private static CachedDocumentBuilder nonNamespaceAwareDocumentBuilders;
 
     static {
         init();
     }
 
+    /**
+     * Looking up an XmlPullParserFactory goes through the service loader, so it is done only once.
+     * The factories are only configured here, after that creating serializers and parsers is thread-safe.
+     */
+    private static class XmlPullParserFactories {
+        private static final XmlPullParserFactory serializerFactory = createXmlPullParserFactory(true, false);
+        private static final XmlPullParserFactory parserFactory = createXmlPullParserFactory(false, true);
+
+        private static XmlPullParserFactory createXmlPullParserFactory(final boolean validating,
+                                                                       final boolean namespaceAware) {
+            try {
+                final XmlPullParserFactory result = XmlPullParserFactory.newInstance();
+                result.setValidating(validating);
+                result.setNamespaceAware(namespaceAware);
+                return result;
+            } catch (XmlPullParserException e) {
+                log.error("When creating XmlPullParserFactory: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Keeps a DocumentBuilder per thread, as a DocumentBuilder can not be used by several threads at the same time.
+     */
+    private static class CachedDocumentBuilder extends ThreadLocal<DocumentBuilder> {
+        private final DocumentBuilderFactory factory;
+
+        CachedDocumentBuilder(final DocumentBuilderFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        protected DocumentBuilder initialValue() {
+            return newDocumentBuilder();
+        }
+
+        private DocumentBuilder newDocumentBuilder() {
+            // the factory itself is not thread-safe
+            synchronized (this.factory) {
+                try {
+                    return this.factory.newDocumentBuilder();
+                } catch (ParserConfigurationException e) {
+                    log.error(e.getMessage());
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * The DocumentBuilder of the current thread, reset to the state it had when it was created and with a
+         * fresh EntityResolver.
+         *
+         * @return The DocumentBuilder of the current thread.
+         */
+        DocumentBuilder getReset() {
+            DocumentBuilder result = get();
+            if (result == null) {
+                return null;
+            }
+            try {
+                result.reset();
+            } catch (UnsupportedOperationException e) {
+                result = newDocumentBuilder();
+                set(result);
+                if (result == null) {
+                    return null;
+                }
+            }
+            result.setEntityResolver(getEntityResolver());
+            return result;
+        }
+    }
+
+    /**
+     * Resolves dtd's and entity files from epublib's classpath.
+     *
+     * The contents of the resolved files are kept in memory, shared by all EntityResolvers, so that parsing many
+     * xhtml documents does not look up and read the same dtd's from the jar over and over again.
+     */
     static class EntityResolverImpl implements EntityResolver {
+        private static final ConcurrentMap<String, byte[]> cachedResources = new ConcurrentHashMap<String, byte[]>();
         private String previousLocation;
 
         @Override
@@ -51,12 +141,36 @@ public class EpubProcessorSupport {
                 resourcePath = this.previousLocation + systemId.substring(systemId.lastIndexOf('/'));
             }
 
-            if (this.getClass().getClassLoader().getResource(resourcePath) == null) {
+            final byte[] data = getCachedResource(resourcePath);
+            if (data == null) {
                 throw new RuntimeException("remote resource is not cached : [" + systemId + "] cannot continue");
             }
+            return new InputSource(new ByteArrayInputStream(data));
+        }
 
+        /**
+         * The contents of the given classpath resource, read from the classpath only the first time.
+         *
+         * @param resourcePath
+         * @return The contents of the given classpath resource, null if it does not exist.
+         * @throws IOException
+         */
+        static byte[] getCachedResource(final String resourcePath) throws IOException {
+            byte[] result = cachedResources.get(resourcePath);
+            if (result != null) {
+                return result;
+            }
             final InputStream in = EpubProcessorSupport.class.getClassLoader().getResourceAsStream(resourcePath);
-            return new InputSource(in);
+            if (in == null) {
+                return null;
+            }
+            try {
+                result = IOUtil.toByteArray(in);
+            } finally {
+                in.close();
+            }
+            final byte[] previous = cachedResources.putIfAbsent(resourcePath, result);
+            return (previous == null) ? result : previous;
         }
     }
 
@@ -65,18 +179,30 @@ public class EpubProcessorSupport {
         documentBuilderFactory = DocumentBuilderFactory.newInstance();
         documentBuilderFactory.setNamespaceAware(true);
         documentBuilderFactory.setValidating(false);
+        documentBuilders = new CachedDocumentBuilder(documentBuilderFactory);
+        nonNamespaceAwareDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
+        nonNamespaceAwareDocumentBuilderFactory.setNamespaceAware(false);
+        nonNamespaceAwareDocumentBuilderFactory.setValidating(false);
+        nonNamespaceAwareDocumentBuilders = new CachedDocumentBuilder(nonNamespaceAwareDocumentBuilderFactory);
     }
 
     public static XmlSerializer createXmlSerializer(final OutputStream out) throws UnsupportedEncodingException {
         return createXmlSerializer(new OutputStreamWriter(out, Constants.CHARACTER_ENCODING));
     }
 
+    /**
+     * Creates an XmlSerializer that writes to the given Writer.
+     *
+     * A serializer keeps the state of the document it is writing, so every document gets its own serializer.
+     * The factory that creates them is only looked up once.
+     *
+     * @param out
+     * @return an XmlSerializer that writes to the given Writer.
+     */
     private static XmlSerializer createXmlSerializer(final Writer out) {
         XmlSerializer result = null;
         try {
-            final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setValidating(true);
-            result = factory.newSerializer();
+            result = XmlPullParserFactories.serializerFactory.newSerializer();
             result.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
             result.setOutput(out);
         } catch (Exception e) {
@@ -102,16 +228,43 @@ public class EpubProcessorSupport {
     }
 
     /**
-     * Creates a DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
+     * Gets a namespace aware DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
+     *
+     * Every thread has its own DocumentBuilder that is reset each time this method is called, so the result
+     * should only be used by the calling thread, and not after the next call to this method.
      *
      * @return a DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
      */
     public static DocumentBuilder createDocumentBuilder() {
-        DocumentBuilder result = null;
+        return createDocumentBuilder(true);
+    }
+
+    /**
+     * Gets a DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
+     *
+     * Every thread has its own DocumentBuilder that is reset each time this method is called, so the result
+     * should only be used by the calling thread, and not after the next call to this method.
+     *
+     * @param namespaceAware
+     * @return a DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
+     */
+    public static DocumentBuilder createDocumentBuilder(final boolean namespaceAware) {
+        return namespaceAware ? documentBuilders.getReset() : nonNamespaceAwareDocumentBuilders.getReset();
+    }
+
+    /**
+     * Creates a namespace aware XmlPullParser.
+     *
+     * A parser keeps the state of the document it is reading, so every document gets its own parser.
+     * The factory that creates them is only looked up once.
+     *
+     * @return a namespace aware XmlPullParser.
+     */
+    public static XmlPullParser createXmlPullParser() {
+        XmlPullParser result = null;
         try {
-            result = documentBuilderFactory.newDocumentBuilder();
-            result.setEntityResolver(getEntityResolver());
-        } catch (ParserConfigurationException e) {
+            result = XmlPullParserFactories.parserFactory.newPullParser();
+        } catch (XmlPullParserException e) {
             log.error(e.getMessage());
         }
         return result;
@@ -4,6 +4,7 @@ import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.MediaType;
 import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.ResourceDataCache;
 import nl.siegmann.epublib.domain.Resources;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.ResourceUtil;
@@ -32,6 +33,49 @@ public class EpubReader {
 
     private static final Logger log = LoggerFactory.getLogger(EpubReader.class);
     private final BookProcessor bookProcessor = BookProcessor.IDENTITY_BOOKPROCESSOR;
+    private boolean pullParsing = false;
+    private ResourceDataCache resourceDataCache;
+
+    /**
+     * Whether the package document and the ncx document are read with an XmlPullParser instead of being parsed
+     * into a DOM.
+     *
+     * @return Whether the package document and the ncx document are read with an XmlPullParser.
+     */
+    public boolean isPullParsing() {
+        return this.pullParsing;
+    }
+
+    /**
+     * Reads the package document and the ncx document with an XmlPullParser instead of parsing them into a DOM.
+     *
+     * The resulting Book is the same, but for package documents with many manifest items and ncx documents with
+     * many navPoints this is a lot faster and uses less memory.
+     *
+     * @param pullParsing
+     */
+    public void setPullParsing(final boolean pullParsing) {
+        this.pullParsing = pullParsing;
+    }
+
+    /**
+     * The cache that the lazy resources of the books read by this reader keep their data in.
+     *
+     * @return null if lazy resources keep their data until they are closed.
+     */
+    public ResourceDataCache getResourceDataCache() {
+        return this.resourceDataCache;
+    }
+
+    /**
+     * Lets the lazy resources of the books read by this reader keep their data in the given cache, so that the
+     * data of resources that have not been used for a while is released when the cache is full.
+     *
+     * @param resourceDataCache
+     */
+    public void setResourceDataCache(final ResourceDataCache resourceDataCache) {
+        this.resourceDataCache = resourceDataCache;
+    }
 
     public Book readEpub(final InputStream in) throws IOException {
         return readEpub(in, Constants.CHARACTER_ENCODING);
@@ -90,6 +134,139 @@ public class EpubReader {
         return readEpubLazy(fileName, encoding, Arrays.asList(MediatypeService.mediatypes));
     }
 
+    /**
+     * Reads this EPUB without loading any resources into memory, serving all resources from the given ZipFile.
+     *
+     * The zip central directory is only read once and the ZipFile is shared by all lazy resources of the Book.
+     * The book takes ownership of the ZipFile: it is closed when the returned Book is closed.
+     *
+     * @param zipFile  the epub file
+     * @param encoding the encoding for XHTML files
+     * @return this Book without loading all resources into memory.
+     */
+    public Book readEpubLazy(final ZipFile zipFile, final String encoding) throws IOException {
+        return readEpubLazy(zipFile, encoding, Arrays.asList(MediatypeService.mediatypes));
+    }
+
+    /**
+     * Reads this EPUB without loading the resources of the given MediaTypes into memory, serving them from the
+     * given ZipFile.
+     *
+     * The book takes ownership of the ZipFile: it is closed when the returned Book is closed.
+     *
+     * @param zipFile         the epub file
+     * @param encoding        the encoding for XHTML files
+     * @param lazyLoadedTypes a list of the MediaType to load lazily
+     * @return this Book without loading all resources into memory.
+     */
+    public Book readEpubLazy(final ZipFile zipFile, final String encoding, final List<MediaType> lazyLoadedTypes)
+            throws IOException {
+        return readEpubLazy(new ZipFileResourceProvider(zipFile), encoding, lazyLoadedTypes);
+    }
+
+    /**
+     * Reads this EPUB without loading any resources into memory, serving them from a memory-mapped view of the
+     * epub file.
+     *
+     * Resources that are stored uncompressed in the epub file can be accessed without copying them onto the heap
+     * through {@link Resource#getByteBuffer()}.
+     *
+     * @param fileName the file to load
+     * @param encoding the encoding for XHTML files
+     * @return this Book without loading all resources into memory.
+     */
+    public Book readEpubLazyMapped(final String fileName, final String encoding) throws IOException {
+        return readEpubLazyMapped(fileName, encoding, Arrays.asList(MediatypeService.mediatypes));
+    }
+
+    /**
+     * Reads this EPUB without loading the resources of the given MediaTypes into memory, serving them from a
+     * memory-mapped view of the epub file.
+     *
+     * The epub file stays open until the returned Book is closed.
+     *
+     * @param fileName        the file to load
+     * @param encoding        the encoding for XHTML files
+     * @param lazyLoadedTypes a list of the MediaType to load lazily
+     * @return this Book without loading all resources into memory.
+     */
+    public Book readEpubLazyMapped(final String fileName, final String encoding, final List<MediaType> lazyLoadedTypes)
+            throws IOException {
+        return readEpubLazy(new ZipArchiveResourceProvider(fileName), encoding, lazyLoadedTypes);
+    }
+
+    /**
+     * Reads only the metadata, spine, guide and cover of this EPUB.
+     *
+     * Only META-INF/container.xml and the package document are read, straight from their entries in the zip
+     * central directory. All other resources are lazy stubs that are loaded on first access, the table of contents
+     * is not read and the book is not post-processed.
+     * The epub file stays open until the returned Book is closed.
+     *
+     * @param fileName the file to load
+     * @param encoding the encoding for XHTML files
+     * @return the metadata, spine, guide and cover of this EPUB.
+     * @throws IOException
+     */
+    public Book readEpubMetadata(final String fileName, final String encoding) throws IOException {
+        return readEpubMetadata(new ZipFile(fileName), encoding);
+    }
+
+    /**
+     * Reads only the metadata, spine, guide and cover of this EPUB.
+     *
+     * The book takes ownership of the ZipFile: it is closed when the returned Book is closed.
+     *
+     * @param zipFile  the epub file
+     * @param encoding the encoding for XHTML files
+     * @return the metadata, spine, guide and cover of this EPUB.
+     * @throws IOException
+     * @see #readEpubMetadata(String, String)
+     */
+    public Book readEpubMetadata(final ZipFile zipFile, final String encoding) throws IOException {
+        return readEpubMetadata(new ZipFileResourceProvider(zipFile), encoding);
+    }
+
+    Book readEpubMetadata(final ArchiveResourceProvider resourceProvider, final String encoding)
+            throws IOException {
+        try {
+            final Resources resources = new Resources();
+            for (final ZipEntry zipEntry : resourceProvider.getEntries()) {
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                final Resource resource = new Resource(resourceProvider, zipEntry.getSize(), zipEntry.getName());
+                resource.setDataCache(this.resourceDataCache);
+                if (resource.getMediaType() == MediatypeService.XHTML) {
+                    resource.setInputEncoding(encoding);
+                }
+                resources.add(resource);
+            }
+            final Book result = new Book();
+            handleMimeType(result, resources);
+            final String packageResourceHref = getPackageResourceHref(resources);
+            final Resource packageResource = processPackageResource(packageResourceHref, result, resources);
+            result.setOpfResource(packageResource);
+            result.setResourceProvider(resourceProvider);
+            return result;
+        } catch (IOException e) {
+            resourceProvider.close();
+            throw e;
+        }
+    }
+
+    private Book readEpubLazy(final ArchiveResourceProvider resourceProvider, final String encoding,
+                              final List<MediaType> lazyLoadedTypes) throws IOException {
+        try {
+            final Book result = readEpubResources(readLazyResources(resourceProvider, encoding, lazyLoadedTypes));
+            result.setResourceProvider(resourceProvider);
+            return result;
+        } catch (IOException e) {
+            resourceProvider.close();
+            throw e;
+        }
+    }
+
     Book readEpub(final ZipInputStream in, final String encoding) throws IOException {
         return readEpubResources(readResources(in, encoding));
     }
@@ -125,7 +302,11 @@ public class EpubReader {
                                             final Resources resources) throws IOException {
         final Resource packageResource = resources.remove(packageResourceHref);
         try {
-            PackageDocumentReader.read(packageResource, this, book, resources);
+            if (this.pullParsing) {
+                PackageDocumentPullReader.read(packageResource, this, book, resources);
+            } else {
+                PackageDocumentReader.read(packageResource, this, book, resources);
+            }
         } catch (Exception e) {
             throw new IOException("Read error", e);
         }
@@ -176,8 +357,47 @@ public class EpubReader {
 
             final Resource resource;
 
-            resource = lazyLoadedTypes.contains(mediaType) ? new Resource(fileName, zipEntry.getSize(), href) :
-                       new Resource(in, fileName, (int) zipEntry.getSize(), href);
+            if (lazyLoadedTypes.contains(mediaType)) {
+                resource = new Resource(fileName, zipEntry.getSize(), href);
+                resource.setDataCache(this.resourceDataCache);
+            } else {
+                resource = new Resource(in, fileName, (int) zipEntry.getSize(), href);
+            }
+
+            if (resource.getMediaType() == MediatypeService.XHTML) {
+                resource.setInputEncoding(defaultHtmlEncoding);
+            }
+            result.add(resource);
+        }
+
+        return result;
+    }
+
+    private Resources readLazyResources(final ArchiveResourceProvider resourceProvider,
+                                        final String defaultHtmlEncoding,
+                                        final List<MediaType> lazyLoadedTypes) throws IOException {
+        final Resources result = new Resources();
+
+        for (final ZipEntry zipEntry : resourceProvider.getEntries()) {
+            if (zipEntry.isDirectory()) {
+                continue;
+            }
+
+            final String href = zipEntry.getName();
+            final MediaType mediaType = MediatypeService.determineMediaType(href);
+
+            final Resource resource;
+            if (lazyLoadedTypes.contains(mediaType)) {
+                resource = new Resource(resourceProvider, zipEntry.getSize(), href);
+                resource.setDataCache(this.resourceDataCache);
+            } else {
+                final InputStream in = resourceProvider.getResourceStream(href);
+                try {
+                    resource = ResourceUtil.createResource(zipEntry, in);
+                } finally {
+                    in.close();
+                }
+            }
 
             if (resource.getMediaType() == MediatypeService.XHTML) {
                 resource.setInputEncoding(defaultHtmlEncoding);
@@ -1,21 +1,34 @@
 package nl.siegmann.epublib.epub;
 
 import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.MediaType;
 import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.CompressionPolicy.Compression;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.zip.DeflatedEntryBuffer;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
+import nl.siegmann.epublib.util.zip.ZipArchiveOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * Generates an epub file. Not thread-safe, single use object.
@@ -30,7 +43,28 @@ public class EpubWriter {
     // package
     static final String EMPTY_NAMESPACE_PREFIX = "";
 
+    /**
+     * The maximum number of compressed bytes per entry that are kept in memory while compressing in parallel.
+     */
+    private static final int PARALLEL_MEMORY_LIMIT = 4 * 1024 * 1024;
+
     private BookProcessor bookProcessor = BookProcessor.IDENTITY_BOOKPROCESSOR;
+    private boolean streaming = false;
+    private Executor compressionExecutor;
+    private CompressionPolicy compressionPolicy = CompressionPolicy.createDefaultPolicy();
+
+    /**
+     * A resource whose compressed data may still be being produced by the compressionExecutor.
+     */
+    private static class PendingResource {
+        private final Resource resource;
+        private final FutureTask<DeflatedEntryBuffer> deflatedData;
+
+        PendingResource(final Resource resource, final FutureTask<DeflatedEntryBuffer> deflatedData) {
+            this.resource = resource;
+            this.deflatedData = deflatedData;
+        }
+    }
 
     public EpubWriter() {
         this(BookProcessor.IDENTITY_BOOKPROCESSOR);
@@ -44,11 +78,16 @@ public class EpubWriter {
 
     public void write(Book book, final OutputStream out) throws IOException {
         book = processBook(book);
-        final ZipOutputStream resultStream = new ZipOutputStream(out);
+        final ZipArchiveOutputStream resultStream = new ZipArchiveOutputStream(out);
         writeMimeType(resultStream);
         writeContainer(resultStream);
-        initTOCResource(book);
-        writeResources(book, resultStream);
+        if (this.streaming) {
+            writeResources(book, resultStream);
+            writeNcxDocument(book, resultStream);
+        } else {
+            initTOCResource(book);
+            writeResources(book, resultStream);
+        }
         writePackageDocument(book, resultStream);
         resultStream.close();
     }
@@ -76,12 +115,162 @@ public class EpubWriter {
     }
 
 
-    private void writeResources(final Book book, final ZipOutputStream resultStream) throws IOException {
+    private void writeResources(final Book book, final ZipArchiveOutputStream resultStream) throws IOException {
+        final List<Resource> resources = new ArrayList<Resource>();
         for (final Resource resource : book.getResources().getAll()) {
-            writeResource(resource, resultStream);
+            if (this.streaming && (resource.getMediaType() == MediatypeService.NCX)) {
+                // the table of contents is generated straight into its zip entry
+                continue;
+            }
+            resources.add(resource);
+        }
+        if (this.compressionExecutor == null) {
+            for (final Resource resource : resources) {
+                writeResource(resource, resultStream);
+            }
+        } else {
+            writeResourcesInParallel(resources, resultStream);
+        }
+    }
+
+    /**
+     * Compresses the resources on the compressionExecutor and writes them to the resultStream in their
+     * original order.
+     *
+     * Only a limited number of resources is compressed ahead of the one being written, so the memory used
+     * does not depend on the size of the book.
+     *
+     * @param resources
+     * @param resultStream
+     * @throws IOException
+     */
+    private void writeResourcesInParallel(final List<Resource> resources, final ZipArchiveOutputStream resultStream)
+            throws IOException {
+        final int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        final LinkedList<PendingResource> pendingResources = new LinkedList<PendingResource>();
+        try {
+            for (final Resource resource : resources) {
+                final Compression compression = this.compressionPolicy.getCompression(resource.getMediaType());
+                final FutureTask<DeflatedEntryBuffer> deflatedData =
+                        (canWriteOriginalEntry(resource) || (compression == Compression.STORED)) ? null
+                                : deflateInBackground(resource, compression);
+                pendingResources.add(new PendingResource(resource, deflatedData));
+                if (pendingResources.size() > maxPending) {
+                    writePendingResource(pendingResources.removeFirst(), resultStream);
+                }
+            }
+            while (!pendingResources.isEmpty()) {
+                writePendingResource(pendingResources.removeFirst(), resultStream);
+            }
+        } finally {
+            for (final PendingResource pendingResource : pendingResources) {
+                discardPendingResource(pendingResource);
+            }
         }
     }
 
+    /**
+     * Deflates the resource on the compressionExecutor.
+     *
+     * @param resource
+     * @param compression
+     * @return the task that deflates the resource; its result is null if the resource should be stored
+     * uncompressed.
+     */
+    private FutureTask<DeflatedEntryBuffer> deflateInBackground(final Resource resource,
+                                                                final Compression compression) {
+        final FutureTask<DeflatedEntryBuffer> result = new FutureTask<DeflatedEntryBuffer>(
+                new Callable<DeflatedEntryBuffer>() {
+
+                    @Override
+                    public DeflatedEntryBuffer call() throws IOException {
+                        if (!isWorthDeflating(resource, compression)) {
+                            return null;
+                        }
+                        final InputStream inputStream = resource.getInputStream();
+                        try {
+                            return DeflatedEntryBuffer.deflate("OEBPS/" + resource.getHref(), inputStream,
+                                                               compression.getLevel(), PARALLEL_MEMORY_LIMIT);
+                        } finally {
+                            inputStream.close();
+                        }
+                    }
+                });
+        try {
+            this.compressionExecutor.execute(result);
+        } catch (RejectedExecutionException e) {
+            result.run();
+        }
+        return result;
+    }
+
+    private void writePendingResource(final PendingResource pendingResource,
+                                      final ZipArchiveOutputStream resultStream) throws IOException {
+        if (pendingResource.deflatedData == null) {
+            writeResource(pendingResource.resource, resultStream);
+            return;
+        }
+        final DeflatedEntryBuffer deflatedData;
+        try {
+            deflatedData = pendingResource.deflatedData.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing " + pendingResource.resource.getHref());
+        } catch (ExecutionException e) {
+            // the resource is listed in the package document, so it is written without the background compression
+            log.warn("Unable to compress " + pendingResource.resource.getHref() + " in the background: "
+                     + e.getCause().getMessage(), e.getCause());
+            writeResource(pendingResource.resource, resultStream);
+            return;
+        }
+        if (deflatedData == null) {
+            writeStoredResource(pendingResource.resource, resultStream);
+            return;
+        }
+        try {
+            final InputStream inputStream = deflatedData.getInputStream();
+            resultStream.writeRawEntry(deflatedData.getEntry(), inputStream);
+            inputStream.close();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            deflatedData.delete();
+        }
+    }
+
+    /**
+     * Waits for the compression of a resource that will not be written anymore and removes its compressed data.
+     *
+     * @param pendingResource
+     */
+    private void discardPendingResource(final PendingResource pendingResource) {
+        if (pendingResource.deflatedData == null) {
+            return;
+        }
+        try {
+            final DeflatedEntryBuffer deflatedData = pendingResource.deflatedData.get();
+            if (deflatedData != null) {
+                deflatedData.delete();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // nothing to remove
+        }
+    }
+
+    /**
+     * Generates the table of contents straight into its entry of the resultStream.
+     *
+     * @param book
+     * @param resultStream
+     * @throws IOException
+     */
+    private void writeNcxDocument(final Book book, final ZipArchiveOutputStream resultStream) throws IOException {
+        setDeflateLevel(resultStream, MediatypeService.NCX);
+        NCXDocument.write(this, book, resultStream);
+    }
+
     /**
      * Writes the resource to the resultStream.
      *
@@ -89,13 +278,23 @@ public class EpubWriter {
      * @param resultStream
      * @throws IOException
      */
-    private void writeResource(final Resource resource, final ZipOutputStream resultStream)
+    private void writeResource(final Resource resource, final ZipArchiveOutputStream resultStream)
             throws IOException {
         if (resource == null) {
             return;
         }
         try {
-            resultStream.putNextEntry(new ZipEntry("OEBPS/" + resource.getHref()));
+            final String entryName = "OEBPS/" + resource.getHref();
+            if (writeOriginalEntry(resource, entryName, resultStream)) {
+                return;
+            }
+            final Compression compression = this.compressionPolicy.getCompression(resource.getMediaType());
+            if ((compression == Compression.STORED) || !isWorthDeflating(resource, compression)) {
+                writeStoredResource(resource, resultStream);
+                return;
+            }
+            resultStream.setLevel(compression.getLevel());
+            resultStream.putNextEntry(new ZipEntry(entryName));
             final InputStream inputStream = resource.getInputStream();
             IOUtil.copy(inputStream, resultStream);
             inputStream.close();
@@ -104,8 +303,116 @@ public class EpubWriter {
         }
     }
 
+    /**
+     * Writes the resource uncompressed.
+     *
+     * The contents are read twice: once to calculate the crc and size that go in front of the data and
+     * once to copy them.
+     *
+     * @param resource
+     * @param resultStream
+     */
+    private void writeStoredResource(final Resource resource, final ZipArchiveOutputStream resultStream) {
+        try {
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[8192];
+            long size = 0;
+            final InputStream crcStream = resource.getInputStream();
+            for (int read = crcStream.read(buffer); read >= 0; read = crcStream.read(buffer)) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+            crcStream.close();
+
+            final ZipEntry zipEntry = new ZipEntry("OEBPS/" + resource.getHref());
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(size);
+            zipEntry.setCrc(crc.getValue());
+            resultStream.putNextEntry(zipEntry);
+            final InputStream inputStream = resource.getInputStream();
+            IOUtil.copy(inputStream, resultStream);
+            inputStream.close();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * In adaptive mode deflates the first block of the resource as a trial.
+     *
+     * @param resource
+     * @param compression
+     * @return whether deflating the resource saves enough according to the compressionPolicy.
+     * @throws IOException
+     */
+    private boolean isWorthDeflating(final Resource resource, final Compression compression) throws IOException {
+        if (!this.compressionPolicy.isAdaptive()) {
+            return true;
+        }
+        final byte[] block = new byte[CompressionPolicy.TRIAL_BLOCK_SIZE];
+        int length = 0;
+        final InputStream inputStream = resource.getInputStream();
+        try {
+            int read = 0;
+            while ((read >= 0) && (length < block.length)) {
+                read = inputStream.read(block, length, block.length - length);
+                if (read > 0) {
+                    length += read;
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return this.compressionPolicy.isWorthDeflating(block, length, compression);
+    }
+
+    private void setDeflateLevel(final ZipArchiveOutputStream resultStream, final MediaType mediaType) {
+        resultStream.setLevel(this.compressionPolicy.getCompression(mediaType).getLevel());
+    }
+
+    /**
+     * Copies the compressed data of a resource that was not modified since it was read from its epub file
+     * straight into the resultStream, without inflating and deflating it again.
+     *
+     * @param resource
+     * @param entryName
+     * @param resultStream
+     * @return false if the resource was modified or was not read lazily from an epub file.
+     * @throws IOException
+     */
+    private boolean writeOriginalEntry(final Resource resource, final String entryName,
+                                       final ZipArchiveOutputStream resultStream) throws IOException {
+        if (!canWriteOriginalEntry(resource)) {
+            return false;
+        }
+        final ArchiveResourceProvider resourceProvider = (ArchiveResourceProvider) resource.getResourceProvider();
+        final ZipArchiveEntry originalEntry = resourceProvider.getRawEntry(resource.getOriginalHref());
+        if ((originalEntry == null) || (originalEntry.getMethod() < 0)) {
+            return false;
+        }
+        final ZipEntry zipEntry = new ZipEntry(entryName);
+        zipEntry.setMethod(originalEntry.getMethod());
+        zipEntry.setTime(originalEntry.getTime());
+        zipEntry.setCrc(originalEntry.getCrc());
+        zipEntry.setSize(originalEntry.getSize());
+        zipEntry.setCompressedSize(originalEntry.getCompressedSize());
+        final InputStream rawStream = resourceProvider.getRawResourceStream(resource.getOriginalHref());
+        try {
+            resultStream.writeRawEntry(zipEntry, rawStream);
+        } finally {
+            rawStream.close();
+        }
+        return true;
+    }
 
-    private void writePackageDocument(final Book book, final ZipOutputStream resultStream) throws IOException {
+
+    private boolean canWriteOriginalEntry(final Resource resource) {
+        return !resource.isModified() && (resource.getResourceProvider() instanceof ArchiveResourceProvider);
+    }
+
+    private void writePackageDocument(final Book book, final ZipArchiveOutputStream resultStream) throws IOException {
+        setDeflateLevel(resultStream, null);
         resultStream.putNextEntry(new ZipEntry("OEBPS/content.opf"));
         final XmlSerializer xmlSerializer = EpubProcessorSupport.createXmlSerializer(resultStream);
         PackageDocumentWriter.write(this, xmlSerializer, book);
@@ -120,7 +427,8 @@ public class EpubWriter {
      * @param resultStream
      * @throws IOException
      */
-    private void writeContainer(final ZipOutputStream resultStream) throws IOException {
+    private void writeContainer(final ZipArchiveOutputStream resultStream) throws IOException {
+        setDeflateLevel(resultStream, null);
         resultStream.putNextEntry(new ZipEntry("META-INF/container.xml"));
         final Writer out = new OutputStreamWriter(resultStream);
         out.write("<?xml version=\"1.0\"?>\n");
@@ -133,12 +441,12 @@ public class EpubWriter {
     }
 
     /**
-     * Stores the mimetype as an uncompressed file in the ZipOutputStream.
+     * Stores the mimetype as an uncompressed file in the zip file.
      *
      * @param resultStream
      * @throws IOException
      */
-    private void writeMimeType(final ZipOutputStream resultStream) throws IOException {
+    private void writeMimeType(final ZipArchiveOutputStream resultStream) throws IOException {
         final ZipEntry mimetypeZipEntry = new ZipEntry("mimetype");
         mimetypeZipEntry.setMethod(ZipEntry.STORED);
         final byte[] mimetypeBytes = MediatypeService.EPUB.getName().getBytes();
@@ -166,6 +474,60 @@ public class EpubWriter {
         return "application/x-dtbncx+xml";
     }
 
+    /**
+     * Whether the book is written without holding any generated documents or resource contents in memory.
+     *
+     * @return whether the book is written without holding any generated documents or resource contents in memory.
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Sets whether the book is written without holding any generated documents or resource contents in memory.
+     *
+     * When streaming, lazy resources are copied straight from their epub file to the output and the table of
+     * contents is generated straight into its zip entry instead of being added to the book as a Resource.
+     * The peak memory use then no longer depends on the size of the book.
+     *
+     * @param streaming
+     */
+    public void setStreaming(final boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public Executor getCompressionExecutor() {
+        return this.compressionExecutor;
+    }
+
+    /**
+     * Sets the executor on which the resources are compressed.
+     *
+     * When set, resources are compressed concurrently on the given executor and written to the epub in the
+     * same order as they would be without it. The mimetype is still written first, uncompressed.
+     * The executor is not shut down by this writer.
+     *
+     * @param compressionExecutor null to compress all resources on the writing thread.
+     */
+    public void setCompressionExecutor(final Executor compressionExecutor) {
+        this.compressionExecutor = compressionExecutor;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return this.compressionPolicy;
+    }
+
+    /**
+     * Sets how resources are compressed, depending on their MediaType.
+     *
+     * Resources that are copied unmodified from the epub they were read from keep their original compression.
+     *
+     * @param compressionPolicy
+     */
+    public void setCompressionPolicy(final CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
     public BookProcessor getBookProcessor() {
         return this.bookProcessor;
     }
@@ -0,0 +1,31 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+
+import java.io.IOException;
+
+/**
+ * A ResourceBookProcessor that changes the text of the html resources of a book.
+ *
+ * A BookProcessorPipeline fuses consecutive HtmlTextBookProcessors into a single pass: every html resource is
+ * decoded once, its text is handed from one processor to the next and the result is encoded once at the end.
+ *
+ * @author paul
+ *
+ */
+public interface HtmlTextBookProcessor extends ResourceBookProcessor {
+
+    /**
+     * Processes the text of an html resource.
+     *
+     * May be called by several threads at the same time for different resources.
+     *
+     * @param html the current text of the resource, which may differ from the data of the resource itself.
+     * @param resource the resource the html belongs to
+     * @param book
+     * @return the processed html
+     * @throws IOException
+     */
+    String processHtmlText(String html, Resource resource, Book book) throws IOException;
+}
@@ -10,23 +10,27 @@ import nl.siegmann.epublib.domain.TableOfContents;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.ResourceUtil;
 import nl.siegmann.epublib.util.StringUtil;
+import nl.siegmann.epublib.util.zip.ZipArchiveOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
 import javax.xml.stream.FactoryConfigurationError;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * Writes the ncx document as defined by namespace http://www.daisy.org/z3986/2005/ncx/
@@ -85,6 +89,10 @@ class NCXDocument {
             if (ncxResource == null) {
                 return ncxResource;
             }
+            if (epubReader.isPullParsing()) {
+                book.setTableOfContents(new TableOfContents(readTOCReferences(ncxResource.getReader(), book)));
+                return ncxResource;
+            }
             final Document ncxDocument = ResourceUtil.getAsDocument(ncxResource);
             final Element navMapElement = DOMUtil
                     .getFirstElementByTagNameNS(ncxDocument.getDocumentElement(), NAMESPACE_NCX, NCXTags.navMap);
@@ -118,27 +126,41 @@ class NCXDocument {
     }
 
     private static TOCReference readTOCReference(final Element navpointElement, final Book book) {
-        final String label = readNavLabel(navpointElement);
+        final TOCReference result = createTOCReference(readNavLabel(navpointElement),
+                                                       readNavReference(navpointElement), book);
+        result.setChildren(readTOCReferences(navpointElement.getChildNodes(), book));
+        return result;
+    }
+
+    /**
+     * Creates the TOCReference of a navPoint, looking up its resource relative to the location of the ncx document.
+     *
+     * @param label
+     * @param navReference the url decoded src of the navPoint's content
+     * @param book
+     * @return the TOCReference of a navPoint, without children.
+     */
+    private static TOCReference createTOCReference(final String label, final String navReference, final Book book) {
         String tocResourceRoot = StringUtil.substringBeforeLast(book.getSpine().getTocResource().getHref(), '/');
         tocResourceRoot = tocResourceRoot.length() == book.getSpine().getTocResource().getHref().length() ? "" :
                           tocResourceRoot + "/";
-        final String reference = tocResourceRoot + readNavReference(navpointElement);
+        final String reference = tocResourceRoot + navReference;
         final String href = StringUtil.substringBefore(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
         final String fragmentId = StringUtil.substringAfter(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
         final Resource resource = book.getResources().getByHref(href);
         if (resource == null) {
             log.error("Resource with href " + href + " in NCX document not found");
         }
-        final TOCReference result = new TOCReference(label, resource, fragmentId);
-        readTOCReferences(navpointElement.getChildNodes(), book);
-        result.setChildren(readTOCReferences(navpointElement.getChildNodes(), book));
-        return result;
+        return new TOCReference(label, resource, fragmentId);
     }
 
     private static String readNavReference(final Element navpointElement) {
         final Element contentElement = DOMUtil
                 .getFirstElementByTagNameNS(navpointElement, NAMESPACE_NCX, NCXTags.content);
-        String result = DOMUtil.getAttribute(contentElement, NAMESPACE_NCX, NCXAttributes.src);
+        return decodeNavReference(DOMUtil.getAttribute(contentElement, NAMESPACE_NCX, NCXAttributes.src));
+    }
+
+    private static String decodeNavReference(String result) {
         try {
             result = URLDecoder.decode(result, Constants.CHARACTER_ENCODING);
         } catch (UnsupportedEncodingException e) {
@@ -153,10 +175,104 @@ class NCXDocument {
                 .getTextChildrenContent(DOMUtil.getFirstElementByTagNameNS(navLabel, NAMESPACE_NCX, NCXTags.text));
     }
 
+    /**
+     * A navPoint that is being read by the pull parser.
+     */
+    private static class NavPoint {
+        private final int depth;
+        private String label;
+        private String navReference;
+        private final List<TOCReference> children = new ArrayList<TOCReference>();
+
+        NavPoint(final int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Reads the navPoints of the navMap with an XmlPullParser.
+     *
+     * The navPoints that are being read are kept on an explicit stack, and a TOCReference is created as soon as
+     * its navPoint ends. The memory used is proportional to the resulting table of contents, not to the size of
+     * the ncx document.
+     *
+     * @param in
+     * @param book
+     * @return the top level TOCReferences
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    private static List<TOCReference> readTOCReferences(final Reader in, final Book book)
+            throws XmlPullParserException, IOException {
+        final XmlPullParser parser = EpubProcessorSupport.createXmlPullParser();
+        parser.setInput(in);
+        final List<TOCReference> result = new ArrayList<TOCReference>();
+        final LinkedList<NavPoint> navPoints = new LinkedList<NavPoint>();
+        int navMapDepth = -1;
+        int skipDepth = -1;
+        int textDepth = -1;
+        final StringBuilder text = new StringBuilder();
+        for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+             eventType = parser.next()) {
+            final int depth = parser.getDepth();
+            if ((skipDepth >= 0) && (depth >= skipDepth) && (eventType != XmlPullParser.TEXT)) {
+                if ((eventType == XmlPullParser.END_TAG) && (depth == skipDepth)) {
+                    skipDepth = -1;
+                }
+                continue;
+            }
+            if (eventType == XmlPullParser.START_TAG) {
+                final String name = parser.getName();
+                if (navMapDepth < 0) {
+                    if (NCXTags.navMap.equals(name) && NAMESPACE_NCX.equals(parser.getNamespace())) {
+                        navMapDepth = depth;
+                    }
+                } else if (NCXTags.navPoint.equals(name)) {
+                    final int parentDepth = navPoints.isEmpty() ? navMapDepth : navPoints.getLast().depth;
+                    if (depth == parentDepth + 1) {
+                        navPoints.addLast(new NavPoint(depth));
+                    } else {
+                        skipDepth = depth;
+                    }
+                } else if (!navPoints.isEmpty() && NAMESPACE_NCX.equals(parser.getNamespace())) {
+                    final NavPoint navPoint = navPoints.getLast();
+                    if (NCXTags.text.equals(name) && (navPoint.label == null) && (textDepth < 0)) {
+                        textDepth = depth;
+                        text.setLength(0);
+                    } else if (NCXTags.content.equals(name) && (navPoint.navReference == null)) {
+                        String src = parser.getAttributeValue(NAMESPACE_NCX, NCXAttributes.src);
+                        if (StringUtil.isEmpty(src)) {
+                            src = parser.getAttributeValue("", NCXAttributes.src);
+                        }
+                        navPoint.navReference = decodeNavReference(src == null ? "" : src);
+                    }
+                }
+            } else if (eventType == XmlPullParser.TEXT) {
+                if ((textDepth >= 0) && (depth == textDepth) && (skipDepth < 0)) {
+                    text.append(parser.getText());
+                }
+            } else if (eventType == XmlPullParser.END_TAG) {
+                if (depth == textDepth) {
+                    navPoints.getLast().label = text.toString().trim();
+                    textDepth = -1;
+                } else if (!navPoints.isEmpty() && (depth == navPoints.getLast().depth)) {
+                    final NavPoint navPoint = navPoints.removeLast();
+                    final TOCReference tocReference = createTOCReference(
+                            navPoint.label, (navPoint.navReference == null) ? "" : navPoint.navReference, book);
+                    tocReference.setChildren(navPoint.children);
+                    (navPoints.isEmpty() ? result : navPoints.getLast().children).add(tocReference);
+                } else if (depth == navMapDepth) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
 
-    public static void write(final EpubWriter epubWriter, final Book book, final ZipOutputStream resultStream)
+    public static void write(final EpubWriter epubWriter, final Book book, final ZipArchiveOutputStream resultStream)
             throws IOException {
-        resultStream.putNextEntry(new ZipEntry(book.getSpine().getTocResource().getHref()));
+        resultStream.putNextEntry(new ZipEntry("OEBPS/" + epubWriter.getNcxHref()));
         final XmlSerializer out = EpubProcessorSupport.createXmlSerializer(resultStream);
         write(out, book);
         out.flush();
@@ -0,0 +1,392 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.Author;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Date;
+import nl.siegmann.epublib.domain.Identifier;
+import nl.siegmann.epublib.domain.Metadata;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.Resources;
+import nl.siegmann.epublib.domain.Spine;
+import nl.siegmann.epublib.domain.SpineReference;
+import nl.siegmann.epublib.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the opf package document with an XmlPullParser instead of building a DOM.
+ *
+ * The package document is read in a single pass. The resulting Book is the same as the one created by the
+ * PackageDocumentReader, but for package documents with many manifest items it is a lot faster and uses far
+ * less memory.
+ *
+ * @author paul
+ *
+ */
+// package
+class PackageDocumentPullReader extends PackageDocumentBase {
+
+    private static final Logger log = LoggerFactory.getLogger(PackageDocumentPullReader.class);
+
+    /**
+     * The parts of the package document that are needed to build the book, in document order.
+     */
+    private static class PackageDocument {
+        private String bookIdId;
+        private boolean hasMetadata = false;
+        private boolean hasSpine = false;
+        private String tocResourceId;
+        private String coverResourceId;
+        private String coverReferenceHref;
+        private final List<String[]> allItems = new ArrayList<String[]>();
+        private final List<String[]> manifestItems = new ArrayList<String[]>();
+        private final List<String[]> guideReferences = new ArrayList<String[]>();
+        private final List<String[]> itemrefs = new ArrayList<String[]>();
+        private final Metadata metadata = new Metadata();
+        private final Map<String, String> metaAttributes = new HashMap<String, String>();
+        private final List<Identifier> identifiers = new ArrayList<Identifier>();
+        private final List<String> identifierIds = new ArrayList<String>();
+        private boolean hasLanguage = false;
+    }
+
+    /**
+     * The text content of the element that is being read.
+     */
+    private static class ElementText {
+        private final String namespace;
+        private final String name;
+        private final int depth;
+        private final boolean descendants;
+        private final Map<String, String> attributes;
+        private final StringBuilder text = new StringBuilder();
+
+        ElementText(final XmlPullParser parser, final boolean descendants, final String attributeNamespace,
+                    final String... attributeNames) {
+            this.namespace = parser.getNamespace();
+            this.name = parser.getName();
+            this.depth = parser.getDepth();
+            this.descendants = descendants;
+            this.attributes = new HashMap<String, String>();
+            for (final String attributeName : attributeNames) {
+                this.attributes.put(attributeName, getAttributeNS(parser, attributeNamespace, attributeName));
+            }
+        }
+
+        String getAttribute(final String attributeName) {
+            return this.attributes.get(attributeName);
+        }
+    }
+
+    public static void read(final Resource packageResource, final EpubReader epubReader, final Book book,
+                            Resources resources) throws XmlPullParserException, IOException {
+        final PackageDocument packageDocument = parse(packageResource.getReader());
+        final String packageHref = packageResource.getHref();
+        resources = PackageDocumentReader.fixHrefs(packageHref, resources);
+        for (final String[] reference : packageDocument.guideReferences) {
+            PackageDocumentReader.addGuideReference(book.getGuide(), resources, reference[0], reference[1],
+                                                    reference[2]);
+        }
+
+        // Books sometimes use non-identifier ids. We map these here to legal ones
+        final Map<String, String> idMapping = new HashMap<String, String>();
+
+        final Resources manifestResources = new Resources();
+        for (final String[] item : packageDocument.manifestItems) {
+            PackageDocumentReader.addManifestItem(resources, manifestResources, idMapping, item[0], item[1], item[2]);
+        }
+        book.setResources(manifestResources);
+        PackageDocumentReader.readCover(PackageDocumentReader.findCoverHrefs(
+                packageDocument.coverResourceId, findCoverItemHref(packageDocument),
+                packageDocument.coverReferenceHref), book);
+        book.setMetadata(createMetadata(packageDocument));
+        book.setSpine(createSpine(packageDocument, book.getResources(), idMapping));
+
+        // if we did not find a cover page then we make the first page of the book the cover page
+        if ((book.getCoverPage() == null) && !book.getSpine().isEmpty()) {
+            book.setCoverPage(book.getSpine().getResource(0));
+        }
+    }
+
+    /**
+     * Reads only the metadata of the package document.
+     *
+     * @param in
+     * @return the metadata of the package document.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    static Metadata readMetadata(final Reader in) throws XmlPullParserException, IOException {
+        return createMetadata(parse(in));
+    }
+
+    private static PackageDocument parse(final Reader in) throws XmlPullParserException, IOException {
+        final PackageDocument result = new PackageDocument();
+        final XmlPullParser parser = EpubProcessorSupport.createXmlPullParser();
+        parser.setInput(in);
+        boolean packageSeen = false;
+        boolean guideSeen = false;
+        boolean manifestSeen = false;
+        int metadataDepth = -1;
+        int guideDepth = -1;
+        int manifestDepth = -1;
+        final List<ElementText> elementTexts = new ArrayList<ElementText>();
+        for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+             eventType = parser.next()) {
+            if (eventType == XmlPullParser.TEXT) {
+                for (final ElementText elementText : elementTexts) {
+                    if (elementText.descendants || (parser.getDepth() == elementText.depth)) {
+                        elementText.text.append(parser.getText());
+                    }
+                }
+                continue;
+            }
+            if (eventType == XmlPullParser.END_TAG) {
+                final int depth = parser.getDepth();
+                if (!elementTexts.isEmpty() && (elementTexts.get(elementTexts.size() - 1).depth == depth)) {
+                    readMetadataElement(elementTexts.remove(elementTexts.size() - 1), result);
+                }
+                if (depth == metadataDepth) {
+                    metadataDepth = -1;
+                } else if (depth == guideDepth) {
+                    guideDepth = -1;
+                } else if (depth == manifestDepth) {
+                    manifestDepth = -1;
+                }
+                continue;
+            }
+            if (eventType != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String namespace = parser.getNamespace();
+            final String name = parser.getName();
+            if ((metadataDepth >= 0) && NAMESPACE_DUBLIN_CORE.equals(namespace)) {
+                if (DCTags.identifier.equals(name)) {
+                    result.identifierIds.add(getAttributeNS(parser, "", DCAttributes.id));
+                }
+                elementTexts.add(new ElementText(parser, false, NAMESPACE_OPF, DCAttributes.scheme,
+                                                 OPFAttributes.role, OPFAttributes.event));
+            }
+            if ((metadataDepth >= 0) && (parser.getPrefix() == null) && OPFTags.meta.equals(name)) {
+                result.metaAttributes.put(getAttributeNS(parser, "", OPFAttributes.name),
+                                          getAttributeNS(parser, "", OPFAttributes.content));
+            }
+            if (!NAMESPACE_OPF.equals(namespace)) {
+                continue;
+            }
+            if (OPFTags.packageTag.equals(name) && !packageSeen) {
+                packageSeen = true;
+                result.bookIdId = getAttributeNS(parser, NAMESPACE_OPF, OPFAttributes.uniqueIdentifier);
+            } else if (OPFTags.metadata.equals(name) && !result.hasMetadata) {
+                result.hasMetadata = true;
+                metadataDepth = parser.getDepth();
+            } else if (OPFTags.meta.equals(name)) {
+                readMeta(parser, metadataDepth >= 0, elementTexts, result);
+            } else if (OPFTags.guide.equals(name) && !guideSeen) {
+                guideSeen = true;
+                guideDepth = parser.getDepth();
+            } else if (OPFTags.reference.equals(name)) {
+                readReference(parser, guideDepth >= 0, result);
+            } else if (OPFTags.manifest.equals(name) && !manifestSeen) {
+                manifestSeen = true;
+                manifestDepth = parser.getDepth();
+            } else if (OPFTags.item.equals(name)) {
+                final String[] item = {getAttribute(parser, OPFAttributes.id), getAttribute(parser, OPFAttributes.href),
+                                       getAttribute(parser, OPFAttributes.media_type)};
+                result.allItems.add(new String[]{getAttributeNS(parser, "", OPFAttributes.id),
+                                                 getAttributeNS(parser, "", OPFAttributes.href)});
+                if (manifestDepth >= 0) {
+                    result.manifestItems.add(item);
+                }
+            } else if (OPFTags.spine.equals(name) && !result.hasSpine) {
+                result.hasSpine = true;
+                result.tocResourceId = getAttribute(parser, OPFAttributes.toc);
+            } else if (OPFTags.itemref.equals(name)) {
+                result.itemrefs.add(new String[]{getAttribute(parser, OPFAttributes.idref),
+                                                 getAttribute(parser, OPFAttributes.linear)});
+            }
+        }
+        if (!manifestSeen) {
+            log.error("Package document does not contain element " + OPFTags.manifest);
+        }
+        return result;
+    }
+
+    private static void readMeta(final XmlPullParser parser, final boolean inMetadata,
+                                 final List<ElementText> elementTexts, final PackageDocument packageDocument) {
+        final String metaName = getAttributeNS(parser, "", OPFAttributes.name);
+        final String metaContent = getAttributeNS(parser, "", OPFAttributes.content);
+        if ((packageDocument.coverResourceId == null) && OPFValues.meta_cover.equalsIgnoreCase(metaName)
+            && StringUtil.isNotBlank(metaContent)) {
+            packageDocument.coverResourceId = metaContent;
+        }
+        if (inMetadata && (parser.getAttributeValue("", OPFAttributes.property) != null)) {
+            elementTexts.add(new ElementText(parser, true, "", OPFAttributes.property));
+        }
+    }
+
+    private static void readReference(final XmlPullParser parser, final boolean inGuide,
+                                      final PackageDocument packageDocument) {
+        final String type = getAttributeNS(parser, "", OPFAttributes.type);
+        final String href = getAttributeNS(parser, "", OPFAttributes.href);
+        if ((packageDocument.coverReferenceHref == null) && OPFValues.reference_cover.equalsIgnoreCase(type)
+            && StringUtil.isNotBlank(href)) {
+            packageDocument.coverReferenceHref = href;
+        }
+        if (inGuide) {
+            packageDocument.guideReferences.add(new String[]{getAttribute(parser, OPFAttributes.href),
+                                                             getAttribute(parser, OPFAttributes.type),
+                                                             getAttribute(parser, OPFAttributes.title)});
+        }
+    }
+
+    private static void readMetadataElement(final ElementText elementText, final PackageDocument packageDocument) {
+        final Metadata metadata = packageDocument.metadata;
+        if (NAMESPACE_OPF.equals(elementText.namespace)) {
+            // a meta tag with a property attribute, like <meta property="rendition:layout">pre-paginated</meta>
+            metadata.getOtherProperties().put(new QName(elementText.getAttribute(OPFAttributes.property)),
+                                              elementText.text.toString());
+            return;
+        }
+        final String text = elementText.text.toString().trim();
+        final String name = elementText.name;
+        if (DCTags.title.equals(name)) {
+            metadata.getTitles().add(text);
+        } else if (DCTags.publisher.equals(name)) {
+            metadata.getPublishers().add(text);
+        } else if (DCTags.description.equals(name)) {
+            metadata.getDescriptions().add(text);
+        } else if (DCTags.rights.equals(name)) {
+            metadata.getRights().add(text);
+        } else if (DCTags.type.equals(name)) {
+            metadata.getTypes().add(text);
+        } else if (DCTags.subject.equals(name)) {
+            metadata.getSubjects().add(text);
+        } else if (DCTags.language.equals(name)) {
+            if (!packageDocument.hasLanguage) {
+                packageDocument.hasLanguage = true;
+                metadata.setLanguage(text);
+            }
+        } else if (DCTags.identifier.equals(name)) {
+            packageDocument.identifiers.add(new Identifier(elementText.getAttribute(DCAttributes.scheme), text));
+        } else if (DCTags.creator.equals(name)) {
+            addAuthor(metadata.getAuthors(), text, elementText.getAttribute(OPFAttributes.role));
+        } else if (DCTags.contributor.equals(name)) {
+            addAuthor(metadata.getContributors(), text, elementText.getAttribute(OPFAttributes.role));
+        } else if (DCTags.date.equals(name)) {
+            try {
+                metadata.getDates().add(new Date(text, elementText.getAttribute(OPFAttributes.event)));
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+            }
+        }
+    }
+
+    private static void addAuthor(final List<Author> authors, final String authorString, final String role) {
+        if (StringUtil.isBlank(authorString)) {
+            return;
+        }
+        final int spacePos = authorString.lastIndexOf(' ');
+        final Author author = spacePos < 0 ? new Author(authorString) :
+                              new Author(authorString.substring(0, spacePos), authorString.substring(spacePos + 1));
+        author.setRole(role);
+        authors.add(author);
+    }
+
+    private static Metadata createMetadata(final PackageDocument packageDocument) {
+        if (!packageDocument.hasMetadata) {
+            log.error("Package does not contain element " + OPFTags.metadata);
+            return new Metadata();
+        }
+        final Metadata result = packageDocument.metadata;
+        if (packageDocument.identifiers.isEmpty()) {
+            log.error("Package does not contain element " + DCTags.identifier);
+        }
+        final List<Identifier> identifiers = new ArrayList<Identifier>(packageDocument.identifiers.size());
+        for (int i = 0; i < packageDocument.identifiers.size(); i++) {
+            final Identifier identifier = packageDocument.identifiers.get(i);
+            if (StringUtil.isBlank(identifier.getValue())) {
+                continue;
+            }
+            if (packageDocument.identifierIds.get(i).equals(packageDocument.bookIdId)) {
+                identifier.setBookId(true);
+            }
+            identifiers.add(identifier);
+        }
+        result.setIdentifiers(identifiers);
+        result.setMetaAttributes(packageDocument.metaAttributes);
+        return result;
+    }
+
+    private static String findCoverItemHref(final PackageDocument packageDocument) {
+        if (StringUtil.isBlank(packageDocument.coverResourceId)) {
+            return null;
+        }
+        for (final String[] item : packageDocument.allItems) {
+            if (packageDocument.coverResourceId.equalsIgnoreCase(item[0]) && StringUtil.isNotBlank(item[1])) {
+                return item[1];
+            }
+        }
+        return null;
+    }
+
+    private static Spine createSpine(final PackageDocument packageDocument, final Resources resources,
+                                     final Map<String, String> idMapping) {
+        if (!packageDocument.hasSpine) {
+            log.error("Element " + OPFTags.spine + " not found in package document, generating one automatically");
+            return PackageDocumentReader.generateSpineFromResources(resources);
+        }
+        final Spine result = new Spine();
+        result.setTocResource(PackageDocumentReader.findTableOfContentsResource(packageDocument.tocResourceId,
+                                                                                resources));
+        final List<SpineReference> spineReferences = new ArrayList<SpineReference>(packageDocument.itemrefs.size());
+        for (final String[] itemref : packageDocument.itemrefs) {
+            final SpineReference spineReference = PackageDocumentReader.createSpineReference(resources, idMapping,
+                                                                                             itemref[0], itemref[1]);
+            if (spineReference != null) {
+                spineReferences.add(spineReference);
+            }
+        }
+        result.setSpineReferences(spineReferences);
+        return result;
+    }
+
+    /**
+     * The value of the attribute with the given namespace and name, like the DOM's getAttributeNS.
+     *
+     * @param parser
+     * @param namespace
+     * @param attribute
+     * @return the value of the attribute, the empty string if it does not exist.
+     */
+    private static String getAttributeNS(final XmlPullParser parser, final String namespace,
+                                         final String attribute) {
+        final String result = parser.getAttributeValue(namespace, attribute);
+        return (result == null) ? "" : result;
+    }
+
+    /**
+     * First tries the attribute in the opf namespace, then the attribute without a namespace, like
+     * DOMUtil.getAttribute.
+     *
+     * @param parser
+     * @param attribute
+     * @return the value of the attribute, the empty string if it does not exist.
+     */
+    private static String getAttribute(final XmlPullParser parser, final String attribute) {
+        String result = getAttributeNS(parser, NAMESPACE_OPF, attribute);
+        if (StringUtil.isEmpty(result)) {
+            result = getAttributeNS(parser, "", attribute);
+        }
+        return result;
+    }
+}
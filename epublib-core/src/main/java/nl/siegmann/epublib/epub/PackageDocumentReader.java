@@ -102,30 +102,47 @@ class PackageDocumentReader extends PackageDocumentBase {
         final NodeList itemElements = manifestElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.item);
         for (int i = 0; i < itemElements.getLength(); i++) {
             final Element itemElement = (Element) itemElements.item(i);
-            final String id = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.id);
-            String href = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.href);
-            try {
-                href = URLDecoder.decode(href, Constants.CHARACTER_ENCODING);
-            } catch (UnsupportedEncodingException e) {
-                log.error(e.getMessage());
-            }
-            final String mediaTypeName = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.media_type);
-            final Resource resource = resources.remove(href);
-            if (resource == null) {
-                log.error("resource with href '" + href + "' not found");
-                continue;
-            }
-            resource.setId(id);
-            final MediaType mediaType = MediatypeService.getMediaTypeByName(mediaTypeName);
-            if (mediaType != null) {
-                resource.setMediaType(mediaType);
-            }
-            result.add(resource);
-            idMapping.put(id, resource.getId());
+            addManifestItem(resources, result, idMapping,
+                            DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.id),
+                            DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.href),
+                            DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.media_type));
         }
         return result;
     }
 
+    /**
+     * Moves the resource of a manifest item from the resources by href to the resulting resources, giving it the
+     * item's id and mediatype.
+     *
+     * @param resources
+     * @param result
+     * @param idMapping
+     * @param id
+     * @param href
+     * @param mediaTypeName
+     */
+    static void addManifestItem(final Resources resources, final Resources result,
+                                final Map<String, String> idMapping, final String id, String href,
+                                final String mediaTypeName) {
+        try {
+            href = URLDecoder.decode(href, Constants.CHARACTER_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            log.error(e.getMessage());
+        }
+        final Resource resource = resources.remove(href);
+        if (resource == null) {
+            log.error("resource with href '" + href + "' not found");
+            return;
+        }
+        resource.setId(id);
+        final MediaType mediaType = MediatypeService.getMediaTypeByName(mediaTypeName);
+        if (mediaType != null) {
+            resource.setMediaType(mediaType);
+        }
+        result.add(resource);
+        idMapping.put(id, resource.getId());
+    }
+
 
     /**
      * Reads the book's guide.
@@ -147,32 +164,46 @@ class PackageDocumentReader extends PackageDocumentBase {
         final NodeList guideReferences = guideElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.reference);
         for (int i = 0; i < guideReferences.getLength(); i++) {
             final Element referenceElement = (Element) guideReferences.item(i);
-            final String resourceHref = DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.href);
-            if (StringUtil.isBlank(resourceHref)) {
-                continue;
-            }
-            final Resource resource = resources
-                    .getByHref(StringUtil.substringBefore(resourceHref, Constants.FRAGMENT_SEPARATOR_CHAR));
-            if (resource == null) {
-                log.error("Guide is referencing resource with href " + resourceHref + " which could not be found");
-                continue;
-            }
-            final String type = DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.type);
-            if (StringUtil.isBlank(type)) {
-                log.error("Guide is referencing resource with href " + resourceHref
-                          + " which is missing the 'type' attribute");
-                continue;
-            }
-            final String title = DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.title);
-            if (GuideReference.COVER.equalsIgnoreCase(type)) {
-                continue; // cover is handled elsewhere
-            }
-            final GuideReference reference = new GuideReference(resource, type, title, StringUtil
-                    .substringAfter(resourceHref, Constants.FRAGMENT_SEPARATOR_CHAR));
-            guide.addReference(reference);
+            addGuideReference(guide, resources,
+                              DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.href),
+                              DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.type),
+                              DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.title));
         }
     }
 
+    /**
+     * Adds a reference of the guide to the given guide, unless it is a cover reference or it is invalid.
+     *
+     * @param guide
+     * @param resources
+     * @param resourceHref
+     * @param type
+     * @param title
+     */
+    static void addGuideReference(final Guide guide, final Resources resources, final String resourceHref,
+                                  final String type, final String title) {
+        if (StringUtil.isBlank(resourceHref)) {
+            return;
+        }
+        final Resource resource = resources
+                .getByHref(StringUtil.substringBefore(resourceHref, Constants.FRAGMENT_SEPARATOR_CHAR));
+        if (resource == null) {
+            log.error("Guide is referencing resource with href " + resourceHref + " which could not be found");
+            return;
+        }
+        if (StringUtil.isBlank(type)) {
+            log.error("Guide is referencing resource with href " + resourceHref
+                      + " which is missing the 'type' attribute");
+            return;
+        }
+        if (GuideReference.COVER.equalsIgnoreCase(type)) {
+            return; // cover is handled elsewhere
+        }
+        final GuideReference reference = new GuideReference(resource, type, title, StringUtil
+                .substringAfter(resourceHref, Constants.FRAGMENT_SEPARATOR_CHAR));
+        guide.addReference(reference);
+    }
+
 
     /**
      * Strips off the package prefixes up to the href of the packageHref.
@@ -185,7 +216,7 @@ class PackageDocumentReader extends PackageDocumentBase {
      * @param resourcesByHref
      * @return The stipped package href
      */
-    private static Resources fixHrefs(final String packageHref,
+    static Resources fixHrefs(final String packageHref,
                                       final Resources resourcesByHref) {
         final int lastSlashPos = packageHref.lastIndexOf('/');
         if (lastSlashPos < 0) {
@@ -221,36 +252,55 @@ class PackageDocumentReader extends PackageDocumentBase {
             return generateSpineFromResources(resources);
         }
         final Spine result = new Spine();
-        result.setTocResource(findTableOfContentsResource(spineElement, resources));
+        result.setTocResource(findTableOfContentsResource(
+                DOMUtil.getAttribute(spineElement, NAMESPACE_OPF, OPFAttributes.toc), resources));
         final NodeList spineNodes = packageDocument.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.itemref);
         final List<SpineReference> spineReferences = new ArrayList<SpineReference>(spineNodes.getLength());
         for (int i = 0; i < spineNodes.getLength(); i++) {
             final Element spineItem = (Element) spineNodes.item(i);
-            final String itemref = DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.idref);
-            if (StringUtil.isBlank(itemref)) {
-                log.error("itemref with missing or empty idref"); // XXX
-                continue;
+            final SpineReference spineReference = createSpineReference(
+                    resources, idMapping, DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.idref),
+                    DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.linear));
+            if (spineReference != null) {
+                spineReferences.add(spineReference);
             }
-            String id = idMapping.get(itemref);
-            if (id == null) {
-                id = itemref;
-            }
-            final Resource resource = resources.getByIdOrHref(id);
-            if (resource == null) {
-                log.error("resource with id \'" + id + "\' not found");
-                continue;
-            }
-
-            final SpineReference spineReference = new SpineReference(resource);
-            if (OPFValues.no.equalsIgnoreCase(DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.linear))) {
-                spineReference.setLinear(false);
-            }
-            spineReferences.add(spineReference);
         }
         result.setSpineReferences(spineReferences);
         return result;
     }
 
+    /**
+     * Creates the reference to the resource of a spine itemref.
+     *
+     * @param resources
+     * @param idMapping
+     * @param itemref
+     * @param linear
+     * @return the reference to the resource of a spine itemref, null if the itemref is invalid.
+     */
+    static SpineReference createSpineReference(final Resources resources, final Map<String, String> idMapping,
+                                               final String itemref, final String linear) {
+        if (StringUtil.isBlank(itemref)) {
+            log.error("itemref with missing or empty idref"); // XXX
+            return null;
+        }
+        String id = idMapping.get(itemref);
+        if (id == null) {
+            id = itemref;
+        }
+        final Resource resource = resources.getByIdOrHref(id);
+        if (resource == null) {
+            log.error("resource with id \'" + id + "\' not found");
+            return null;
+        }
+
+        final SpineReference result = new SpineReference(resource);
+        if (OPFValues.no.equalsIgnoreCase(linear)) {
+            result.setLinear(false);
+        }
+        return result;
+    }
+
     /**
      * Creates a spine out of all resources in the resources.
      * The generated spine consists of all XHTML pages in order of their href.
@@ -258,7 +308,7 @@ class PackageDocumentReader extends PackageDocumentBase {
      * @param resources
      * @return a spine created out of all resources in the resources.
      */
-    private static Spine generateSpineFromResources(final Resources resources) {
+    static Spine generateSpineFromResources(final Resources resources) {
         final Spine result = new Spine();
         final List<String> resourceHrefs = new ArrayList<String>();
         resourceHrefs.addAll(resources.getAllHrefs());
@@ -282,12 +332,11 @@ class PackageDocumentReader extends PackageDocumentBase {
      * We try the given attribute value, some often-used ones and finally look through all resources for the first
      * resource with the table of contents mimetype.
      *
-     * @param spineElement
-     * @param resourcesById
+     * @param tocResourceId
+     * @param resources
      * @return the Resource containing the table of contents
      */
-    private static Resource findTableOfContentsResource(final Element spineElement, final Resources resources) {
-        final String tocResourceId = DOMUtil.getAttribute(spineElement, NAMESPACE_OPF, OPFAttributes.toc);
+    static Resource findTableOfContentsResource(final String tocResourceId, final Resources resources) {
         Resource tocResource = null;
         if (StringUtil.isNotBlank(tocResourceId)) {
             tocResource = resources.getByIdOrHref(tocResourceId);
@@ -330,31 +379,46 @@ class PackageDocumentReader extends PackageDocumentBase {
     // package
     static Set<String> findCoverHrefs(final Document packageDocument) {
 
-        final Set<String> result = new HashSet<String>();
-
         // try and find a meta tag with name = 'cover' and a non-blank id
         final String coverResourceId = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
                                                                      OPFTags.meta, OPFAttributes.name,
                                                                      OPFValues.meta_cover,
                                                                      OPFAttributes.content);
 
+        String coverItemHref = null;
+        if (StringUtil.isNotBlank(coverResourceId)) {
+            coverItemHref = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
+                                                          OPFTags.item, OPFAttributes.id, coverResourceId,
+                                                          OPFAttributes.href);
+        }
+        // try and find a reference tag with type is 'cover' and reference is not blank
+        final String coverReferenceHref = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
+                                                                        OPFTags.reference, OPFAttributes.type,
+                                                                        OPFValues.reference_cover,
+                                                                        OPFAttributes.href);
+        return findCoverHrefs(coverResourceId, coverItemHref, coverReferenceHref);
+    }
+
+    /**
+     * All hrefs that have something to do with the coverpage and the cover image.
+     *
+     * @param coverResourceId the content of the meta tag with name 'cover'
+     * @param coverItemHref the href of the manifest item with the coverResourceId as id
+     * @param coverReferenceHref the href of the guide reference with type 'cover'
+     * @return all hrefs that have something to do with the coverpage and the cover image.
+     */
+    static Set<String> findCoverHrefs(final String coverResourceId, final String coverItemHref,
+                                      final String coverReferenceHref) {
+        final Set<String> result = new HashSet<String>();
         if (StringUtil.isNotBlank(coverResourceId)) {
-            final String coverHref = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
-                                                                   OPFTags.item, OPFAttributes.id, coverResourceId,
-                                                                   OPFAttributes.href);
-            if (StringUtil.isNotBlank(coverHref)) {
-                result.add(coverHref);
+            if (StringUtil.isNotBlank(coverItemHref)) {
+                result.add(coverItemHref);
             } else {
                 result.add(coverResourceId); // maybe there was a cover href put in the cover id attribute
             }
         }
-        // try and find a reference tag with type is 'cover' and reference is not blank
-        final String coverHref = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
-                                                               OPFTags.reference, OPFAttributes.type,
-                                                               OPFValues.reference_cover,
-                                                               OPFAttributes.href);
-        if (StringUtil.isNotBlank(coverHref)) {
-            result.add(coverHref);
+        if (StringUtil.isNotBlank(coverReferenceHref)) {
+            result.add(coverReferenceHref);
         }
         return result;
     }
@@ -367,8 +431,16 @@ class PackageDocumentReader extends PackageDocumentBase {
      * @param resources
      */
     private static void readCover(final Document packageDocument, final Book book) {
+        readCover(findCoverHrefs(packageDocument), book);
+    }
 
-        final Collection<String> coverHrefs = findCoverHrefs(packageDocument);
+    /**
+     * Sets the resources with the given hrefs as cover page or cover image of the book, depending on their mediatype.
+     *
+     * @param coverHrefs
+     * @param book
+     */
+    static void readCover(final Collection<String> coverHrefs, final Book book) {
         for (final String coverHref : coverHrefs) {
             final Resource resource = book.getResources().getByHref(coverHref);
             if (resource == null) {
@@ -71,8 +71,7 @@ class PackageDocumentWriter extends PackageDocumentBase {
     private static void writeSpine(final Book book, final EpubWriter epubWriter, final XmlSerializer serializer)
             throws IllegalArgumentException, IllegalStateException, IOException {
         serializer.startTag(NAMESPACE_OPF, OPFTags.spine);
-        serializer.attribute(EpubWriter.EMPTY_NAMESPACE_PREFIX, OPFAttributes.toc, book.getSpine().getTocResource()
-                .getId());
+        serializer.attribute(EpubWriter.EMPTY_NAMESPACE_PREFIX, OPFAttributes.toc, epubWriter.getNcxId());
 
         if ((book.getCoverPage() != null)
             && (book.getSpine().findFirstResourceById(book.getCoverPage().getId())
@@ -130,9 +129,8 @@ class PackageDocumentWriter extends PackageDocumentBase {
      */
     private static void writeItem(final Book book, final Resource resource, final XmlSerializer serializer)
             throws IllegalArgumentException, IllegalStateException, IOException {
-        if ((resource == null) ||
-            ((resource.getMediaType() == MediatypeService.NCX)
-             && (book.getSpine().getTocResource() != null))) {
+        if ((resource == null) || (resource.getMediaType() == MediatypeService.NCX)) {
+            // the table of contents is always written by the EpubWriter itself
             return;
         }
         if (StringUtil.isBlank(resource.getId())) {
@@ -0,0 +1,31 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+
+import java.io.IOException;
+
+/**
+ * A BookProcessor that processes every resource of a book independently of the others.
+ *
+ * Processing a resource may only change that resource, and processBook must come down to calling
+ * processResource for every resource of the book.
+ * This allows a BookProcessorPipeline to process several resources at the same time.
+ * BookProcessors that do not implement this interface are considered book-global.
+ *
+ * @author paul
+ *
+ */
+public interface ResourceBookProcessor extends BookProcessor {
+
+    /**
+     * Processes a single resource of the book.
+     *
+     * May be called by several threads at the same time for different resources.
+     *
+     * @param resource
+     * @param book
+     * @throws IOException
+     */
+    void processResource(Resource resource, Book book) throws IOException;
+}
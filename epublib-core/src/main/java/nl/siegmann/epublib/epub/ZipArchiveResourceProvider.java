@@ -0,0 +1,89 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.util.zip.ZipArchive;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.zip.ZipEntry;
+
+/**
+ * Serves the lazy resources of a book from a memory-mapped ZipArchive.
+ *
+ * Resources that are stored uncompressed (images, fonts, audio) are read straight from the mapping and
+ * are available as read-only ByteBuffers without being copied onto the heap.
+ *
+ * @author paul
+ *
+ */
+public class ZipArchiveResourceProvider extends ArchiveResourceProvider {
+
+    private final ZipArchive zipArchive;
+
+    public ZipArchiveResourceProvider(final String fileName) throws IOException {
+        this(new ZipArchive(fileName));
+    }
+
+    /**
+     * Creates a provider that takes ownership of the given ZipArchive.
+     *
+     * @param zipArchive the archive to read the resources from. Will be closed when this provider is closed.
+     */
+    public ZipArchiveResourceProvider(final ZipArchive zipArchive) {
+        this.zipArchive = zipArchive;
+    }
+
+    @Override
+    public ZipArchive getZipArchive() {
+        return this.zipArchive;
+    }
+
+    @Override
+    protected String getArchiveName() {
+        return this.zipArchive.getName();
+    }
+
+    @Override
+    public Collection<? extends ZipEntry> getEntries() {
+        return this.zipArchive.getEntries();
+    }
+
+    @Override
+    protected InputStream openEntry(final String href) throws IOException {
+        final ZipArchiveEntry entry = this.zipArchive.getEntry(href);
+        if (entry == null) {
+            return null;
+        }
+        return this.zipArchive.getInputStream(entry);
+    }
+
+    /**
+     * Gets the contents of a resource that is stored uncompressed as a read-only slice of the mapped archive.
+     *
+     * The buffer stays valid after the book has been closed.
+     *
+     * @param href
+     * @return null if the resource is compressed.
+     * @throws IOException
+     */
+    @Override
+    public ByteBuffer getResourceBuffer(final String href) throws IOException {
+        final ZipArchiveEntry entry = this.zipArchive.getEntry(href);
+        if (entry == null) {
+            throw new IllegalStateException("Cannot find resources href " + href + " in the epub file");
+        }
+        acquire();
+        try {
+            return this.zipArchive.getByteBuffer(entry);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    protected void closeArchive() throws IOException {
+        this.zipArchive.close();
+    }
+}
@@ -0,0 +1,82 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.util.zip.ZipArchive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Serves the lazy resources of a book from a single shared ZipFile.
+ *
+ * The zip central directory is parsed only once, when the ZipFile is opened.
+ *
+ * @author paul
+ *
+ */
+public class ZipFileResourceProvider extends ArchiveResourceProvider {
+
+    private final ZipFile zipFile;
+    private ZipArchive zipArchive;
+
+    public ZipFileResourceProvider(final String fileName) throws IOException {
+        this(new ZipFile(fileName));
+    }
+
+    /**
+     * Creates a provider that takes ownership of the given ZipFile.
+     *
+     * @param zipFile the zipFile to read the resources from. Will be closed when this provider is closed.
+     */
+    public ZipFileResourceProvider(final ZipFile zipFile) {
+        this.zipFile = zipFile;
+    }
+
+    public ZipFile getZipFile() {
+        return this.zipFile;
+    }
+
+    @Override
+    protected String getArchiveName() {
+        return this.zipFile.getName();
+    }
+
+    @Override
+    public Collection<? extends ZipEntry> getEntries() {
+        return Collections.list(this.zipFile.entries());
+    }
+
+    @Override
+    protected InputStream openEntry(final String href) throws IOException {
+        final ZipEntry zipEntry = this.zipFile.getEntry(href);
+        if (zipEntry == null) {
+            return null;
+        }
+        return this.zipFile.getInputStream(zipEntry);
+    }
+
+    /**
+     * Opens the same file as a ZipArchive the first time the compressed data of an entry is needed.
+     */
+    @Override
+    protected synchronized ZipArchive getZipArchive() throws IOException {
+        if (this.zipArchive == null) {
+            this.zipArchive = new ZipArchive(this.zipFile.getName());
+        }
+        return this.zipArchive;
+    }
+
+    @Override
+    protected synchronized void closeArchive() throws IOException {
+        try {
+            this.zipFile.close();
+        } finally {
+            if (this.zipArchive != null) {
+                this.zipArchive.close();
+            }
+        }
+    }
+}
@@ -24,21 +24,21 @@ public final class MediatypeService {
     public static final MediaType CSS = new MediaType("text/css", ".css");
 
     // images
-    private static final MediaType JPG = new MediaType("image/jpeg", ".jpg", new String[]{".jpg", ".jpeg"});
+    public static final MediaType JPG = new MediaType("image/jpeg", ".jpg", new String[]{".jpg", ".jpeg"});
     public static final MediaType PNG = new MediaType("image/png", ".png");
-    private static final MediaType GIF = new MediaType("image/gif", ".gif");
+    public static final MediaType GIF = new MediaType("image/gif", ".gif");
 
     private static final MediaType SVG = new MediaType("image/svg+xml", ".svg");
 
     // fonts
     private static final MediaType TTF = new MediaType("application/x-truetype-font", ".ttf");
     private static final MediaType OPENTYPE = new MediaType("application/vnd.ms-opentype", ".otf");
-    private static final MediaType WOFF = new MediaType("application/font-woff", ".woff");
+    public static final MediaType WOFF = new MediaType("application/font-woff", ".woff");
 
     // audio
-    private static final MediaType MP3 = new MediaType("audio/mpeg", ".mp3");
-    private static final MediaType MP4 = new MediaType("audio/mp4", ".mp4");
-    private static final MediaType OGG = new MediaType("audio/ogg", ".ogg");
+    public static final MediaType MP3 = new MediaType("audio/mpeg", ".mp3");
+    public static final MediaType MP4 = new MediaType("audio/mp4", ".mp4");
+    public static final MediaType OGG = new MediaType("audio/ogg", ".ogg");
 
     private static final MediaType SMIL = new MediaType("application/smil+xml", ".smil");
     private static final MediaType XPGT = new MediaType("application/adobe-page-template+xml", ".xpgt");
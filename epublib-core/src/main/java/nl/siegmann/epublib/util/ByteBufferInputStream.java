@@ -0,0 +1,72 @@
+package nl.siegmann.epublib.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads the remaining bytes of a ByteBuffer.
+ *
+ * The given buffer is duplicated, so reading from this stream does not change the position of the original buffer.
+ *
+ * @author paul
+ *
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream(final ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() {
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        final int readSize = Math.min(length, this.buffer.remaining());
+        this.buffer.get(bytes, offset, readSize);
+        return readSize;
+    }
+
+    @Override
+    public long skip(final long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        final int skipSize = (int) Math.min(n, this.buffer.remaining());
+        this.buffer.position(this.buffer.position() + skipSize);
+        return skipSize;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+        this.buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.buffer.reset();
+    }
+}
@@ -7,6 +7,7 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Arrays;
 
 /**
  * Most of the functions herein are re-implementations of the ones in apache io IOUtils.
@@ -17,6 +18,9 @@ public class IOUtil {
 
     public static final int IO_COPY_BUFFER_SIZE = 1024 * 4;
 
+    // some vms reserve header words in an array
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
     /**
      * Gets the contents of the Reader as a byte[], with the given character encoding.
      *
@@ -32,6 +36,19 @@ public class IOUtil {
         return out.toString().getBytes(encoding);
     }
 
+    /**
+     * Gets the contents of the Reader as a String.
+     *
+     * @param in
+     * @return the contents of the Reader as a String.
+     * @throws IOException
+     */
+    public static String toString(final Reader in) throws IOException {
+        final StringWriter out = new StringWriter();
+        copy(in, out);
+        return out.toString();
+    }
+
     /**
      * Returns the contents of the InputStream as a byte[]
      *
@@ -74,6 +91,40 @@ public class IOUtil {
 
     }
 
+    /**
+     * Reads the contents of the InputStream directly into a byte[] of the given size.
+     *
+     * If the size is right this allocates nothing but the result. If the stream turns out to be shorter or
+     * longer the result is resized to its actual length.
+     *
+     * @param in the stream to read data from
+     * @param size the expected number of bytes, negative if unknown
+     * @return the contents of the InputStream
+     * @throws IOException
+     */
+    public static byte[] readFully(final InputStream in, final long size) throws IOException {
+        if ((size < 0) || (size > MAX_ARRAY_SIZE)) {
+            return toByteArray(in);
+        }
+        final byte[] result = new byte[(int) size];
+        int offset = 0;
+        while (offset < result.length) {
+            final int readSize = in.read(result, offset, result.length - offset);
+            if (readSize < 0) {
+                return Arrays.copyOf(result, offset);
+            }
+            offset += readSize;
+        }
+        final int next = in.read();
+        if (next < 0) {
+            return result;
+        }
+        final ByteArrayOutputStream longerResult = new ByteArrayOutputStream(result.length + IO_COPY_BUFFER_SIZE);
+        longerResult.write(result);
+        longerResult.write(next);
+        copy(in, longerResult);
+        return longerResult.toByteArray();
+    }
 
     /**
      * if totalNrRead < 0 then totalNrRead is returned, if (nrRead + totalNrRead) < Integer.MAX_VALUE then nrRead +
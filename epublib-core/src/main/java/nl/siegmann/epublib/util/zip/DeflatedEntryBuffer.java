@@ -0,0 +1,173 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * The deflated data of a single zip entry, compressed ahead of writing it to a ZipArchiveOutputStream.
+ *
+ * This makes it possible to compress several entries at the same time on different threads and write them
+ * to the zip file one after the other afterwards.
+ * The compressed data is kept in memory up to a given limit, beyond that it is moved to a temporary file.
+ *
+ * @author paul
+ *
+ */
+public class DeflatedEntryBuffer {
+
+    private final ZipEntry entry;
+    private final byte[] data;
+    private final File file;
+
+    private DeflatedEntryBuffer(final ZipEntry entry, final byte[] data, final File file) {
+        this.entry = entry;
+        this.data = data;
+        this.file = file;
+    }
+
+    /**
+     * Deflates the contents of the given stream.
+     *
+     * @param entryName the name of the zip entry
+     * @param in the data to compress. Is read completely but not closed.
+     * @param level the compression level (0-9)
+     * @param memoryLimit the maximum number of compressed bytes to keep in memory.
+     * @return the deflated data of the entry
+     * @throws IOException
+     */
+    public static DeflatedEntryBuffer deflate(final String entryName, final InputStream in, final int level,
+                                              final int memoryLimit) throws IOException {
+        final SpillingOutputStream out = new SpillingOutputStream(memoryLimit);
+        final Deflater deflater = new Deflater(level, true);
+        final CRC32 crc = new CRC32();
+        final byte[] inBuffer = new byte[8192];
+        final byte[] outBuffer = new byte[8192];
+        try {
+            for (int read = in.read(inBuffer); read >= 0; read = in.read(inBuffer)) {
+                crc.update(inBuffer, 0, read);
+                deflater.setInput(inBuffer, 0, read);
+                while (!deflater.needsInput()) {
+                    out.write(outBuffer, 0, deflater.deflate(outBuffer, 0, outBuffer.length));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(outBuffer, 0, deflater.deflate(outBuffer, 0, outBuffer.length));
+            }
+            out.close();
+            final ZipEntry entry = new ZipEntry(entryName);
+            entry.setMethod(ZipEntry.DEFLATED);
+            entry.setCrc(crc.getValue());
+            entry.setSize(deflater.getBytesRead());
+            entry.setCompressedSize(deflater.getBytesWritten());
+            return new DeflatedEntryBuffer(entry, out.getData(), out.getFile());
+        } catch (IOException e) {
+            out.discard();
+            throw e;
+        } catch (RuntimeException e) {
+            out.discard();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * The zip entry, with its method, crc and sizes set.
+     *
+     * @return The zip entry, with its method, crc and sizes set.
+     */
+    public ZipEntry getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * Opens a stream on the deflated data.
+     *
+     * @return a stream on the deflated data.
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        return (this.file == null) ? new ByteArrayInputStream(this.data) : new FileInputStream(this.file);
+    }
+
+    /**
+     * Removes the temporary file, if any.
+     */
+    public void delete() {
+        if (this.file != null) {
+            this.file.delete();
+        }
+    }
+
+    /**
+     * Keeps the written data in memory until it exceeds the limit, then moves it to a temporary file.
+     */
+    private static class SpillingOutputStream extends OutputStream {
+
+        private final int memoryLimit;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileOut;
+
+        SpillingOutputStream(final int memoryLimit) {
+            this.memoryLimit = memoryLimit;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            final byte[] single = {(byte) b};
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            if ((this.memory != null) && ((this.memory.size() + length) > this.memoryLimit)) {
+                this.file = File.createTempFile("epublib", ".deflated");
+                this.fileOut = new FileOutputStream(this.file);
+                this.memory.writeTo(this.fileOut);
+                this.memory = null;
+            }
+            if (this.memory != null) {
+                this.memory.write(bytes, offset, length);
+            } else {
+                this.fileOut.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.fileOut != null) {
+                this.fileOut.close();
+            }
+        }
+
+        byte[] getData() {
+            return (this.memory == null) ? null : this.memory.toByteArray();
+        }
+
+        File getFile() {
+            return this.file;
+        }
+
+        void discard() {
+            try {
+                close();
+            } catch (IOException e) {
+                // ignore, the file is deleted anyway
+            }
+            if (this.file != null) {
+                this.file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package nl.siegmann.epublib.util.zip;
+
+import nl.siegmann.epublib.util.ByteBufferInputStream;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only zip file that is accessed through a memory mapping of the file.
+ *
+ * Unlike java.util.zip.ZipFile this knows where the data of every entry is located within the file.
+ * That makes it possible to hand out entries that are stored uncompressed as read-only slices of the mapping,
+ * without copying their data onto the heap.
+ *
+ * Files up to 2GB are mapped as a whole, larger files are mapped per entry.
+ * Instances are safe for use by multiple threads.
+ *
+ * @author paul
+ *
+ */
+public class ZipArchive implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final String NAME_ENCODING = "UTF-8";
+
+    private final String name;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private final MappedByteBuffer mapping;
+    private final Map<String, ZipArchiveEntry> entries = new LinkedHashMap<String, ZipArchiveEntry>();
+
+    public ZipArchive(final String fileName) throws IOException {
+        this(new File(fileName));
+    }
+
+    public ZipArchive(final File file) throws IOException {
+        this.name = file.getPath();
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            this.channel = this.file.getChannel();
+            this.length = this.channel.size();
+            this.mapping = (this.length <= Integer.MAX_VALUE) ?
+                           this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.length) : null;
+            readCentralDirectory();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * All entries of this archive, in the order of the central directory.
+     *
+     * @return all entries of this archive, in the order of the central directory.
+     */
+    public Collection<ZipArchiveEntry> getEntries() {
+        return Collections.unmodifiableCollection(this.entries.values());
+    }
+
+    /**
+     * Gets the entry with the given name.
+     *
+     * @param entryName
+     * @return null if not found
+     */
+    public ZipArchiveEntry getEntry(final String entryName) {
+        return this.entries.get(entryName);
+    }
+
+    /**
+     * The uncompressed data of the given entry as a read-only slice of the mapping.
+     *
+     * @param entry
+     * @return null if the entry is not stored uncompressed.
+     * @throws IOException
+     */
+    public ByteBuffer getByteBuffer(final ZipArchiveEntry entry) throws IOException {
+        if (entry.getCompressionMethod() != ZipEntry.STORED) {
+            return null;
+        }
+        return map(getDataOffset(entry), entry.getSize()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Opens a stream on the uncompressed data of the given entry.
+     *
+     * Stored entries are read straight from the mapping, deflated entries are inflated from it.
+     *
+     * @param entry
+     * @return a stream on the uncompressed data of the given entry.
+     * @throws IOException
+     */
+    public InputStream getInputStream(final ZipArchiveEntry entry) throws IOException {
+        switch (entry.getCompressionMethod()) {
+            case ZipEntry.STORED:
+                return new ByteBufferInputStream(map(getDataOffset(entry), entry.getSize()));
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterInputStream(getRawInputStream(entry), entry.getSize());
+            default:
+                throw new ZipException("Entry " + entry.getName() + " uses unsupported compression method "
+                                       + entry.getCompressionMethod());
+        }
+    }
+
+    /**
+     * Opens a stream on the data of the given entry exactly as it is stored in the archive, without inflating it.
+     *
+     * @param entry
+     * @return a stream on the (possibly compressed) data of the given entry.
+     * @throws IOException
+     */
+    public InputStream getRawInputStream(final ZipArchiveEntry entry) throws IOException {
+        return new ByteBufferInputStream(map(getDataOffset(entry), entry.getCompressedSize()));
+    }
+
+    /**
+     * Closes the underlying file.
+     *
+     * Buffers that were handed out stay valid until they are garbage collected.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+    private long getDataOffset(final ZipArchiveEntry entry) throws IOException {
+        long result = entry.getDataOffset();
+        if (result < 0) {
+            final ByteBuffer localHeader = map(entry.getLocalHeaderOffset(), LOCAL_FILE_HEADER_SIZE);
+            if (localHeader.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local file header for entry " + entry.getName() + " in " + this.name);
+            }
+            result = entry.getLocalHeaderOffset() + LOCAL_FILE_HEADER_SIZE
+                     + readUnsignedShort(localHeader, 26) + readUnsignedShort(localHeader, 28);
+            entry.setDataOffset(result);
+        }
+        return result;
+    }
+
+    private void readCentralDirectory() throws IOException {
+        final long endPosition = findEndOfCentralDirectory();
+        final ByteBuffer end = map(endPosition, END_OF_CENTRAL_DIRECTORY_SIZE);
+        long entryCount = readUnsignedShort(end, 10);
+        long centralDirectorySize = readUnsignedInt(end, 12);
+        long centralDirectoryOffset = readUnsignedInt(end, 16);
+
+        if ((entryCount == ZIP64_MAGIC_COUNT) || (centralDirectorySize == ZIP64_MAGIC)
+            || (centralDirectoryOffset == ZIP64_MAGIC)) {
+            final ByteBuffer zip64End = findZip64EndOfCentralDirectory(endPosition);
+            if (zip64End != null) {
+                entryCount = zip64End.getLong(32);
+                centralDirectorySize = zip64End.getLong(40);
+                centralDirectoryOffset = zip64End.getLong(48);
+            }
+        }
+
+        final ByteBuffer centralDirectory = map(centralDirectoryOffset, centralDirectorySize);
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if ((position + CENTRAL_DIRECTORY_HEADER_SIZE) > centralDirectory.limit()
+                || (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE)) {
+                throw new ZipException("Invalid central directory in " + this.name);
+            }
+            final int entryEnd = position + CENTRAL_DIRECTORY_HEADER_SIZE
+                                 + readUnsignedShort(centralDirectory, position + 28)
+                                 + readUnsignedShort(centralDirectory, position + 30)
+                                 + readUnsignedShort(centralDirectory, position + 32);
+            if (entryEnd > centralDirectory.limit()) {
+                throw new ZipException("Invalid central directory in " + this.name);
+            }
+            final ZipArchiveEntry entry = readCentralDirectoryEntry(centralDirectory, position);
+            this.entries.put(entry.getName(), entry);
+            position = entryEnd;
+        }
+    }
+
+    private ZipArchiveEntry readCentralDirectoryEntry(final ByteBuffer centralDirectory, final int position)
+            throws ZipException {
+        final int method = readUnsignedShort(centralDirectory, position + 10);
+        final long dosTime = readUnsignedInt(centralDirectory, position + 12);
+        final long crc = readUnsignedInt(centralDirectory, position + 16);
+        long compressedSize = readUnsignedInt(centralDirectory, position + 20);
+        long size = readUnsignedInt(centralDirectory, position + 24);
+        final int nameLength = readUnsignedShort(centralDirectory, position + 28);
+        final int extraLength = readUnsignedShort(centralDirectory, position + 30);
+        long localHeaderOffset = readUnsignedInt(centralDirectory, position + 42);
+        final String entryName = readString(centralDirectory, position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength);
+
+        // sizes and offsets that do not fit in 32 bits are stored in the zip64 extra field, in this order
+        int extraPosition = position + CENTRAL_DIRECTORY_HEADER_SIZE + nameLength;
+        final int extraEnd = extraPosition + extraLength;
+        while ((extraPosition + 4) <= extraEnd) {
+            final int headerId = readUnsignedShort(centralDirectory, extraPosition);
+            final int dataSize = readUnsignedShort(centralDirectory, extraPosition + 2);
+            final int dataEnd = extraPosition + 4 + dataSize;
+            if (dataEnd > extraEnd) {
+                throw new ZipException("Invalid extra field of entry " + entryName + " in " + this.name);
+            }
+            if (headerId == ZIP64_EXTRA_FIELD_ID) {
+                int valuePosition = extraPosition + 4;
+                if (size == ZIP64_MAGIC) {
+                    size = readZip64Value(centralDirectory, valuePosition, dataEnd, entryName);
+                    valuePosition += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    compressedSize = readZip64Value(centralDirectory, valuePosition, dataEnd, entryName);
+                    valuePosition += 8;
+                }
+                if (localHeaderOffset == ZIP64_MAGIC) {
+                    localHeaderOffset = readZip64Value(centralDirectory, valuePosition, dataEnd, entryName);
+                }
+                break;
+            }
+            extraPosition = dataEnd;
+        }
+        return new ZipArchiveEntry(entryName, method, dosTime, crc, compressedSize, size, localHeaderOffset);
+    }
+
+    /**
+     * Reads a size or offset from the zip64 extra field of an entry, that ends at dataEnd.
+     */
+    private long readZip64Value(final ByteBuffer centralDirectory, final int position, final int dataEnd,
+                                final String entryName) throws ZipException {
+        if ((position + 8) > dataEnd) {
+            throw new ZipException("Invalid zip64 extra field of entry " + entryName + " in " + this.name);
+        }
+        final long result = centralDirectory.getLong(position);
+        if (result < 0) {
+            throw new ZipException("Invalid zip64 extra field of entry " + entryName + " in " + this.name);
+        }
+        return result;
+    }
+
+    private long findEndOfCentralDirectory() throws IOException {
+        if (this.length < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException(this.name + " is not a zip file");
+        }
+        final long searchStart = Math.max(0, this.length - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+        final ByteBuffer tail = map(searchStart, this.length - searchStart);
+        for (int position = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return searchStart + position;
+            }
+        }
+        throw new ZipException("zip END header not found in " + this.name);
+    }
+
+    private ByteBuffer findZip64EndOfCentralDirectory(final long endPosition) throws IOException {
+        final long locatorPosition = endPosition - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+        if (locatorPosition < 0) {
+            return null;
+        }
+        final ByteBuffer locator = map(locatorPosition, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+        if (locator.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+            return null;
+        }
+        final ByteBuffer result = map(locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+        if (result.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            throw new ZipException("Invalid zip64 END header in " + this.name);
+        }
+        return result;
+    }
+
+    /**
+     * Maps the given region of the file as a little-endian ByteBuffer.
+     */
+    private ByteBuffer map(final long position, final long size) throws IOException {
+        if ((position < 0) || (size < 0) || ((position + size) > this.length)) {
+            throw new EOFException("Region [" + position + ", " + (position + size) + ") lies outside of "
+                                   + this.name);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new ZipException("Region of " + size + " bytes in " + this.name + " is too large to be mapped");
+        }
+        final ByteBuffer result;
+        if (this.mapping != null) {
+            final ByteBuffer view = this.mapping.duplicate();
+            view.position((int) position);
+            view.limit((int) (position + size));
+            result = view.slice();
+        } else {
+            result = this.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
+    }
+
+    private static int readUnsignedShort(final ByteBuffer buffer, final int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long readUnsignedInt(final ByteBuffer buffer, final int position) {
+        return buffer.getInt(position) & ZIP64_MAGIC;
+    }
+
+    private static String readString(final ByteBuffer buffer, final int position, final int length)
+            throws ZipException {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        try {
+            return new String(bytes, NAME_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new ZipException(e.getMessage());
+        }
+    }
+
+    /**
+     * Inflates raw deflate data and releases the Inflater when closed.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof = false;
+        private boolean closed = false;
+        private long remaining;
+
+        EntryInflaterInputStream(final InputStream in, final long size) {
+            super(in, new Inflater(true), (int) Math.max(512, Math.min(size, 8192)));
+            this.remaining = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (this.eof) {
+                throw new EOFException("Unexpected end of compressed entry");
+            }
+            this.len = this.in.read(this.buf, 0, this.buf.length);
+            if (this.len == -1) {
+                // the nowrap Inflater needs an extra dummy byte after the deflate data
+                this.buf[0] = 0;
+                this.len = 1;
+                this.eof = true;
+            }
+            this.inf.setInput(this.buf, 0, this.len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (this.closed) {
+                return 0;
+            }
+            return (int) Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            final int result = super.read(bytes, offset, length);
+            if (result > 0) {
+                this.remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.inf.end();
+            super.close();
+        }
+    }
+}
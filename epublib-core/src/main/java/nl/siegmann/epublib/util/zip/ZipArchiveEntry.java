@@ -0,0 +1,81 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.util.Calendar;
+import java.util.zip.ZipEntry;
+
+/**
+ * A ZipEntry that also knows where its data is located within the ZipArchive.
+ *
+ * @author paul
+ *
+ */
+public class ZipArchiveEntry extends ZipEntry {
+
+    private final int compressionMethod;
+    private final long localHeaderOffset;
+    private volatile long dataOffset = -1;
+
+    ZipArchiveEntry(final String name, final int compressionMethod, final long dosTime, final long crc,
+                    final long compressedSize, final long size, final long localHeaderOffset) {
+        super(name);
+        this.compressionMethod = compressionMethod;
+        this.localHeaderOffset = localHeaderOffset;
+        if ((compressionMethod == STORED) || (compressionMethod == DEFLATED)) {
+            setMethod(compressionMethod);
+        }
+        setTime(dosToJavaTime(dosTime));
+        setCrc(crc);
+        setCompressedSize(compressedSize);
+        setSize(size);
+    }
+
+    /**
+     * The compression method as found in the central directory.
+     *
+     * Unlike getMethod() this also returns compression methods that java.util.zip does not support.
+     *
+     * @return the compression method as found in the central directory.
+     */
+    public int getCompressionMethod() {
+        return this.compressionMethod;
+    }
+
+    long getLocalHeaderOffset() {
+        return this.localHeaderOffset;
+    }
+
+    long getDataOffset() {
+        return this.dataOffset;
+    }
+
+    void setDataOffset(final long dataOffset) {
+        this.dataOffset = dataOffset;
+    }
+
+    static long javaToDosTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+               | ((calendar.get(Calendar.MONTH) + 1) << 21)
+               | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+               | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+               | (calendar.get(Calendar.MINUTE) << 5)
+               | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    static long dosToJavaTime(final long dosTime) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set((int) (((dosTime >> 25) & 0x7f) + 1980),
+                     (int) (((dosTime >> 21) & 0x0f) - 1),
+                     (int) ((dosTime >> 16) & 0x1f),
+                     (int) ((dosTime >> 11) & 0x1f),
+                     (int) ((dosTime >> 5) & 0x3f),
+                     (int) ((dosTime << 1) & 0x3e));
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,458 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file.
+ *
+ * Works like java.util.zip.ZipOutputStream, but can also copy entries that are already compressed, like the
+ * entries of another zip file, without inflating and deflating them again.
+ *
+ * Not thread-safe.
+ *
+ * @author paul
+ *
+ */
+public class ZipArchiveOutputStream extends OutputStream {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final String NAME_ENCODING = "UTF-8";
+
+    /**
+     * An entry that has been written, as it will appear in the central directory.
+     */
+    private static class EntryRecord {
+        private byte[] name;
+        private int flags;
+        private int method;
+        private long dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+    }
+
+    private final OutputStream out;
+    private final List<EntryRecord> entries = new ArrayList<EntryRecord>();
+    private final Set<String> entryNames = new HashSet<String>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] deflateBuffer = new byte[8192];
+    private final byte[] header = new byte[64];
+    private Deflater deflater;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private long written = 0;
+    private EntryRecord current;
+    private boolean finished = false;
+
+    public ZipArchiveOutputStream(final OutputStream out) {
+        this.out = new BufferedOutputStream(out, 8192);
+    }
+
+    /**
+     * Sets the compression level used for entries that are deflated by this stream.
+     *
+     * Takes effect from the next entry.
+     *
+     * @param level the compression level (0-9)
+     */
+    public void setLevel(final int level) {
+        if (((level < 0) || (level > 9)) && (level != Deflater.DEFAULT_COMPRESSION)) {
+            throw new IllegalArgumentException("invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * The number of bytes written to the underlying stream so far.
+     *
+     * @return the number of bytes written to the underlying stream so far.
+     */
+    public long getBytesWritten() {
+        return this.written;
+    }
+
+    /**
+     * Starts writing a new entry. Closes the current entry, if any.
+     *
+     * Entries without a method are deflated. Stored entries need their size and crc set in advance.
+     *
+     * @param entry
+     * @throws IOException
+     */
+    public void putNextEntry(final ZipEntry entry) throws IOException {
+        closeEntry();
+        if ((entry.getMethod() == ZipEntry.STORED) && ((entry.getSize() < 0) || (entry.getCrc() < 0))) {
+            throw new ZipException("STORED entry " + entry.getName() + " is missing its size or crc");
+        }
+        final EntryRecord record = createRecord(entry);
+        if (record.method == ZipEntry.STORED) {
+            record.size = entry.getSize();
+            record.compressedSize = entry.getSize();
+            record.crc = entry.getCrc();
+        } else if (record.method == ZipEntry.DEFLATED) {
+            record.flags |= FLAG_DATA_DESCRIPTOR;
+            getDeflater().reset();
+            this.deflater.setLevel(this.level);
+        } else {
+            throw new ZipException("Unsupported compression method " + record.method + " for " + entry.getName());
+        }
+        writeLocalFileHeader(record);
+        this.crc.reset();
+        this.current = record;
+    }
+
+    /**
+     * Writes an entry whose data is already compressed.
+     *
+     * The method, crc, size and compressed size of the entry must be set and the data must be exactly
+     * compressedSize bytes compressed with the given method.
+     *
+     * @param entry
+     * @param rawData the data as it is to appear in the zip file.
+     * @throws IOException
+     */
+    public void writeRawEntry(final ZipEntry entry, final InputStream rawData) throws IOException {
+        closeEntry();
+        if ((entry.getMethod() < 0) || (entry.getCrc() < 0) || (entry.getSize() < 0)
+            || (entry.getCompressedSize() < 0)) {
+            throw new ZipException("Raw entry " + entry.getName()
+                                   + " is missing its method, crc, size or compressed size");
+        }
+        final EntryRecord record = createRecord(entry);
+        record.crc = entry.getCrc();
+        record.size = entry.getSize();
+        record.compressedSize = entry.getCompressedSize();
+        writeLocalFileHeader(record);
+        long remaining = record.compressedSize;
+        while (remaining > 0) {
+            final int read = rawData.read(this.deflateBuffer, 0, (int) Math.min(remaining, this.deflateBuffer.length));
+            if (read < 0) {
+                throw new ZipException("Raw entry " + entry.getName() + " is " + remaining + " bytes short");
+            }
+            writeOut(this.deflateBuffer, 0, read);
+            remaining -= read;
+        }
+        this.entries.add(record);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        final byte[] single = {(byte) b};
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] data, final int offset, final int length) throws IOException {
+        if (this.current == null) {
+            throw new ZipException("no current zip entry");
+        }
+        if (length == 0) {
+            return;
+        }
+        this.crc.update(data, offset, length);
+        if (this.current.method == ZipEntry.DEFLATED) {
+            this.deflater.setInput(data, offset, length);
+            while (!this.deflater.needsInput()) {
+                deflate();
+            }
+        } else {
+            writeOut(data, offset, length);
+        }
+    }
+
+    /**
+     * Finishes the current entry, if any.
+     *
+     * @throws IOException
+     */
+    public void closeEntry() throws IOException {
+        final EntryRecord record = this.current;
+        if (record == null) {
+            return;
+        }
+        this.current = null;
+        if (record.method == ZipEntry.DEFLATED) {
+            this.deflater.finish();
+            while (!this.deflater.finished()) {
+                deflate();
+            }
+            record.crc = this.crc.getValue();
+            record.size = this.deflater.getBytesRead();
+            record.compressedSize = this.deflater.getBytesWritten();
+            writeDataDescriptor(record);
+        } else {
+            final long size = this.written - record.localHeaderOffset - localFileHeaderSize(record);
+            if ((size != record.size) || (this.crc.getValue() != record.crc)) {
+                throw new ZipException("STORED entry " + new String(record.name, NAME_ENCODING)
+                                       + " does not match its size or crc");
+            }
+        }
+        this.entries.add(record);
+    }
+
+    /**
+     * Finishes writing the zip file without closing the underlying stream.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (this.finished) {
+            return;
+        }
+        closeEntry();
+        final long centralDirectoryOffset = this.written;
+        for (final EntryRecord record : this.entries) {
+            writeCentralDirectoryHeader(record);
+        }
+        writeEndOfCentralDirectory(centralDirectoryOffset, this.written - centralDirectoryOffset);
+        this.out.flush();
+        if (this.deflater != null) {
+            this.deflater.end();
+        }
+        this.finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    private Deflater getDeflater() {
+        if (this.deflater == null) {
+            this.deflater = new Deflater(this.level, true);
+        }
+        return this.deflater;
+    }
+
+    private void deflate() throws IOException {
+        final int length = this.deflater.deflate(this.deflateBuffer, 0, this.deflateBuffer.length);
+        if (length > 0) {
+            writeOut(this.deflateBuffer, 0, length);
+        }
+    }
+
+    private EntryRecord createRecord(final ZipEntry entry) throws IOException {
+        if (this.finished) {
+            throw new IOException("zip file has already been finished");
+        }
+        if (!this.entryNames.add(entry.getName())) {
+            throw new ZipException("duplicate entry: " + entry.getName());
+        }
+        final EntryRecord result = new EntryRecord();
+        result.name = entry.getName().getBytes(NAME_ENCODING);
+        result.flags = isAscii(result.name) ? 0 : FLAG_UTF8;
+        result.method = (entry.getMethod() < 0) ? ZipEntry.DEFLATED : entry.getMethod();
+        result.dosTime = ZipArchiveEntry.javaToDosTime((entry.getTime() < 0) ? System.currentTimeMillis()
+                                                                             : entry.getTime());
+        result.localHeaderOffset = this.written;
+        return result;
+    }
+
+    private static boolean isAscii(final byte[] name) {
+        for (final byte b : name) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasDataDescriptor(final EntryRecord record) {
+        return (record.flags & FLAG_DATA_DESCRIPTOR) != 0;
+    }
+
+    private static boolean needsZip64LocalExtra(final EntryRecord record) {
+        return !hasDataDescriptor(record) && ((record.size >= ZIP64_MAGIC) || (record.compressedSize >= ZIP64_MAGIC));
+    }
+
+    private static int version(final EntryRecord record, final boolean zip64) {
+        if (zip64) {
+            return VERSION_ZIP64;
+        }
+        return ((record.method == ZipEntry.STORED) && !hasDataDescriptor(record)) ? VERSION_STORED : VERSION_DEFLATED;
+    }
+
+    private static int localFileHeaderSize(final EntryRecord record) {
+        return 30 + record.name.length + (needsZip64LocalExtra(record) ? 20 : 0);
+    }
+
+    private void writeLocalFileHeader(final EntryRecord record) throws IOException {
+        final boolean zip64 = needsZip64LocalExtra(record);
+        int position = putInt(this.header, 0, LOCAL_FILE_HEADER_SIGNATURE);
+        position = putShort(this.header, position, version(record, zip64));
+        position = putShort(this.header, position, record.flags);
+        position = putShort(this.header, position, record.method);
+        position = putInt(this.header, position, record.dosTime);
+        if (hasDataDescriptor(record)) {
+            position = putInt(this.header, position, 0);
+            position = putInt(this.header, position, 0);
+            position = putInt(this.header, position, 0);
+        } else {
+            position = putInt(this.header, position, record.crc);
+            position = putInt(this.header, position, zip64 ? ZIP64_MAGIC : record.compressedSize);
+            position = putInt(this.header, position, zip64 ? ZIP64_MAGIC : record.size);
+        }
+        position = putShort(this.header, position, record.name.length);
+        position = putShort(this.header, position, zip64 ? 20 : 0);
+        writeOut(this.header, 0, position);
+        writeOut(record.name, 0, record.name.length);
+        if (zip64) {
+            position = putShort(this.header, 0, ZIP64_EXTRA_FIELD_ID);
+            position = putShort(this.header, position, 16);
+            position = putLong(this.header, position, record.size);
+            position = putLong(this.header, position, record.compressedSize);
+            writeOut(this.header, 0, position);
+        }
+    }
+
+    private void writeDataDescriptor(final EntryRecord record) throws IOException {
+        int position = putInt(this.header, 0, DATA_DESCRIPTOR_SIGNATURE);
+        position = putInt(this.header, position, record.crc);
+        if ((record.size >= ZIP64_MAGIC) || (record.compressedSize >= ZIP64_MAGIC)) {
+            position = putLong(this.header, position, record.compressedSize);
+            position = putLong(this.header, position, record.size);
+        } else {
+            position = putInt(this.header, position, record.compressedSize);
+            position = putInt(this.header, position, record.size);
+        }
+        writeOut(this.header, 0, position);
+    }
+
+    private void writeCentralDirectoryHeader(final EntryRecord record) throws IOException {
+        final boolean zip64Size = record.size >= ZIP64_MAGIC;
+        final boolean zip64CompressedSize = record.compressedSize >= ZIP64_MAGIC;
+        final boolean zip64Offset = record.localHeaderOffset >= ZIP64_MAGIC;
+        final int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        final boolean zip64 = extraLength > 0;
+
+        int position = putInt(this.header, 0, CENTRAL_DIRECTORY_SIGNATURE);
+        position = putShort(this.header, position, version(record, zip64));
+        position = putShort(this.header, position, version(record, zip64));
+        position = putShort(this.header, position, record.flags);
+        position = putShort(this.header, position, record.method);
+        position = putInt(this.header, position, record.dosTime);
+        position = putInt(this.header, position, record.crc);
+        position = putInt(this.header, position, zip64CompressedSize ? ZIP64_MAGIC : record.compressedSize);
+        position = putInt(this.header, position, zip64Size ? ZIP64_MAGIC : record.size);
+        position = putShort(this.header, position, record.name.length);
+        position = putShort(this.header, position, zip64 ? (extraLength + 4) : 0);
+        position = putShort(this.header, position, 0); // comment length
+        position = putShort(this.header, position, 0); // disk number start
+        position = putShort(this.header, position, 0); // internal file attributes
+        position = putInt(this.header, position, 0); // external file attributes
+        position = putInt(this.header, position, zip64Offset ? ZIP64_MAGIC : record.localHeaderOffset);
+        writeOut(this.header, 0, position);
+        writeOut(record.name, 0, record.name.length);
+        if (zip64) {
+            position = putShort(this.header, 0, ZIP64_EXTRA_FIELD_ID);
+            position = putShort(this.header, position, extraLength);
+            if (zip64Size) {
+                position = putLong(this.header, position, record.size);
+            }
+            if (zip64CompressedSize) {
+                position = putLong(this.header, position, record.compressedSize);
+            }
+            if (zip64Offset) {
+                position = putLong(this.header, position, record.localHeaderOffset);
+            }
+            writeOut(this.header, 0, position);
+        }
+    }
+
+    private void writeEndOfCentralDirectory(final long offset, final long size) throws IOException {
+        final int count = this.entries.size();
+        final boolean zip64 = (count >= ZIP64_MAGIC_COUNT) || (offset >= ZIP64_MAGIC) || (size >= ZIP64_MAGIC);
+        if (zip64) {
+            final long zip64Offset = this.written;
+            int position = putInt(this.header, 0, ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            position = putLong(this.header, position, 44); // size of the remainder of this record
+            position = putShort(this.header, position, VERSION_ZIP64);
+            position = putShort(this.header, position, VERSION_ZIP64);
+            position = putInt(this.header, position, 0); // number of this disk
+            position = putInt(this.header, position, 0); // disk with the central directory
+            position = putLong(this.header, position, count);
+            position = putLong(this.header, position, count);
+            position = putLong(this.header, position, size);
+            position = putLong(this.header, position, offset);
+            writeOut(this.header, 0, position);
+
+            position = putInt(this.header, 0, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            position = putInt(this.header, position, 0); // disk with the zip64 end of central directory
+            position = putLong(this.header, position, zip64Offset);
+            position = putInt(this.header, position, 1); // total number of disks
+            writeOut(this.header, 0, position);
+        }
+        int position = putInt(this.header, 0, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        position = putShort(this.header, position, 0); // number of this disk
+        position = putShort(this.header, position, 0); // disk with the central directory
+        position = putShort(this.header, position, Math.min(count, ZIP64_MAGIC_COUNT));
+        position = putShort(this.header, position, Math.min(count, ZIP64_MAGIC_COUNT));
+        position = putInt(this.header, position, Math.min(size, ZIP64_MAGIC));
+        position = putInt(this.header, position, Math.min(offset, ZIP64_MAGIC));
+        position = putShort(this.header, position, 0); // comment length
+        writeOut(this.header, 0, position);
+    }
+
+    private void writeOut(final byte[] data, final int offset, final int length) throws IOException {
+        this.out.write(data, offset, length);
+        this.written += length;
+    }
+
+    private static int putShort(final byte[] buffer, final int position, final int value) {
+        buffer[position] = (byte) value;
+        buffer[position + 1] = (byte) (value >>> 8);
+        return position + 2;
+    }
+
+    private static int putInt(final byte[] buffer, final int position, final long value) {
+        buffer[position] = (byte) value;
+        buffer[position + 1] = (byte) (value >>> 8);
+        buffer[position + 2] = (byte) (value >>> 16);
+        buffer[position + 3] = (byte) (value >>> 24);
+        return position + 4;
+    }
+
+    private static int putLong(final byte[] buffer, final int position, final long value) {
+        putInt(buffer, position, value);
+        return putInt(buffer, position + 4, value >>> 32);
+    }
+}
@@ -0,0 +1,146 @@
+package nl.siegmann.epublib.domain;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ResourceDataCacheTest extends TestCase {
+
+    private static class TestResourceProvider implements LazyResourceProvider {
+        final Map<String, Integer> loadCounts = new HashMap<String, Integer>();
+
+        @Override
+        public InputStream getResourceStream(final String href) {
+            final Integer loadCount = this.loadCounts.get(href);
+            this.loadCounts.put(href, (loadCount == null) ? 1 : (loadCount + 1));
+            return new ByteArrayInputStream(new byte[100]);
+        }
+
+        @Override
+        public ByteBuffer getResourceBuffer(final String href) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public void testEviction() throws IOException {
+        final TestResourceProvider resourceProvider = new TestResourceProvider();
+        final ResourceDataCache cache = new ResourceDataCache(250);
+        final Resource resource1 = new Resource(resourceProvider, 100, "chapter1.html");
+        final Resource resource2 = new Resource(resourceProvider, 100, "chapter2.html");
+        final Resource resource3 = new Resource(resourceProvider, 100, "chapter3.html");
+        resource1.setDataCache(cache);
+        resource2.setDataCache(cache);
+        resource3.setDataCache(cache);
+
+        assertEquals(100, resource1.getData().length);
+        assertEquals(100, resource2.getData().length);
+        assertEquals(100, resource1.getData().length);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(200, cache.getSize());
+
+        // resource2 is the least recently used
+        resource3.getData();
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(200, cache.getSize());
+        assertTrue(resource1.isInitialized());
+        assertFalse(resource2.isInitialized());
+
+        // evicted data is loaded again
+        assertEquals(100, resource2.getData().length);
+        assertEquals(2, resourceProvider.loadCounts.get("chapter2.html").intValue());
+        assertEquals(1, resourceProvider.loadCounts.get("chapter1.html").intValue());
+        assertFalse(resource1.isInitialized());
+    }
+
+    public void testAccessWithoutLock() throws Exception {
+        final ResourceDataCache cache = new ResourceDataCache(250);
+        final Resource resource = new Resource(new TestResourceProvider(), 100, "chapter1.html");
+        resource.setDataCache(cache);
+        resource.getData();
+        final AtomicReference<byte[]> result = new AtomicReference<byte[]>();
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(resource.getData());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        synchronized (cache) {
+            reader.start();
+            reader.join(10000);
+            assertNotNull(result.get());
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testManyAccessesBetweenLoads() throws IOException {
+        final TestResourceProvider resourceProvider = new TestResourceProvider();
+        final ResourceDataCache cache = new ResourceDataCache(250);
+        final Resource resource1 = new Resource(resourceProvider, 100, "chapter1.html");
+        final Resource resource2 = new Resource(resourceProvider, 100, "chapter2.html");
+        final Resource resource3 = new Resource(resourceProvider, 100, "chapter3.html");
+        resource1.setDataCache(cache);
+        resource2.setDataCache(cache);
+        resource3.setDataCache(cache);
+        resource1.getData();
+        resource2.getData();
+        for (int i = 0; i < 1000; i++) {
+            resource2.getData();
+            resource1.getData();
+        }
+        assertEquals(2000, cache.getHitCount());
+
+        // resource2 is the least recently used
+        resource3.getData();
+        assertTrue(resource1.isInitialized());
+        assertFalse(resource2.isInitialized());
+    }
+
+    public void testChangedDataIsNotEvicted() throws IOException {
+        final ResourceDataCache cache = new ResourceDataCache(150);
+        final Resource resource1 = new Resource(new TestResourceProvider(), 100, "chapter1.html");
+        final Resource resource2 = new Resource(new TestResourceProvider(), 100, "chapter2.html");
+        resource1.setDataCache(cache);
+        resource2.setDataCache(cache);
+        resource1.getData();
+        resource1.setData(new byte[10]);
+        assertEquals(0, cache.getSize());
+        resource2.getData();
+        assertEquals(10, resource1.getData().length);
+        resource2.close();
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    public void testOnlyEvictedDataIsReleased() throws IOException {
+        final Resource resource = new Resource(new TestResourceProvider(), 100, "chapter1.html");
+        final byte[] data = resource.getData();
+        resource.releaseData(new byte[100]);
+        assertSame(data, resource.getData());
+        resource.releaseData(data);
+        assertFalse(resource.isInitialized());
+    }
+
+    public void testNotLazy() throws IOException {
+        final ResourceDataCache cache = new ResourceDataCache(0);
+        final Resource resource = new Resource(new byte[100], "chapter1.html");
+        resource.setDataCache(cache);
+        assertNull(resource.getDataCache());
+        assertEquals(100, resource.getData().length);
+        assertEquals(0, cache.getMissCount());
+    }
+}
@@ -0,0 +1,110 @@
+package nl.siegmann.epublib.domain;
+
+import nl.siegmann.epublib.util.IOUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the heap allocated by loading the data of a lazy resource.
+ *
+ * Loads a deflated entry of an epub again and again and reports the bytes allocated per load, compared to the
+ * size of the entry, both for Resource.getData and for copying the entry through a ByteArrayOutputStream.
+ * A ratio close to 1.0 means the data is read into a single array of exactly the right size.
+ *
+ * Needs a vm that supports com.sun.management.ThreadMXBean.
+ *
+ * Usage: ResourceLoadBenchmark [entry size in bytes] [number of loads]
+ *
+ * @author paul
+ *
+ */
+public class ResourceLoadBenchmark {
+
+    private static final String HREF = "OEBPS/chapter1.html";
+
+    public static void main(final String[] args) throws Exception {
+        final int entrySize = (args.length > 0) ? Integer.parseInt(args[0]) : (4 * 1024 * 1024);
+        final int loadCount = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final File epubFile = createEpub(entrySize);
+        try {
+            final ZipFile zipFile = new ZipFile(epubFile);
+            final ZipEntry zipEntry = zipFile.getEntry(HREF);
+            final Resource resource = new Resource(epubFile.getAbsolutePath(), zipEntry.getSize(), HREF);
+
+            // warm up
+            for (int i = 0; i < loadCount; i++) {
+                resource.close();
+                resource.getData();
+                copyEntry(zipFile, zipEntry);
+            }
+
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            final long start = System.nanoTime();
+            for (int i = 0; i < loadCount; i++) {
+                resource.close();
+                resource.getData();
+            }
+            final long loadTime = System.nanoTime() - start;
+            final long loadAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+            before = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < loadCount; i++) {
+                copyEntry(zipFile, zipEntry);
+            }
+            final long copyAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+            zipFile.close();
+
+            System.out.println("entry size:                    " + entrySize + " bytes");
+            System.out.println("Resource.getData:              " + (loadAllocated / loadCount) + " bytes/load, "
+                               + ratio(loadAllocated, loadCount, entrySize) + "x entry size, "
+                               + (loadTime / loadCount / 1000) + " us/load");
+            System.out.println("copy via ByteArrayOutputStream: " + (copyAllocated / loadCount) + " bytes/load, "
+                               + ratio(copyAllocated, loadCount, entrySize) + "x entry size");
+        } finally {
+            epubFile.delete();
+        }
+    }
+
+    private static String ratio(final long allocated, final int loadCount, final int entrySize) {
+        return String.format("%.2f", (double) allocated / loadCount / entrySize);
+    }
+
+    private static byte[] copyEntry(final ZipFile zipFile, final ZipEntry zipEntry) throws IOException {
+        final InputStream in = zipFile.getInputStream(zipEntry);
+        try {
+            return IOUtil.toByteArray(in, (int) zipEntry.getSize());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File createEpub(final int entrySize) throws IOException {
+        final File result = File.createTempFile("benchmark", ".epub");
+        final byte[] data = new byte[entrySize];
+        final Random random = new Random(0);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(26));
+        }
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(result));
+        try {
+            out.putNextEntry(new ZipEntry(HREF));
+            out.write(data);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return result;
+    }
+}
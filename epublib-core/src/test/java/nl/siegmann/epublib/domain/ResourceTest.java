@@ -0,0 +1,161 @@
+package nl.siegmann.epublib.domain;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResourceTest extends TestCase {
+
+    /**
+     * Serves resources whose streams block until the provider is released.
+     */
+    private static class BlockingResourceProvider implements LazyResourceProvider {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch released = new CountDownLatch(1);
+        volatile boolean failing = false;
+
+        @Override
+        public InputStream getResourceStream(final String href) throws IOException {
+            this.loadCount.incrementAndGet();
+            try {
+                this.released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e.getMessage());
+            }
+            if (this.failing) {
+                throw new IOException("Unable to read " + href);
+            }
+            return new ByteArrayInputStream(new byte[1000]);
+        }
+
+        @Override
+        public ByteBuffer getResourceBuffer(final String href) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<Future<byte[]>> getDataConcurrently(final Resource resource, final ExecutorService executor,
+                                                            final int threadCount) {
+        final List<Future<byte[]>> result = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < threadCount; i++) {
+            result.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return resource.getData();
+                }
+            }));
+        }
+        return result;
+    }
+
+    public void testConcurrentLazyLoad() throws Exception {
+        final BlockingResourceProvider resourceProvider = new BlockingResourceProvider();
+        final Resource resource = new Resource(resourceProvider, 1000, "chapter1.html");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<byte[]>> results = getDataConcurrently(resource, executor, 8);
+            Thread.sleep(50);
+            resourceProvider.released.countDown();
+            final byte[] data = results.get(0).get();
+            assertEquals(1000, data.length);
+            for (final Future<byte[]> result : results) {
+                assertSame(data, result.get());
+            }
+            assertEquals(1, resourceProvider.loadCount.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testConcurrentLazyLoadFailure() throws Exception {
+        final BlockingResourceProvider resourceProvider = new BlockingResourceProvider();
+        resourceProvider.failing = true;
+        final Resource resource = new Resource(resourceProvider, 1000, "chapter1.html");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<byte[]>> results = getDataConcurrently(resource, executor, 4);
+            Thread.sleep(50);
+            resourceProvider.released.countDown();
+            for (final Future<byte[]> result : results) {
+                try {
+                    result.get();
+                    fail("expected the load to fail");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // a failed load is tried again
+        resourceProvider.failing = false;
+        assertEquals(1000, resource.getData().length);
+        assertTrue(resource.isInitialized());
+    }
+
+    public void testSetDataDuringLazyLoad() throws Exception {
+        final BlockingResourceProvider resourceProvider = new BlockingResourceProvider();
+        final Resource resource = new Resource(resourceProvider, 1000, "chapter1.html");
+        final ResourceDataCache cache = new ResourceDataCache(10000);
+        resource.setDataCache(cache);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<byte[]>> results = getDataConcurrently(resource, executor, 2);
+            while (resourceProvider.loadCount.get() == 0) {
+                Thread.sleep(1);
+            }
+            final byte[] edited = new byte[10];
+            resource.setData(edited);
+            resourceProvider.released.countDown();
+            for (final Future<byte[]> result : results) {
+                assertSame(edited, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(10, resource.getData().length);
+        assertTrue(resource.isModified());
+        assertEquals(1, resourceProvider.loadCount.get());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testCloseKeepsSetData() throws IOException {
+        final Resource resource = new Resource(new LazyResourceProvider() {
+            @Override
+            public InputStream getResourceStream(final String href) {
+                return new ByteArrayInputStream(new byte[1000]);
+            }
+
+            @Override
+            public ByteBuffer getResourceBuffer(final String href) {
+                return null;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 1000, "chapter1.html");
+        final byte[] edited = new byte[10];
+        resource.setData(edited);
+        resource.close();
+        assertSame(edited, resource.getData());
+        assertEquals(10, resource.getInputStream().available());
+    }
+}
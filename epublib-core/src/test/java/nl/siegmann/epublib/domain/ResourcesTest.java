@@ -3,6 +3,15 @@ package nl.siegmann.epublib.domain;
 import junit.framework.TestCase;
 import nl.siegmann.epublib.service.MediatypeService;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 public class ResourcesTest extends TestCase {
 
     public void testGetResourcesByMediaType1() {
@@ -27,4 +36,133 @@ public class ResourcesTest extends TestCase {
         assertEquals(3, resources.getResourcesByMediaTypes(new MediaType[]{MediatypeService.CSS, MediatypeService.XHTML,
                                                                            MediatypeService.PNG}).size());
     }
+
+    public void testUniqueIds() {
+        final Resources resources = new Resources();
+        final Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            final Resource resource = resources.add(new Resource(new byte[0], MediatypeService.PNG));
+            assertTrue(ids.add(resource.getId()));
+            assertSame(resource, resources.getByIdOrHref(resource.getId()));
+        }
+        assertEquals(1000, resources.size());
+    }
+
+    public void testIdIndex() {
+        final Resources resources = new Resources();
+        final Resource chapter = resources.add(new Resource("chapter1", "foo".getBytes(), "chapter1.html",
+                                                            MediatypeService.XHTML));
+        final Resource duplicate = resources.add(new Resource("chapter1", "bar".getBytes(), "chapter2.html",
+                                                              MediatypeService.XHTML));
+        assertFalse("chapter1".equals(duplicate.getId()));
+        assertSame(chapter, resources.getById("chapter1"));
+
+        chapter.setId("intro");
+        assertNull(resources.getById("chapter1"));
+        assertSame(chapter, resources.getById("intro"));
+
+        resources.remove("chapter1.html");
+        assertFalse(resources.containsId("intro"));
+        assertTrue(resources.containsId(duplicate.getId()));
+    }
+
+    public void testDuplicateIdsFromSet() {
+        final Resource chapter1 = new Resource("chapter", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML);
+        final Resource chapter2 = new Resource("chapter", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML);
+        final Map<String, Resource> resourceMap = new LinkedHashMap<String, Resource>();
+        resourceMap.put(chapter1.getHref(), chapter1);
+        resourceMap.put(chapter2.getHref(), chapter2);
+        final Resources resources = new Resources();
+        resources.set(resourceMap);
+        assertSame(chapter1, resources.getById("chapter"));
+
+        resources.remove("chapter1.html");
+        assertSame(chapter2, resources.getById("chapter"));
+
+        chapter2.setId("intro");
+        assertNull(resources.getById("chapter"));
+        assertSame(chapter2, resources.getById("intro"));
+    }
+
+    public void testFixIdOfNonMember() {
+        final Resources resources = new Resources();
+        final Resource outsider = new Resource("cover", "foo".getBytes(), "cover.html", MediatypeService.XHTML);
+        resources.fixResourceId(outsider);
+        assertEquals("cover", outsider.getId());
+        assertNull(resources.getById("cover"));
+
+        final Resource cover = resources.add(new Resource("cover", "bar".getBytes(), "cover2.html",
+                                                          MediatypeService.XHTML));
+        assertEquals("cover", cover.getId());
+        assertSame(cover, resources.getById("cover"));
+    }
+
+    public void testParallelAdd() throws Exception {
+        final Resources resources = new Resources();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        final String href = "images/" + thread + "_" + j + ".png";
+                        resources.add(new Resource(new byte[0], href));
+                        assertNotNull(resources.getByHref(href));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2000, resources.size());
+        final Set<String> ids = new HashSet<String>();
+        for (final Resource resource : resources.getAll()) {
+            assertTrue(ids.add(resource.getId()));
+            assertSame(resource, resources.getById(resource.getId()));
+        }
+    }
+
+    public void testMediaTypeIndex() {
+        final Resources resources = new Resources();
+        final Resource chapter = resources.add(new Resource("foo".getBytes(), "chapter1.html"));
+        final Resource image = resources.add(new Resource("bar".getBytes(), "cover.png"));
+        assertSame(chapter, resources.findFirstResourceByMediaType(MediatypeService.XHTML));
+
+        chapter.setMediaType(MediatypeService.CSS);
+        assertNull(resources.findFirstResourceByMediaType(MediatypeService.XHTML));
+        assertSame(chapter, resources.findFirstResourceByMediaType(MediatypeService.CSS));
+
+        resources.remove("cover.png");
+        assertEquals(0, resources.getResourcesByMediaType(MediatypeService.PNG).size());
+        image.setMediaType(MediatypeService.JPG);
+        assertEquals(0, resources.getResourcesByMediaType(MediatypeService.JPG).size());
+
+        resources.add(new Resource("baz".getBytes(), "chapter1.html"));
+        assertEquals(0, resources.getResourcesByMediaType(MediatypeService.CSS).size());
+        assertEquals(1, resources.getResourcesByMediaType(MediatypeService.XHTML).size());
+    }
+
+    public void testSerialization() throws Exception {
+        final Resources resources = new Resources();
+        final Resource resource = resources.add(new Resource("foo".getBytes(), MediatypeService.XHTML));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(resources);
+        out.close();
+
+        final Resources copy = (Resources) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+                .readObject();
+
+        final Resource resourceCopy = copy.getById(resource.getId());
+        assertEquals(resource.getHref(), resourceCopy.getHref());
+        assertSame(resourceCopy, copy.getByHref(resource.getHref()));
+        assertEquals(1, copy.getResourcesByMediaType(MediatypeService.XHTML).size());
+        final Resource added = copy.add(new Resource("bar".getBytes(), MediatypeService.XHTML));
+        assertFalse(resource.getId().equals(added.getId()));
+        assertEquals(2, copy.getResourcesByMediaType(MediatypeService.XHTML).size());
+    }
 }
@@ -0,0 +1,179 @@
+package nl.siegmann.epublib.epub;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.IOUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BookProcessorPipelineTest extends TestCase {
+
+    /**
+     * Appends its name to the title of every resource.
+     */
+    private static class AppendingProcessor implements ResourceBookProcessor {
+
+        private final String name;
+
+        AppendingProcessor(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void processResource(final Resource resource, final Book book) {
+            resource.setTitle(resource.getTitle() + this.name);
+        }
+
+        @Override
+        public Book processBook(final Book book) {
+            for (final Resource resource : book.getResources().getAll()) {
+                processResource(resource, book);
+            }
+            return book;
+        }
+    }
+
+    /**
+     * Replaces a piece of text in html resources.
+     */
+    private static class ReplacingProcessor implements HtmlTextBookProcessor {
+
+        private final String target;
+        private final String replacement;
+
+        ReplacingProcessor(final String target, final String replacement) {
+            this.target = target;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public String processHtmlText(final String html, final Resource resource, final Book book) {
+            return html.replace(this.target, this.replacement);
+        }
+
+        @Override
+        public void processResource(final Resource resource, final Book book) throws IOException {
+            resource.setData(processHtmlText(IOUtil.toString(resource.getReader()), resource, book).getBytes("UTF-8"));
+        }
+
+        @Override
+        public Book processBook(final Book book) throws IOException {
+            for (final Resource resource : book.getResources().getAll()) {
+                processResource(resource, book);
+            }
+            return book;
+        }
+    }
+
+    public void testFusedHtmlProcessing() throws IOException {
+        final List<String> dataSeenInBetween = new ArrayList<String>();
+        final ResourceBookProcessor inBetween = new AppendingProcessor("") {
+
+            @Override
+            public void processResource(final Resource resource, final Book book) {
+                try {
+                    dataSeenInBetween.add(IOUtil.toString(resource.getReader()));
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        final BookProcessorPipeline pipeline = new BookProcessorPipeline(Arrays.<BookProcessor>asList(
+                new ReplacingProcessor("<html>", "<html><body>"), new ReplacingProcessor("</html>", "</body></html>"),
+                inBetween, new ReplacingProcessor("body", "div")));
+        final Book book = pipeline.processBook(createBook());
+
+        assertEquals(100, dataSeenInBetween.size());
+        assertTrue(dataSeenInBetween.contains("<html><body>0</body></html>"));
+        assertEquals("<html><div>7</div></html>",
+                     IOUtil.toString(book.getResources().getByHref("chapter7.html").getReader()));
+    }
+
+    public void testParallelProcessing() throws IOException {
+        final List<String> titlesSeenByBarrier = Collections.synchronizedList(new ArrayList<String>());
+        final BookProcessor barrier = new BookProcessor() {
+
+            @Override
+            public Book processBook(final Book book) {
+                for (final Resource resource : book.getResources().getAll()) {
+                    titlesSeenByBarrier.add(resource.getTitle());
+                }
+                return book;
+            }
+        };
+        final BookProcessorPipeline pipeline = new BookProcessorPipeline(Arrays.<BookProcessor>asList(
+                new AppendingProcessor("a"), new AppendingProcessor("b"), barrier, new AppendingProcessor("c")));
+
+        final Book sequentialBook = createBook();
+        pipeline.processBook(sequentialBook);
+        final List<String> sequentialTitles = new ArrayList<String>(titlesSeenByBarrier);
+        titlesSeenByBarrier.clear();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        pipeline.setExecutor(executor);
+        final Book parallelBook;
+        try {
+            parallelBook = pipeline.processBook(createBook());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(sequentialTitles, titlesSeenByBarrier);
+        for (final Resource resource : parallelBook.getResources().getAll()) {
+            assertEquals("abc", resource.getTitle().substring(resource.getTitle().length() - 3));
+            assertEquals(sequentialBook.getResources().getByHref(resource.getHref()).getTitle(), resource.getTitle());
+        }
+    }
+
+    public void testParallelProcessingFailure() throws Exception {
+        final AtomicInteger processedCount = new AtomicInteger();
+        final ResourceBookProcessor failing = new AppendingProcessor("") {
+
+            @Override
+            public void processResource(final Resource resource, final Book book) {
+                if ("chapter0.html".equals(resource.getHref())) {
+                    throw new IllegalStateException("Unable to process " + resource.getHref());
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processedCount.incrementAndGet();
+            }
+        };
+        final BookProcessorPipeline pipeline = new BookProcessorPipeline(Arrays.<BookProcessor>asList(failing));
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        pipeline.setExecutor(executor);
+        try {
+            pipeline.processBook(createBook());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            executor.shutdown();
+        }
+        // no resource is processed after the exception
+        final int processedCountAtFailure = processedCount.get();
+        Thread.sleep(50);
+        assertEquals(processedCountAtFailure, processedCount.get());
+    }
+
+    private Book createBook() {
+        final Book result = new Book();
+        for (int i = 0; i < 100; i++) {
+            final Resource resource = new Resource(("<html>" + i + "</html>").getBytes(), "chapter" + i + ".html");
+            resource.setTitle("chapter" + i);
+            result.addResource(resource);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+package nl.siegmann.epublib.epub;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.epub.CompressionPolicy.Compression;
+import nl.siegmann.epublib.service.MediatypeService;
+
+import java.util.Random;
+
+public class CompressionPolicyTest extends TestCase {
+
+    public void testFastPolicy() {
+        final CompressionPolicy policy = CompressionPolicy.createFastPolicy();
+        assertEquals(Compression.STORED, policy.getCompression(MediatypeService.JPG));
+        assertEquals(Compression.STORED, policy.getCompression(MediatypeService.MP3));
+        assertEquals(Compression.FAST, policy.getCompression(MediatypeService.XHTML));
+        assertEquals(Compression.FAST, policy.getCompression(null));
+        assertFalse(policy.isAdaptive());
+    }
+
+    public void testAdaptive() {
+        final CompressionPolicy policy = CompressionPolicy.createSmallPolicy();
+        assertTrue(policy.isAdaptive());
+        assertEquals(Compression.MAXIMUM, policy.getCompression(MediatypeService.PNG));
+
+        final byte[] randomData = new byte[CompressionPolicy.TRIAL_BLOCK_SIZE];
+        new Random(42).nextBytes(randomData);
+        assertFalse(policy.isWorthDeflating(randomData, randomData.length, Compression.MAXIMUM));
+
+        final byte[] text = new byte[CompressionPolicy.TRIAL_BLOCK_SIZE];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ("<p>hello world</p>".charAt(i % 18));
+        }
+        assertTrue(policy.isWorthDeflating(text, text.length, Compression.MAXIMUM));
+
+        assertTrue(CompressionPolicy.createDefaultPolicy()
+                           .isWorthDeflating(randomData, randomData.length, Compression.DEFAULT));
+    }
+}
@@ -0,0 +1,59 @@
+package nl.siegmann.epublib.epub;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.io.StringReader;
+
+public class EpubProcessorSupportTest extends TestCase {
+
+    public void testDocumentBuilderIsReusedPerThread() throws Exception {
+        final DocumentBuilder documentBuilder = EpubProcessorSupport.createDocumentBuilder();
+        final Document document1 = documentBuilder.parse(new InputSource(new StringReader("<foo/>")));
+        assertSame(documentBuilder, EpubProcessorSupport.createDocumentBuilder());
+        final Document document2 = EpubProcessorSupport.createDocumentBuilder()
+                .parse(new InputSource(new StringReader("<bar xmlns=\"urn:bar\"/>")));
+        assertEquals("foo", document1.getDocumentElement().getLocalName());
+        assertEquals("urn:bar", document2.getDocumentElement().getNamespaceURI());
+
+        final DocumentBuilder[] otherThreadBuilder = new DocumentBuilder[1];
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                otherThreadBuilder[0] = EpubProcessorSupport.createDocumentBuilder();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotNull(otherThreadBuilder[0]);
+        assertNotSame(documentBuilder, otherThreadBuilder[0]);
+        assertNotSame(documentBuilder, EpubProcessorSupport.createDocumentBuilder(false));
+    }
+
+    public void testXmlSerializerPerDocument() throws Exception {
+        assertNotSame(EpubProcessorSupport.createXmlSerializer(System.out),
+                      EpubProcessorSupport.createXmlSerializer(System.out));
+        assertNotNull(EpubProcessorSupport.createXmlPullParser());
+    }
+
+    public void testCachedEntities() throws Exception {
+        final String xhtml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                             + "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" "
+                             + "\"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">\n"
+                             + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>a&nbsp;b</p></body></html>";
+        for (int i = 0; i < 2; i++) {
+            final Document document = EpubProcessorSupport.createDocumentBuilder()
+                    .parse(new InputSource(new StringReader(xhtml)));
+            assertEquals("a\u00a0b", document.getElementsByTagName("p").item(0).getTextContent());
+        }
+        final byte[] dtd = EpubProcessorSupport.EntityResolverImpl
+                .getCachedResource("dtd/www.w3.org/TR/xhtml11/DTD/xhtml11.dtd");
+        assertNotNull(dtd);
+        assertSame(dtd, EpubProcessorSupport.EntityResolverImpl
+                .getCachedResource("dtd/www.w3.org/TR/xhtml11/DTD/xhtml11.dtd"));
+        assertNull(EpubProcessorSupport.EntityResolverImpl.getCachedResource("dtd/does/not/exist.dtd"));
+    }
+}
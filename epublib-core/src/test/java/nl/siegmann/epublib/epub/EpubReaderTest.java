@@ -5,8 +5,23 @@ import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.Resource;
 import nl.siegmann.epublib.service.MediatypeService;
 
+import nl.siegmann.epublib.util.IOUtil;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 public class EpubReaderTest extends TestCase {
 
@@ -87,4 +102,151 @@ public class EpubReaderTest extends TestCase {
             assertTrue(false);
         }
     }
+
+    public void testReadEpubLazy_shared_zipfile() throws IOException {
+        final Book book = new Book();
+        book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+        book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"),
+                                                     "chapter1.html"));
+        book.generateSpineFromTableOfContents();
+        final File epubFile = writeToTempFile(book);
+        try {
+            final Book readBook = new EpubReader().readEpubLazy(new ZipFile(epubFile), "UTF-8");
+            assertEquals(1, readBook.getSpine().size());
+            assertEquals(1, readBook.getTableOfContents().size());
+            final Resource chapter = readBook.getResources().getByHref("chapter1.html");
+            assertNotNull(chapter);
+            assertTrue(IOUtil.toByteArray(chapter.getInputStream()).length > 0);
+
+            // a stream that is still open keeps the zipfile available after the book has been closed
+            final InputStream coverStream = readBook.getCoverImage().getInputStream();
+            readBook.close();
+            assertTrue(IOUtil.toByteArray(coverStream).length > 0);
+            coverStream.close();
+
+            try {
+                readBook.getResources().getByHref("chapter1.html").getInputStream();
+                fail("Closed book should not serve lazy resources");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            epubFile.delete();
+        }
+    }
+
+    public void testReadEpubLazyMapped() throws IOException {
+        final Book book = new Book();
+        book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+        book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"),
+                                                     "chapter1.html"));
+        book.generateSpineFromTableOfContents();
+        final File epubFile = writeToTempFile(book);
+        final File storedEpubFile = storeEntry(epubFile, "OEBPS/cover.png");
+        try {
+            final Book readBook = new EpubReader().readEpubLazyMapped(storedEpubFile.getAbsolutePath(), "UTF-8");
+            assertEquals(1, readBook.getSpine().size());
+            assertEquals(1, readBook.getTableOfContents().size());
+
+            // deflated entries are inflated from the mapping
+            final Resource chapter = readBook.getResources().getByHref("chapter1.html");
+            final byte[] chapterData = IOUtil.toByteArray(chapter.getInputStream());
+            assertTrue(Arrays.equals(IOUtil.toByteArray(book.getResources().getByHref("chapter1.html").getInputStream()), chapterData));
+            assertEquals(chapterData.length, chapter.getByteBuffer().remaining());
+
+            // stored entries are served as a slice of the mapping
+            final Resource cover = readBook.getCoverImage();
+            final ByteBuffer coverBuffer = cover.getByteBuffer();
+            assertTrue(coverBuffer.isReadOnly());
+            assertTrue(coverBuffer.isDirect());
+            final byte[] coverData = new byte[coverBuffer.remaining()];
+            coverBuffer.get(coverData);
+            assertTrue(Arrays.equals(IOUtil.toByteArray(book.getCoverImage().getInputStream()), coverData));
+            assertTrue(Arrays.equals(coverData, IOUtil.toByteArray(cover.getInputStream())));
+            readBook.close();
+        } finally {
+            epubFile.delete();
+            storedEpubFile.delete();
+        }
+    }
+
+    public void testReadEpubMetadata() throws IOException {
+        final Book book = new Book();
+        book.getMetadata().addTitle("Three Men in a Boat");
+        book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+        book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"),
+                                                     "chapter1.html"));
+        book.addSection("Second chapter", new Resource(this.getClass().getResourceAsStream("/book1/chapter2.html"),
+                                                       "chapter2.html"));
+        book.generateSpineFromTableOfContents();
+        final File epubFile = writeToTempFile(book);
+        try {
+            final Set<String> readHrefs = new HashSet<String>();
+            final ZipFileResourceProvider resourceProvider = new ZipFileResourceProvider(new ZipFile(epubFile)) {
+                @Override
+                protected InputStream openEntry(final String href) throws IOException {
+                    readHrefs.add(href);
+                    return super.openEntry(href);
+                }
+            };
+            final Book readBook = new EpubReader().readEpubMetadata(resourceProvider, "UTF-8");
+            assertEquals(new HashSet<String>(Arrays.asList("META-INF/container.xml", "OEBPS/content.opf")),
+                         readHrefs);
+            assertEquals("Three Men in a Boat", readBook.getTitle());
+            assertEquals(2, readBook.getSpine().size());
+            assertEquals("cover.png", readBook.getCoverImage().getHref());
+            assertEquals(0, readBook.getTableOfContents().size());
+
+            // the other resources are loaded on first access
+            final Resource chapter = readBook.getSpine().getResource(1);
+            assertEquals("chapter2.html", chapter.getHref());
+            assertTrue(Arrays.equals(IOUtil.toByteArray(book.getResources().getByHref("chapter2.html").getInputStream()),
+                                     IOUtil.toByteArray(chapter.getInputStream())));
+            assertTrue(readHrefs.contains("OEBPS/chapter2.html"));
+            readBook.close();
+        } finally {
+            epubFile.delete();
+        }
+    }
+
+    /**
+     * Copies the epub, storing the entry with the given name uncompressed.
+     */
+    private File storeEntry(final File epubFile, final String entryName) throws IOException {
+        final File result = File.createTempFile("epublib-test", ".epub");
+        final ZipFile in = new ZipFile(epubFile);
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(result));
+        try {
+            for (final ZipEntry entry : Collections.list(in.entries())) {
+                final byte[] data = IOUtil.toByteArray(in.getInputStream(entry));
+                final ZipEntry outEntry = new ZipEntry(entry.getName());
+                if (entry.getMethod() == ZipEntry.STORED || entry.getName().equals(entryName)) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(data);
+                    outEntry.setMethod(ZipEntry.STORED);
+                    outEntry.setSize(data.length);
+                    outEntry.setCompressedSize(data.length);
+                    outEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(outEntry);
+                out.write(data);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+        return result;
+    }
+
+    private File writeToTempFile(final Book book) throws IOException {
+        final File result = File.createTempFile("epublib-test", ".epub");
+        final FileOutputStream out = new FileOutputStream(result);
+        try {
+            new EpubWriter().write(book, out);
+        } finally {
+            out.close();
+        }
+        return result;
+    }
 }
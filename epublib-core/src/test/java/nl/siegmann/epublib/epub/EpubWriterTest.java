@@ -8,12 +8,25 @@ import nl.siegmann.epublib.domain.Identifier;
 import nl.siegmann.epublib.domain.Resource;
 import nl.siegmann.epublib.domain.TOCReference;
 import nl.siegmann.epublib.util.CollectionUtil;
+import nl.siegmann.epublib.util.IOUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class EpubWriterTest extends TestCase {
 
@@ -77,6 +90,216 @@ public class EpubWriterTest extends TestCase {
         }
     }
 
+    public void testWriteStreaming() throws IOException {
+        final File epubFile = File.createTempFile("epublib-test", ".epub");
+        try {
+            final FileOutputStream fileOut = new FileOutputStream(epubFile);
+            new EpubWriter().write(createTestBook(), fileOut);
+            fileOut.close();
+
+            final Book lazyBook = new EpubReader().readEpubLazy(new ZipFile(epubFile), "UTF-8");
+            final EpubWriter epubWriter = new EpubWriter();
+            epubWriter.setStreaming(true);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            epubWriter.write(lazyBook, out);
+            lazyBook.close();
+
+            final Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(lazyBook.getMetadata().getTitles(), readBook.getMetadata().getTitles());
+            assertEquals(5, readBook.getSpine().size());
+            assertEquals(4, readBook.getTableOfContents().size());
+            assertEquals("ncx", readBook.getSpine().getTocResource().getId());
+            assertNotNull(readBook.getCoverImage());
+            assertEquals(lazyBook.getResources().size(), readBook.getResources().size());
+
+            // a new book has no table of contents resource until the non-streaming writer adds one
+            final Book book = createTestBook();
+            epubWriter.write(book, new ByteArrayOutputStream());
+            assertNull(book.getSpine().getTocResource());
+        } finally {
+            epubFile.delete();
+        }
+    }
+
+    public void testWriteUnmodifiedResourcesWithoutRecompressing() throws IOException {
+        final File epubFile = File.createTempFile("epublib-test", ".epub");
+        try {
+            // an epub with all entries stored, so recompressed entries are easily told apart
+            final ZipOutputStream storedOut = new ZipOutputStream(new FileOutputStream(epubFile));
+            final ZipFile sourceZip = new ZipFile(writeTestBookToTempFile());
+            for (final ZipEntry entry : Collections.list(sourceZip.entries())) {
+                final byte[] data = IOUtil.toByteArray(sourceZip.getInputStream(entry));
+                final ZipEntry storedEntry = new ZipEntry(entry.getName());
+                final CRC32 crc = new CRC32();
+                crc.update(data);
+                storedEntry.setMethod(ZipEntry.STORED);
+                storedEntry.setSize(data.length);
+                storedEntry.setCrc(crc.getValue());
+                storedOut.putNextEntry(storedEntry);
+                storedOut.write(data);
+            }
+            storedOut.close();
+            sourceZip.close();
+            new File(sourceZip.getName()).delete();
+
+            final Book lazyBook = new EpubReader().readEpubLazy(new ZipFile(epubFile), "UTF-8");
+            final Resource chapter1 = lazyBook.getResources().getByHref("chapter1.html");
+            final byte[] chapter1Data = "<html><body><p>modified</p></body></html>".getBytes("UTF-8");
+            chapter1.setData(chapter1Data);
+            assertTrue(chapter1.isModified());
+            assertFalse(lazyBook.getResources().getByHref("chapter2.html").isModified());
+
+            final File resultFile = File.createTempFile("epublib-test", ".epub");
+            final FileOutputStream resultOut = new FileOutputStream(resultFile);
+            new EpubWriter().write(lazyBook, resultOut);
+            resultOut.close();
+
+            final ZipFile resultZip = new ZipFile(resultFile);
+            try {
+                final ZipEntry chapter1Entry = resultZip.getEntry("OEBPS/chapter1.html");
+                assertEquals(ZipEntry.DEFLATED, chapter1Entry.getMethod());
+                assertTrue(Arrays.equals(chapter1Data, IOUtil.toByteArray(resultZip.getInputStream(chapter1Entry))));
+
+                final ZipEntry chapter2Entry = resultZip.getEntry("OEBPS/chapter2.html");
+                assertEquals(ZipEntry.STORED, chapter2Entry.getMethod());
+                assertTrue(Arrays.equals(IOUtil.toByteArray(this.getClass().getResourceAsStream("/book1/chapter2.html")),
+                                         IOUtil.toByteArray(resultZip.getInputStream(chapter2Entry))));
+            } finally {
+                resultZip.close();
+                resultFile.delete();
+                lazyBook.close();
+            }
+        } finally {
+            epubFile.delete();
+        }
+    }
+
+    public void testWriteWithCompressionExecutor() throws IOException {
+        final byte[] sequentialData = writeBookToByteArray(createTestBook());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final EpubWriter epubWriter = new EpubWriter();
+        epubWriter.setCompressionExecutor(executor);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            epubWriter.write(createTestBook(), out);
+        } finally {
+            executor.shutdown();
+        }
+        final byte[] parallelData = out.toByteArray();
+
+        final List<String> sequentialEntries = readEntries(sequentialData);
+        final List<String> parallelEntries = readEntries(parallelData);
+        assertTrue(parallelEntries.get(0).startsWith("mimetype:"));
+        assertEquals(sequentialEntries, parallelEntries);
+
+        final ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(parallelData));
+        assertEquals(ZipEntry.STORED, zipIn.getNextEntry().getMethod());
+        zipIn.close();
+
+        final Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(parallelData));
+        assertEquals(5, readBook.getSpine().size());
+        assertEquals(4, readBook.getTableOfContents().size());
+        assertTrue(Arrays.equals(IOUtil.toByteArray(this.getClass().getResourceAsStream("/book1/flowers_320x240.jpg")),
+                                 IOUtil.toByteArray(readBook.getResources().getByHref("flowers.jpg").getInputStream())));
+    }
+
+    public void testWriteWithFastCompressionPolicy() throws IOException {
+        final EpubWriter epubWriter = new EpubWriter();
+        epubWriter.setCompressionPolicy(CompressionPolicy.createFastPolicy());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        epubWriter.write(createTestBook(), out);
+
+        final ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        int storedImages = 0;
+        for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+            if (entry.getName().endsWith(".png") || entry.getName().endsWith(".jpg")) {
+                assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+                storedImages++;
+            } else if (entry.getName().endsWith(".html")) {
+                assertEquals(entry.getName(), ZipEntry.DEFLATED, entry.getMethod());
+            }
+        }
+        zipIn.close();
+        assertEquals(2, storedImages);
+
+        final Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(4, readBook.getTableOfContents().size());
+        assertTrue(Arrays.equals(IOUtil.toByteArray(this.getClass().getResourceAsStream("/book1/flowers_320x240.jpg")),
+                                 IOUtil.toByteArray(readBook.getResources().getByHref("flowers.jpg").getInputStream())));
+    }
+
+    public void testWriteWithSmallCompressionPolicyInParallel() throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final EpubWriter epubWriter = new EpubWriter();
+        epubWriter.setCompressionPolicy(CompressionPolicy.createSmallPolicy());
+        epubWriter.setCompressionExecutor(executor);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            epubWriter.write(createTestBook(), out);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(readEntries(writeBookToByteArray(createTestBook())), readEntries(out.toByteArray()));
+    }
+
+    public void testWriteWithFailedBackgroundCompression() throws IOException {
+        final Book book = createTestBook();
+        final byte[] chapterData = "<html><body><p>Flaky chapter</p></body></html>".getBytes("UTF-8");
+        book.addResource(new Resource(chapterData, "flaky.html") {
+            private boolean failed = false;
+
+            @Override
+            public synchronized InputStream getInputStream() throws IOException {
+                if (!this.failed) {
+                    this.failed = true;
+                    throw new IOException("Unable to read flaky.html");
+                }
+                return super.getInputStream();
+            }
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final EpubWriter epubWriter = new EpubWriter();
+        epubWriter.setCompressionExecutor(executor);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            epubWriter.write(book, out);
+        } finally {
+            executor.shutdown();
+        }
+
+        final Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+        final Resource chapter = readBook.getResources().getByHref("flaky.html");
+        assertNotNull(chapter);
+        assertTrue(Arrays.equals(chapterData, IOUtil.toByteArray(chapter.getInputStream())));
+    }
+
+    /**
+     * The names and contents of all entries, in order.
+     */
+    private List<String> readEntries(final byte[] epubData) throws IOException {
+        final List<String> result = new ArrayList<String>();
+        final ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(epubData));
+        for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+            final CRC32 crc = new CRC32();
+            crc.update(IOUtil.toByteArray(zipIn));
+            result.add(entry.getName() + ":" + crc.getValue());
+        }
+        zipIn.close();
+        return result;
+    }
+
+    private File writeTestBookToTempFile() throws IOException {
+        final File result = File.createTempFile("epublib-test", ".epub");
+        final FileOutputStream out = new FileOutputStream(result);
+        try {
+            new EpubWriter().write(createTestBook(), out);
+        } finally {
+            out.close();
+        }
+        return result;
+    }
+
     private Book createTestBook() throws IOException {
         final Book book = new Book();
 
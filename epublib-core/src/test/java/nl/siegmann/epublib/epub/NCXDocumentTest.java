@@ -2,6 +2,7 @@ package nl.siegmann.epublib.epub;
 
 import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.IOUtil;
 import org.junit.Before;
@@ -10,6 +11,7 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -50,4 +52,42 @@ public class NCXDocumentTest {
         NCXDocument.read(book, new EpubReader());
         assertEquals("xhtml/chapter1.html", book.getTableOfContents().getTocReferences().get(0).getCompleteHref());
     }
+
+    @Test
+    public void testReadWithPullParser() {
+        final Book domBook = createBook();
+        NCXDocument.read(domBook, new EpubReader());
+
+        final Book pullBook = createBook();
+        final EpubReader epubReader = new EpubReader();
+        epubReader.setPullParsing(true);
+        NCXDocument.read(pullBook, epubReader);
+
+        assertEquals(3, pullBook.getTableOfContents().getTocReferences().size());
+        assertEquals(domBook.getTableOfContents().getAllUniqueResources().size(),
+                     pullBook.getTableOfContents().getAllUniqueResources().size());
+        assertSameTOCReferences(domBook.getTableOfContents().getTocReferences(),
+                                pullBook.getTableOfContents().getTocReferences());
+    }
+
+    private Book createBook() {
+        final Book book = new Book();
+        final Resource ncxResource = new Resource(this.ncxData, "xhtml/toc.ncx");
+        addResource(book, "xhtml/chapter1.html");
+        addResource(book, "xhtml/chapter2.html");
+        addResource(book, "xhtml/chapter2_1.html");
+        addResource(book, "xhtml/chapter3.html");
+        book.setNcxResource(ncxResource);
+        book.getSpine().setTocResource(ncxResource);
+        return book;
+    }
+
+    private static void assertSameTOCReferences(final List<TOCReference> expected, final List<TOCReference> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getCompleteHref(), actual.get(i).getCompleteHref());
+            assertSameTOCReferences(expected.get(i).getChildren(), actual.get(i).getChildren());
+        }
+    }
 }
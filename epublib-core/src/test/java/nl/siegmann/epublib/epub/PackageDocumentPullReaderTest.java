@@ -0,0 +1,94 @@
+package nl.siegmann.epublib.epub;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Author;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.GuideReference;
+import nl.siegmann.epublib.domain.Identifier;
+import nl.siegmann.epublib.domain.Metadata;
+import nl.siegmann.epublib.domain.Resource;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+
+public class PackageDocumentPullReaderTest extends TestCase {
+
+    public void testReadMetadata() throws Exception {
+        final String[] files = {"/opf/test1.opf", "/opf/test2.opf", "/opf/test_language.opf",
+                                "/opf/test_default_language.opf"};
+        for (final String file : files) {
+            final Document document = EpubProcessorSupport.createDocumentBuilder()
+                    .parse(PackageDocumentPullReaderTest.class.getResourceAsStream(file));
+            final Metadata expected = PackageDocumentMetadataReader.readMetadata(document);
+            final Metadata actual = PackageDocumentPullReader.readMetadata(
+                    new InputStreamReader(PackageDocumentPullReaderTest.class.getResourceAsStream(file), "UTF-8"));
+            assertSameMetadata(expected, actual);
+        }
+    }
+
+    public void testReadEpub() throws Exception {
+        final Book book = new Book();
+        book.getMetadata().addTitle("Three Men in a Boat");
+        book.getMetadata().addAuthor(new Author("Jerome K.", "Jerome"));
+        book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+        book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"),
+                                                     "chapter1.html"));
+        book.addSection("Second chapter", new Resource(this.getClass().getResourceAsStream("/book1/chapter2.html"),
+                                                       "chapter2.html"));
+        book.getGuide().addReference(new GuideReference(book.getResources().getByHref("chapter2.html"),
+                                                        GuideReference.TEXT, "Start"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new EpubWriter().write(book, out);
+
+        final Book expected = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+        final EpubReader epubReader = new EpubReader();
+        epubReader.setPullParsing(true);
+        final Book actual = epubReader.readEpub(new ByteArrayInputStream(out.toByteArray()));
+
+        assertSameMetadata(expected.getMetadata(), actual.getMetadata());
+        assertEquals(expected.getResources().getAllHrefs().size(), actual.getResources().getAllHrefs().size());
+        for (final Resource resource : expected.getResources().getAll()) {
+            final Resource actualResource = actual.getResources().getByHref(resource.getHref());
+            assertNotNull(actualResource);
+            assertEquals(resource.getId(), actualResource.getId());
+            assertEquals(resource.getMediaType(), actualResource.getMediaType());
+        }
+        assertEquals(expected.getSpine().size(), actual.getSpine().size());
+        for (int i = 0; i < expected.getSpine().size(); i++) {
+            assertEquals(expected.getSpine().getResource(i).getHref(), actual.getSpine().getResource(i).getHref());
+        }
+        assertEquals(expected.getSpine().getTocResource().getHref(), actual.getSpine().getTocResource().getHref());
+        assertEquals(expected.getCoverImage().getHref(), actual.getCoverImage().getHref());
+        assertEquals(expected.getCoverPage().getHref(), actual.getCoverPage().getHref());
+        assertEquals(expected.getGuide().getReferences().size(), actual.getGuide().getReferences().size());
+        assertEquals("chapter2.html", actual.getGuide().getReferences().get(0).getCompleteHref());
+        assertEquals(expected.getTableOfContents().size(), actual.getTableOfContents().size());
+    }
+
+    private static void assertSameMetadata(final Metadata expected, final Metadata actual) {
+        assertEquals(expected.getTitles(), actual.getTitles());
+        assertEquals(expected.getLanguage(), actual.getLanguage());
+        assertEquals(expected.getPublishers(), actual.getPublishers());
+        assertEquals(expected.getDescriptions(), actual.getDescriptions());
+        assertEquals(expected.getRights(), actual.getRights());
+        assertEquals(expected.getTypes(), actual.getTypes());
+        assertEquals(expected.getSubjects(), actual.getSubjects());
+        assertEquals(expected.getAuthors(), actual.getAuthors());
+        assertEquals(expected.getContributors(), actual.getContributors());
+        assertEquals(expected.getDates().toString(), actual.getDates().toString());
+        assertEquals(expected.getOtherProperties(), actual.getOtherProperties());
+        for (final String metaName : new String[]{"cover", "calibre:rating", "generator"}) {
+            assertEquals(expected.getMetaAttribute(metaName), actual.getMetaAttribute(metaName));
+        }
+        assertEquals(expected.getIdentifiers().size(), actual.getIdentifiers().size());
+        for (int i = 0; i < expected.getIdentifiers().size(); i++) {
+            final Identifier expectedIdentifier = expected.getIdentifiers().get(i);
+            final Identifier actualIdentifier = actual.getIdentifiers().get(i);
+            assertEquals(expectedIdentifier.getScheme(), actualIdentifier.getScheme());
+            assertEquals(expectedIdentifier.getValue(), actualIdentifier.getValue());
+            assertEquals(expectedIdentifier.isBookId(), actualIdentifier.isBookId());
+        }
+    }
+}
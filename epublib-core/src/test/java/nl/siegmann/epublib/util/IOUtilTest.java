@@ -67,4 +67,17 @@ public class IOUtilTest extends TestCase {
             assertEquals((i / 3) + " : " + testData[i] + ", " + testData[i + 1], expectedResult, actualResult);
         }
     }
+
+    public void testReadFully() throws IOException {
+        final byte[] testArray = new byte[IOUtil.IO_COPY_BUFFER_SIZE * 3 + 1];
+        new Random().nextBytes(testArray);
+        // exact, unknown, too small and too large sizes
+        final long[] sizes = {testArray.length, -1, 10, testArray.length + 100};
+        for (final long size : sizes) {
+            final byte[] result = IOUtil.readFully(new ByteArrayInputStream(testArray), size);
+            assertEquals(String.valueOf(size), testArray.length, result.length);
+            assertTrue(String.valueOf(size), Arrays.equals(testArray, result));
+        }
+        assertEquals(0, IOUtil.readFully(new ByteArrayInputStream(new byte[0]), 0).length);
+    }
 }
@@ -0,0 +1,110 @@
+package nl.siegmann.epublib.util.zip;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.util.IOUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+public class ZipArchiveTest extends TestCase {
+
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final String ENTRY_NAME = "chapter1.html";
+
+    private File zipFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.zipFile = File.createTempFile("epublib-zip", ".zip");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(this.zipFile));
+        try {
+            final ZipEntry entry = new ZipEntry(ENTRY_NAME);
+            // an extra field with an unknown header id and 4 bytes of data
+            entry.setExtra(new byte[]{(byte) 0xFE, (byte) 0xCA, 4, 0, 1, 2, 3, 4});
+            out.putNextEntry(entry);
+            out.write("hello".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.zipFile.delete();
+    }
+
+    public void testRead() throws IOException {
+        final ZipArchive zipArchive = new ZipArchive(this.zipFile);
+        try {
+            assertEquals(1, zipArchive.size());
+            final InputStream in = zipArchive.getInputStream(zipArchive.getEntry(ENTRY_NAME));
+            assertEquals("hello", new String(IOUtil.toByteArray(in), "UTF-8"));
+        } finally {
+            zipArchive.close();
+        }
+    }
+
+    public void testCorruptNameLength() throws IOException {
+        // the name length is at offset 28 of the central directory header
+        writeUnsignedShort(findCentralDirectory() + 28, 0xFFFF);
+        assertZipException();
+    }
+
+    public void testCorruptExtraField() throws IOException {
+        // an extra field that claims more data than the entry has
+        writeUnsignedShort(findCentralDirectory() + 46 + ENTRY_NAME.length() + 2, 0xFFFF);
+        assertZipException();
+    }
+
+    public void testMissingZip64Value() throws IOException {
+        // a size that should be in a zip64 extra field that has no data
+        final long centralDirectory = findCentralDirectory();
+        writeUnsignedShort(centralDirectory + 24, 0xFFFF);
+        writeUnsignedShort(centralDirectory + 26, 0xFFFF);
+        writeUnsignedShort(centralDirectory + 46 + ENTRY_NAME.length(), 0x0001);
+        writeUnsignedShort(centralDirectory + 46 + ENTRY_NAME.length() + 2, 0);
+        assertZipException();
+    }
+
+    private void assertZipException() throws IOException {
+        try {
+            new ZipArchive(this.zipFile).close();
+            fail("Expected a ZipException");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    private long findCentralDirectory() throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(this.zipFile, "r");
+        try {
+            for (long position = file.length() - 4; position >= 0; position--) {
+                file.seek(position);
+                if (Integer.reverseBytes(file.readInt()) == CENTRAL_DIRECTORY_SIGNATURE) {
+                    return position;
+                }
+            }
+        } finally {
+            file.close();
+        }
+        throw new IllegalStateException("No central directory in " + this.zipFile);
+    }
+
+    private void writeUnsignedShort(final long position, final int value) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(this.zipFile, "rw");
+        try {
+            file.seek(position);
+            file.write(value & 0xFF);
+            file.write((value >>> 8) & 0xFF);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package nl.siegmann.epublib;
+
+import nl.siegmann.epublib.bookprocessor.DefaultBookProcessorPipeline;
+import nl.siegmann.epublib.bookprocessor.XslBookProcessor;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.epub.BookProcessorPipeline;
+import nl.siegmann.epublib.epub.EpubWriter;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.vfs.FileObject;
+import org.apache.commons.vfs.FileSystemException;
+import org.apache.commons.vfs.VFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.TransformerConfigurationException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts many books in one run, the way Fileset2Epub converts a single book.
+ *
+ * The books are listed in a manifest with a line per book: the input location, a tab, the output location and
+ * optionally a tab and the type of the input ('epub', 'chm' or empty for a directory of html files). Empty lines
+ * and lines starting with '#' are skipped.
+ *
+ * Every book is read, processed by the BookProcessorPipeline and written by the EpubWriter on one of a fixed number
+ * of worker threads. At most queueSize books wait for a free worker; reading the manifest blocks until one of them
+ * is taken, so a manifest of any length is converted in constant memory. A book that can not be converted is
+ * reported as a failure and does not stop the conversion of the other books.
+ *
+ * @author paul
+ *
+ */
+public class BatchEpubProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchEpubProcessor.class);
+
+    private final int threadCount;
+    private final int queueSize;
+    private String defaultType = "";
+    private String inputEncoding = Constants.CHARACTER_ENCODING;
+    private String xslFile = "";
+    private List<String> bookProcessorClassNames = new ArrayList<String>();
+
+    /**
+     * Creates a processor that converts threadCount books at a time.
+     *
+     * @param threadCount the number of worker threads
+     * @param queueSize the number of books that may wait for a worker, twice the threadCount if 0 or less
+     */
+    public BatchEpubProcessor(final int threadCount, final int queueSize) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1: " + threadCount);
+        }
+        this.threadCount = threadCount;
+        this.queueSize = (queueSize > 0) ? queueSize : (2 * threadCount);
+    }
+
+    /**
+     * Converts every book of the given manifest.
+     *
+     * @param manifest
+     * @return the report of the conversion.
+     * @throws IOException if the manifest can not be read
+     * @throws InterruptedException
+     */
+    public Report process(final Reader manifest) throws IOException, InterruptedException {
+        try {
+            // fails fast on an invalid xsl file instead of on every book
+            createEpubWriter();
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalArgumentException("Invalid xsl file " + this.xslFile, e);
+        }
+        final BufferedReader in = new BufferedReader(manifest);
+        final Report report = new Report();
+        // the semaphore bounds the books being converted or waiting; a worker frees its slot just before it takes
+        // the next book, so the queue has room for every slot to never reject a book
+        final int slotCount = this.threadCount + this.queueSize;
+        final Semaphore freeSlots = new Semaphore(slotCount);
+        final ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(this.threadCount, this.threadCount, 0L, TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>(slotCount), new WorkerThreadFactory());
+        // the book processors are not thread-safe, so every worker gets its own
+        final ThreadLocal<EpubWriter> epubWriters = new ThreadLocal<EpubWriter>();
+        try {
+            int lineNumber = 0;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lineNumber++;
+                if (StringUtils.isBlank(line) || line.startsWith("#")) {
+                    continue;
+                }
+                final Item item = createItem(lineNumber, line);
+                freeSlots.acquire();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                convert(item, epubWriters, report);
+                            } finally {
+                                freeSlots.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    freeSlots.release();
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                throw e;
+            }
+        }
+        report.finish();
+        return report;
+    }
+
+    private Item createItem(final int lineNumber, final String line) {
+        final String[] columns = line.split("\t");
+        final String type = (columns.length > 2) ? columns[2].trim() : this.defaultType;
+        return new Item(lineNumber, columns[0].trim(), (columns.length > 1) ? columns[1].trim() : "", type);
+    }
+
+    private void convert(final Item item, final ThreadLocal<EpubWriter> epubWriters, final Report report) {
+        final long start = System.nanoTime();
+        boolean outputOpened = false;
+        try {
+            if (StringUtils.isBlank(item.getInput()) || StringUtils.isBlank(item.getOutput())) {
+                throw new IllegalArgumentException("Expected 'input<tab>output[<tab>type]'");
+            }
+            EpubWriter epubWriter = epubWriters.get();
+            if (epubWriter == null) {
+                epubWriter = createEpubWriter();
+                epubWriters.set(epubWriter);
+            }
+            final Book book = Fileset2Epub.readBook(item.getInput(), item.getType(), this.inputEncoding);
+            final OutputStream out = Fileset2Epub.openOutputStream(item.getOutput());
+            outputOpened = true;
+            try {
+                epubWriter.write(book, out);
+            } finally {
+                out.close();
+            }
+            report.addSuccess(System.nanoTime() - start);
+        } catch (Throwable e) {
+            log.error("Unable to convert " + item + ": " + e.getMessage(), e);
+            if (outputOpened) {
+                deleteOutput(item.getOutput());
+            }
+            report.addFailure(item, e, System.nanoTime() - start);
+            // the other books can not be converted reliably after the virtual machine broke down
+            if (e instanceof VirtualMachineError) {
+                throw (VirtualMachineError) e;
+            }
+        }
+    }
+
+    /**
+     * Creates the EpubWriter with the BookProcessorPipeline of a worker thread.
+     *
+     * @return the EpubWriter with the BookProcessorPipeline of a worker thread.
+     * @throws TransformerConfigurationException if the xsl file is invalid
+     */
+    protected EpubWriter createEpubWriter() throws TransformerConfigurationException {
+        final BookProcessorPipeline bookProcessorPipeline = new DefaultBookProcessorPipeline();
+        bookProcessorPipeline.addBookProcessors(Fileset2Epub.createBookProcessors(this.bookProcessorClassNames));
+        if (StringUtils.isNotBlank(this.xslFile)) {
+            bookProcessorPipeline.addBookProcessor(new XslBookProcessor(this.xslFile));
+        }
+        return new EpubWriter(bookProcessorPipeline);
+    }
+
+    /**
+     * Removes the partially written output of a failed conversion.
+     */
+    private static void deleteOutput(final String outLocation) {
+        try {
+            final FileObject output = VFS.getManager().resolveFile(outLocation);
+            output.delete();
+        } catch (FileSystemException e) {
+            new File(outLocation).delete();
+        }
+    }
+
+    public String getDefaultType() {
+        return this.defaultType;
+    }
+
+    /**
+     * The type of the inputs of the manifest lines that have no type of their own.
+     *
+     * @param defaultType 'epub', 'chm' or empty for a directory of html files
+     */
+    public void setDefaultType(final String defaultType) {
+        this.defaultType = (defaultType == null) ? "" : defaultType;
+    }
+
+    public String getInputEncoding() {
+        return this.inputEncoding;
+    }
+
+    public void setInputEncoding(final String inputEncoding) {
+        this.inputEncoding = inputEncoding;
+    }
+
+    public String getXslFile() {
+        return this.xslFile;
+    }
+
+    public void setXslFile(final String xslFile) {
+        this.xslFile = xslFile;
+    }
+
+    public List<String> getBookProcessorClassNames() {
+        return this.bookProcessorClassNames;
+    }
+
+    public void setBookProcessorClassNames(final List<String> bookProcessorClassNames) {
+        this.bookProcessorClassNames = bookProcessorClassNames;
+    }
+
+    public int getThreadCount() {
+        return this.threadCount;
+    }
+
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    /**
+     * A book of the manifest.
+     */
+    public static class Item {
+        private final int lineNumber;
+        private final String input;
+        private final String output;
+        private final String type;
+
+        public Item(final int lineNumber, final String input, final String output, final String type) {
+            this.lineNumber = lineNumber;
+            this.input = input;
+            this.output = output;
+            this.type = type;
+        }
+
+        public int getLineNumber() {
+            return this.lineNumber;
+        }
+
+        public String getInput() {
+            return this.input;
+        }
+
+        public String getOutput() {
+            return this.output;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + this.lineNumber + " (" + this.input + ")";
+        }
+    }
+
+    /**
+     * A book that could not be converted.
+     */
+    public static class Failure {
+        private final Item item;
+        private final Throwable exception;
+
+        public Failure(final Item item, final Throwable exception) {
+            this.item = item;
+            this.exception = exception;
+        }
+
+        public Item getItem() {
+            return this.item;
+        }
+
+        public Throwable getException() {
+            return this.exception;
+        }
+    }
+
+    /**
+     * The number of books converted, the failures, the throughput and the latency of the conversion of a
+     * manifest.
+     *
+     * Latencies are measured per book, from the start of reading it until it is written or has failed. The report
+     * keeps a uniform sample of at most MAX_LATENCY_SAMPLES latencies and the first MAX_FAILURES failures, so its
+     * size does not grow with the manifest. Percentiles are exact as long as no more books were converted than
+     * there are samples; the minimum, maximum and average latency are always exact.
+     */
+    public static class Report {
+        public static final int MAX_LATENCY_SAMPLES = 1024;
+        public static final int MAX_FAILURES = 100;
+
+        private final long startTime = System.nanoTime();
+        private long elapsedTime = -1;
+        private int successCount = 0;
+        private int failureCount = 0;
+        private final List<Failure> failures = new ArrayList<Failure>();
+        private final long[] latencySamples = new long[MAX_LATENCY_SAMPLES];
+        private final Random random = new Random();
+        private long totalLatency = 0;
+        private long minLatency = Long.MAX_VALUE;
+        private long maxLatency = 0;
+
+        synchronized void addSuccess(final long latency) {
+            addLatency(latency);
+            this.successCount++;
+        }
+
+        synchronized void addFailure(final Item item, final Throwable exception, final long latency) {
+            addLatency(latency);
+            this.failureCount++;
+            if (this.failures.size() < MAX_FAILURES) {
+                this.failures.add(new Failure(item, exception));
+            }
+        }
+
+        /**
+         * Adds the latency to the sample by reservoir sampling: the n-th latency replaces a random sample with
+         * probability MAX_LATENCY_SAMPLES / n.
+         */
+        private void addLatency(final long latency) {
+            final int itemCount = getItemCount();
+            if (itemCount < MAX_LATENCY_SAMPLES) {
+                this.latencySamples[itemCount] = latency;
+            } else {
+                final int index = this.random.nextInt(itemCount + 1);
+                if (index < MAX_LATENCY_SAMPLES) {
+                    this.latencySamples[index] = latency;
+                }
+            }
+            this.totalLatency += latency;
+            this.minLatency = Math.min(this.minLatency, latency);
+            this.maxLatency = Math.max(this.maxLatency, latency);
+        }
+
+        synchronized void finish() {
+            this.elapsedTime = System.nanoTime() - this.startTime;
+        }
+
+        public synchronized int getItemCount() {
+            return this.successCount + this.failureCount;
+        }
+
+        public synchronized int getSuccessCount() {
+            return this.successCount;
+        }
+
+        public synchronized int getFailureCount() {
+            return this.failureCount;
+        }
+
+        /**
+         * The books that could not be converted.
+         *
+         * @return the first MAX_FAILURES books that could not be converted.
+         */
+        public synchronized List<Failure> getFailures() {
+            return Collections.unmodifiableList(new ArrayList<Failure>(this.failures));
+        }
+
+        /**
+         * The time the whole conversion took.
+         *
+         * @return The time the whole conversion took, in seconds.
+         */
+        public synchronized double getElapsedSeconds() {
+            return toSeconds((this.elapsedTime < 0) ? (System.nanoTime() - this.startTime) : this.elapsedTime);
+        }
+
+        /**
+         * The number of books converted or failed per second.
+         *
+         * @return The number of books converted or failed per second.
+         */
+        public synchronized double getThroughput() {
+            final double elapsedSeconds = getElapsedSeconds();
+            return (elapsedSeconds > 0) ? (getItemCount() / elapsedSeconds) : 0;
+        }
+
+        public synchronized double getAverageLatencyMillis() {
+            final int itemCount = getItemCount();
+            return (itemCount == 0) ? 0 : (toMillis(this.totalLatency) / itemCount);
+        }
+
+        /**
+         * The latency below which the given percentage of the books was converted.
+         *
+         * @param percentile between 0 and 100
+         * @return The latency below which the given percentage of the books was converted, in milliseconds.
+         */
+        public synchronized double getLatencyMillis(final double percentile) {
+            final int itemCount = getItemCount();
+            if (itemCount == 0) {
+                return 0;
+            }
+            if (percentile <= 0) {
+                return toMillis(this.minLatency);
+            }
+            if (percentile >= 100) {
+                return toMillis(this.maxLatency);
+            }
+            final int sampleCount = Math.min(itemCount, MAX_LATENCY_SAMPLES);
+            final long[] sortedLatencies = Arrays.copyOf(this.latencySamples, sampleCount);
+            Arrays.sort(sortedLatencies);
+            final int rank = (int) Math.ceil((percentile / 100) * sampleCount);
+            return toMillis(sortedLatencies[Math.min(Math.max(rank, 1), sampleCount) - 1]);
+        }
+
+        private static double toSeconds(final long nanos) {
+            return nanos / 1000000000d;
+        }
+
+        private static double toMillis(final long nanos) {
+            return nanos / 1000000d;
+        }
+
+        @Override
+        public synchronized String toString() {
+            final StringBuilder result = new StringBuilder();
+            result.append(String.format(Locale.US, "Converted %d of %d books in %.1f s, %.1f books/s",
+                                        this.successCount, getItemCount(), getElapsedSeconds(),
+                                        getThroughput()));
+            result.append(String.format(Locale.US,
+                                        "%nLatency: min %.1f ms, avg %.1f ms, p50 %.1f ms, p95 %.1f ms, "
+                                        + "p99 %.1f ms, max %.1f ms",
+                                        getLatencyMillis(0), getAverageLatencyMillis(), getLatencyMillis(50),
+                                        getLatencyMillis(95), getLatencyMillis(99), getLatencyMillis(100)));
+            for (final Failure failure : this.failures) {
+                result.append(String.format("%nFailed %s: %s", failure.getItem(), failure.getException()));
+            }
+            if (this.failureCount > this.failures.size()) {
+                result.append(String.format("%n... and %d more failures", this.failureCount - this.failures.size()));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Names the worker threads, so they can be recognized in thread dumps and logs.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(runnable, "epub-batch-" + this.threadNumber.incrementAndGet());
+        }
+    }
+}
@@ -15,11 +15,20 @@ import nl.siegmann.epublib.epub.EpubWriter;
 import nl.siegmann.epublib.fileset.FilesetBookCreator;
 import nl.siegmann.epublib.util.VFSUtil;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.vfs.FileObject;
 import org.apache.commons.vfs.FileSystemException;
 import org.apache.commons.vfs.VFS;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,6 +45,9 @@ public class Fileset2Epub {
         String isbn = "";
         String inputEncoding = Constants.CHARACTER_ENCODING;
         final List<String> bookProcessorClassNames = new ArrayList<String>();
+        String batchManifest = "";
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int queueSize = 0;
 
         for (int i = 0; i < args.length; i++) {
             if ("--in".equalsIgnoreCase(args[i])) {
@@ -58,8 +70,18 @@ public class Fileset2Epub {
                 isbn = args[++i];
             } else if ("--type".equalsIgnoreCase(args[i])) {
                 type = args[++i];
+            } else if ("--batch".equalsIgnoreCase(args[i])) {
+                batchManifest = args[++i];
+            } else if ("--threads".equalsIgnoreCase(args[i])) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if ("--queue-size".equalsIgnoreCase(args[i])) {
+                queueSize = Integer.parseInt(args[++i]);
             }
         }
+        if (StringUtils.isNotBlank(batchManifest)) {
+            runBatch(batchManifest, type, inputEncoding, xslFile, bookProcessorClassNames, threadCount, queueSize);
+            return;
+        }
         if (StringUtils.isBlank(inputLocation) || StringUtils.isBlank(outLocation)) {
             usage();
         }
@@ -74,15 +96,7 @@ public class Fileset2Epub {
             inputEncoding = Constants.CHARACTER_ENCODING;
         }
 
-        final Book book;
-        if ("chm".equals(type)) {
-            book = ChmParser.parseChm(VFSUtil.resolveFileObject(inputLocation), inputEncoding);
-        } else {
-            book = "epub".equals(type) ?
-                   new EpubReader().readEpub(VFSUtil.resolveInputStream(inputLocation), inputEncoding) :
-                   FilesetBookCreator
-                           .createBookFromDirectory(VFSUtil.resolveFileObject(inputLocation), inputEncoding);
-        }
+        final Book book = readBook(inputLocation, type, inputEncoding);
 
         if (StringUtils.isNotBlank(coverImage)) {
 //			book.getResourceByHref(book.getCoverImage());
@@ -102,13 +116,79 @@ public class Fileset2Epub {
 
         initAuthors(authorNames, book);
 
-        OutputStream result;
+        epubWriter.write(book, openOutputStream(outLocation));
+    }
+
+    private static void runBatch(final String manifest, final String type, final String inputEncoding,
+                                 final String xslFile, final List<String> bookProcessorClassNames,
+                                 final int threadCount, final int queueSize) throws IOException,
+                                                                                  InterruptedException {
+        final BatchEpubProcessor batchEpubProcessor = new BatchEpubProcessor(threadCount, queueSize);
+        batchEpubProcessor.setDefaultType(type);
+        if (StringUtils.isNotBlank(inputEncoding)) {
+            batchEpubProcessor.setInputEncoding(inputEncoding);
+        }
+        batchEpubProcessor.setXslFile(xslFile);
+        batchEpubProcessor.setBookProcessorClassNames(bookProcessorClassNames);
+        final Reader in = new InputStreamReader(new FileInputStream(manifest), Constants.CHARACTER_ENCODING);
+        final BatchEpubProcessor.Report report;
+        try {
+            report = batchEpubProcessor.process(in);
+        } finally {
+            in.close();
+        }
+        System.out.println(report);
+        if (report.getFailureCount() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the book at the given location.
+     *
+     * @param inputLocation
+     * @param type 'epub', 'chm' or empty for a directory of html files
+     * @param inputEncoding
+     * @return the book at the given location.
+     * @throws IOException
+     * @throws ParserConfigurationException
+     * @throws XPathExpressionException
+     */
+    static Book readBook(final String inputLocation, final String type, final String inputEncoding)
+            throws IOException, ParserConfigurationException, XPathExpressionException {
+        if ("epub".equals(type)) {
+            final InputStream in = VFSUtil.resolveInputStream(inputLocation);
+            if (in == null) {
+                throw new FileNotFoundException("Unable to read " + inputLocation);
+            }
+            try {
+                return new EpubReader().readEpub(in, inputEncoding);
+            } finally {
+                in.close();
+            }
+        }
+        final FileObject inputDirectory = VFSUtil.resolveFileObject(inputLocation);
+        if (inputDirectory == null) {
+            throw new FileNotFoundException("Unable to read " + inputLocation);
+        }
+        return "chm".equals(type) ?
+               ChmParser.parseChm(inputDirectory, inputEncoding) :
+               FilesetBookCreator.createBookFromDirectory(inputDirectory, inputEncoding);
+    }
+
+    /**
+     * Opens the given location for writing, via VFS if possible and else as a local File.
+     *
+     * @param outLocation
+     * @return an OutputStream to the given location.
+     * @throws IOException
+     */
+    static OutputStream openOutputStream(final String outLocation) throws IOException {
         try {
-            result = VFS.getManager().resolveFile(outLocation).getContent().getOutputStream();
+            return VFS.getManager().resolveFile(outLocation).getContent().getOutputStream();
         } catch (FileSystemException e) {
-            result = new FileOutputStream(outLocation);
+            return new FileOutputStream(outLocation);
         }
-        epubWriter.write(book, result);
     }
 
     private static void initAuthors(final List<String> authorNames, final Book book) {
@@ -130,7 +210,7 @@ public class Fileset2Epub {
     }
 
 
-    private static List<BookProcessor> createBookProcessors(final List<String> bookProcessorNames) {
+    static List<BookProcessor> createBookProcessors(final List<String> bookProcessorNames) {
         final List<BookProcessor> result = new ArrayList<BookProcessor>(bookProcessorNames.size());
         for (final String bookProcessorName : bookProcessorNames) {
             final BookProcessor bookProcessor;
@@ -147,6 +227,9 @@ public class Fileset2Epub {
     private static void usage() {
         System.out.println("usage: " + Fileset2Epub.class.getName()
                            + "\n  --author [lastname,firstname]"
+                           + "\n  --batch [manifest file]  # Converts every 'input<tab>output[<tab>type]' line of"
+                           + "\n                             # the manifest instead of --in and --out. --author,"
+                           + "\n                             # --cover-image, --isbn and --title are ignored"
                            + "\n  --cover-image [image to use as cover]"
                            + "\n  --input-ecoding [text encoding]  # The encoding of the input html files. If funny "
                            + "characters show"
@@ -158,6 +241,8 @@ public class Fileset2Epub {
                            + "\n  --in [input directory]"
                            + "\n  --isbn [isbn number]"
                            + "\n  --out [output epub file]"
+                           + "\n  --queue-size [number of waiting batch items, default twice the threads]"
+                           + "\n  --threads [number of batch worker threads, default the number of processors]"
                            + "\n  --title [book title]"
                            + "\n  --type [input type, can be 'epub', 'chm' or empty]"
                            + "\n  --xsl [html post processing file]"
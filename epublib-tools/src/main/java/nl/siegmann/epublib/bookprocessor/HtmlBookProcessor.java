@@ -4,7 +4,7 @@ package nl.siegmann.epublib.bookprocessor;
 import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.Resource;
-import nl.siegmann.epublib.epub.BookProcessor;
+import nl.siegmann.epublib.epub.HtmlTextBookProcessor;
 import nl.siegmann.epublib.service.MediatypeService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,10 +14,15 @@ import java.io.IOException;
 /**
  * Helper class for BookProcessors that only manipulate html type resources.
  *
+ * Every html resource is processed on its own, so implementations must be safe to use from several threads
+ * at the same time.
+ * Subclasses that override processHtmlText can be fused with other HtmlTextBookProcessors by a
+ * BookProcessorPipeline, saving a decode and encode of the resource per processor.
+ *
  * @author paul
  *
  */
-public abstract class HtmlBookProcessor implements BookProcessor {
+public abstract class HtmlBookProcessor implements HtmlTextBookProcessor {
 
     private static final Logger log = LoggerFactory.getLogger(HtmlBookProcessor.class);
     public static final String OUTPUT_ENCODING = "UTF-8";
@@ -26,7 +31,7 @@ public abstract class HtmlBookProcessor implements BookProcessor {
     public Book processBook(final Book book) {
         for (final Resource resource : book.getResources().getAll()) {
             try {
-                cleanupResource(resource, book);
+                processResource(resource, book);
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
             }
@@ -34,7 +39,8 @@ public abstract class HtmlBookProcessor implements BookProcessor {
         return book;
     }
 
-    private void cleanupResource(final Resource resource, final Book book) throws IOException {
+    @Override
+    public void processResource(final Resource resource, final Book book) throws IOException {
         if (resource.getMediaType() == MediatypeService.XHTML) {
             final byte[] cleanedHtml = processHtml(resource, book, Constants.CHARACTER_ENCODING);
             resource.setData(cleanedHtml);
@@ -42,5 +48,24 @@ public abstract class HtmlBookProcessor implements BookProcessor {
         }
     }
 
+    /**
+     * Processes the html as text.
+     *
+     * This default implementation encodes the html into a temporary resource and calls processHtml on it.
+     *
+     * @param html
+     * @param resource
+     * @param book
+     * @return the processed html
+     * @throws IOException
+     */
+    @Override
+    public String processHtmlText(final String html, final Resource resource, final Book book) throws IOException {
+        final Resource htmlResource = new Resource(resource.getId(), html.getBytes(Constants.CHARACTER_ENCODING),
+                                                   resource.getHref(), resource.getMediaType());
+        return new String(processHtml(htmlResource, book, Constants.CHARACTER_ENCODING),
+                          Constants.CHARACTER_ENCODING);
+    }
+
     protected abstract byte[] processHtml(Resource resource, Book book, String encoding) throws IOException;
 }
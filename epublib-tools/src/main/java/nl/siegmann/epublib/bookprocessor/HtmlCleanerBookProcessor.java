@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 
 /**
@@ -53,22 +54,40 @@ public class HtmlCleanerBookProcessor extends HtmlBookProcessor {
         // clean html
         final TagNode node = this.htmlCleaner.clean(resource.getReader());
 
-        // post-process cleaned html
-        node.setAttribute("xmlns", Constants.NAMESPACE_XHTML);
-        node.setDocType(createXHTMLDoctypeToken());
-
         // write result to output
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         Writer writer = new OutputStreamWriter(out, outputEncoding);
         writer = new NoCloseWriter(writer);
-        final EpublibXmlSerializer xmlSerializer = new EpublibXmlSerializer(this.htmlCleaner
-                                                                                    .getProperties(), outputEncoding);
-        xmlSerializer.write(node, writer, outputEncoding);
+        write(node, writer, outputEncoding);
         writer.flush();
 
         return out.toByteArray();
     }
 
+    @Override
+    public String processHtmlText(final String html, final Resource resource, final Book book) throws IOException {
+        final TagNode node = this.htmlCleaner.clean(html);
+        final StringWriter writer = new StringWriter(html.length());
+        write(node, writer, Constants.CHARACTER_ENCODING);
+        return writer.toString();
+    }
+
+    /**
+     * Post-processes the cleaned html and writes it to the writer.
+     *
+     * @param node
+     * @param writer
+     * @param outputEncoding
+     * @throws IOException
+     */
+    private void write(final TagNode node, final Writer writer, final String outputEncoding) throws IOException {
+        node.setAttribute("xmlns", Constants.NAMESPACE_XHTML);
+        node.setDocType(createXHTMLDoctypeToken());
+        final EpublibXmlSerializer xmlSerializer = new EpublibXmlSerializer(this.htmlCleaner
+                                                                                    .getProperties(), outputEncoding);
+        xmlSerializer.write(node, writer, outputEncoding);
+    }
+
     private DoctypeToken createXHTMLDoctypeToken() {
         return new DoctypeToken("html", "PUBLIC", "-//W3C//DTD XHTML 1.1//EN",
                                 "http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd");
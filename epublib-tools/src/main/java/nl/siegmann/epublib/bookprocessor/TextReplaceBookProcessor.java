@@ -7,11 +7,9 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.Writer;
+import java.io.StringReader;
 
 /**
  * Cleans up regular html into xhtml.
@@ -28,14 +26,20 @@ public class TextReplaceBookProcessor extends HtmlBookProcessor {
     @Override
     public byte[] processHtml(final Resource resource, final Book book, final String outputEncoding)
             throws IOException {
-        final Reader reader = resource.getReader();
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        final Writer writer = new OutputStreamWriter(out, Constants.CHARACTER_ENCODING);
+        return processHtmlText(resource.getReader()).getBytes(Constants.CHARACTER_ENCODING);
+    }
+
+    @Override
+    public String processHtmlText(final String html, final Resource resource, final Book book) throws IOException {
+        return processHtmlText(new StringReader(html));
+    }
+
+    private String processHtmlText(final Reader reader) throws IOException {
+        final StringBuilder result = new StringBuilder();
         for (final String line : IOUtils.readLines(reader)) {
-            writer.write(processLine(line));
-            writer.flush();
+            result.append(processLine(line));
         }
-        return out.toByteArray();
+        return result.toString();
     }
 
     private String processLine(final String line) {
@@ -9,10 +9,9 @@ import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -23,6 +22,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 
 
@@ -36,36 +38,44 @@ public class XslBookProcessor extends HtmlBookProcessor {
 
     private static final Logger log = LoggerFactory.getLogger(XslBookProcessor.class);
 
-    private Transformer transformer;
+    private final Templates templates;
 
     public XslBookProcessor(final String xslFileName) throws TransformerConfigurationException {
         final File xslFile = new File(xslFileName);
         final TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        this.transformer = transformerFactory.newTransformer(new StreamSource(xslFile));
+        this.templates = transformerFactory.newTemplates(new StreamSource(xslFile));
     }
 
     @Override
     public byte[] processHtml(final Resource resource, final Book book, final String encoding) throws IOException {
-        final byte[] result;
-        try {
-            final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            final DocumentBuilder db = dbFactory.newDocumentBuilder();
-            db.setEntityResolver(EpubProcessorSupport.getEntityResolver());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(out, "UTF-8");
+        transform(resource.getReader(), writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    @Override
+    public String processHtmlText(final String html, final Resource resource, final Book book) throws IOException {
+        final StringWriter writer = new StringWriter(html.length());
+        transform(new StringReader(html), writer);
+        return writer.toString();
+    }
 
-            final Document doc = db.parse(new InputSource(resource.getReader()));
+    private void transform(final Reader in, final Writer out) throws IOException {
+        try {
+            final DocumentBuilder db = EpubProcessorSupport.createDocumentBuilder(false);
+            final Document doc = db.parse(new InputSource(in));
 
             final Source htmlSource = new DOMSource(doc.getDocumentElement());
-            final ByteArrayOutputStream out = new ByteArrayOutputStream();
-            final Writer writer = new OutputStreamWriter(out, "UTF-8");
-            final Result streamResult = new StreamResult(writer);
+            final Result streamResult = new StreamResult(out);
             try {
-                this.transformer.transform(htmlSource, streamResult);
+                // a Transformer is not thread-safe, the compiled Templates are
+                this.templates.newTransformer().transform(htmlSource, streamResult);
             } catch (TransformerException e) {
                 log.error(e.getMessage(), e);
                 throw new IOException(e);
             }
-            result = out.toByteArray();
-            return result;
         } catch (Exception e) {
             throw new IOException(e);
         }
@@ -0,0 +1,60 @@
+package nl.siegmann.epublib.search;
+
+/**
+ * The statistics that BM25 ranks the results of a search with, collected over all indexes that are searched
+ * together: the number of resources, their total length and per term of the search the number of resources that
+ * contain it.
+ *
+ * Ranking the results of every index with the statistics of all of them makes their scores comparable.
+ *
+ * @author paul.siegmann
+ *
+ */
+// package
+class CorpusStatistics {
+
+    private int resourceCount = 0;
+    private long totalLength = 0;
+    private int[] documentFrequencies;
+
+    /**
+     * Adds the statistics of an index.
+     *
+     * @param resourceCount the number of resources of the index
+     * @param totalLength the number of terms of all resources of the index
+     * @param documentFrequencies per term of the search the number of resources of the index that contain it
+     */
+    void add(final int resourceCount, final long totalLength, final int[] documentFrequencies) {
+        this.resourceCount += resourceCount;
+        this.totalLength += totalLength;
+        if (this.documentFrequencies == null) {
+            this.documentFrequencies = new int[documentFrequencies.length];
+        }
+        for (int i = 0; i < documentFrequencies.length; i++) {
+            this.documentFrequencies[i] += documentFrequencies[i];
+        }
+    }
+
+    int getResourceCount() {
+        return this.resourceCount;
+    }
+
+    /**
+     * The average number of terms of a resource.
+     *
+     * @return The average number of terms of a resource, at least 1.
+     */
+    double getAverageLength() {
+        return Math.max(1.0, (double) this.totalLength / Math.max(this.resourceCount, 1));
+    }
+
+    /**
+     * The number of resources that contain the term of the search with the given index.
+     *
+     * @param termIndex
+     * @return The number of resources that contain the term of the search with the given index.
+     */
+    int getDocumentFrequency(final int termIndex) {
+        return (this.documentFrequencies == null) ? 0 : this.documentFrequencies[termIndex];
+    }
+}
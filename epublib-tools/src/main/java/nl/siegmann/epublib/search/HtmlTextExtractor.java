@@ -0,0 +1,305 @@
+package nl.siegmann.epublib.search;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.Normalizer;
+
+/**
+ * Extracts the search content from html in a single pass.
+ *
+ * Strips the tags, decodes the html entities, trims the text between tags, replaces multiple whitespaces with
+ * a single space, removes accents and lowercases everything, char by char, without creating intermediate
+ * strings. The result is the same as that of trimming, unescaping and SearchIndex.cleanText-ing the text
+ * between every two tags and concatenating the results.
+ *
+ * Accents are removed by looking up the canonical decomposition of a character without its combining
+ * diacritical marks. These are computed once per character, on first use.
+ *
+ * An extractor reuses its buffers and is not thread-safe.
+ *
+ * @author paul.siegmann
+ *
+ */
+// package
+class HtmlTextExtractor {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // the longest entity that is decoded, like &#x10FFFF;
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    // results larger than this do not keep their buffer for the next extraction
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final int NBSP = 0x00A0;
+
+    private static final String[][] FOLD_PAGES = new String[256][];
+
+    private static final int ENTITY_TABLE_SIZE = 1024;
+    private static final char[][] ENTITY_NAMES = new char[ENTITY_TABLE_SIZE][];
+    private static final int[] ENTITY_VALUES = new int[ENTITY_TABLE_SIZE];
+
+    static {
+        for (char c = 0; c < Character.MIN_SURROGATE; c++) {
+            final String escaped = StringEscapeUtils.escapeHtml(String.valueOf(c));
+            if ((escaped.length() > 2) && (escaped.charAt(0) == '&') && (escaped.charAt(1) != '#')) {
+                addEntity(escaped.substring(1, escaped.length() - 1).toCharArray(), c);
+            }
+        }
+    }
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final char[] entity = new char[MAX_ENTITY_LENGTH];
+    private StringBuilder result = new StringBuilder(BUFFER_SIZE);
+    private int entityLength;
+    private boolean inEntity;
+    private boolean inTag;
+    private boolean pendingSpace;
+    private int chunkStart;
+
+    /**
+     * Extracts the search content from the given html.
+     *
+     * @param in
+     * @return the search content of the given html.
+     * @throws IOException
+     */
+    String extract(final Reader in) throws IOException {
+        this.result.setLength(0);
+        this.inEntity = false;
+        startChunk();
+        for (int length = in.read(this.buffer); length >= 0; length = in.read(this.buffer)) {
+            for (int i = 0; i < length; i++) {
+                process(this.buffer[i]);
+            }
+        }
+        if (this.inEntity) {
+            flushEntity();
+        }
+        final String text = this.result.toString();
+        if (this.result.capacity() > MAX_RETAINED_CAPACITY) {
+            this.result = new StringBuilder(BUFFER_SIZE);
+        }
+        return text;
+    }
+
+    private void process(final char c) {
+        if (this.inEntity) {
+            if (c == ';') {
+                this.inEntity = false;
+                decodeEntity();
+                return;
+            }
+            if ((this.entityLength < MAX_ENTITY_LENGTH) && (c != '&') && (c != '<') && (c != '>')) {
+                this.entity[this.entityLength++] = c;
+                return;
+            }
+            flushEntity();
+        }
+        if (c == '<') {
+            startChunk();
+        } else if ((c == '>') && this.inTag) {
+            // everything up to the first '>' of a chunk is the tag
+            this.inTag = false;
+            this.result.setLength(this.chunkStart);
+            this.pendingSpace = false;
+        } else if (c == '&') {
+            this.inEntity = true;
+            this.entityLength = 0;
+        } else {
+            appendText(c);
+        }
+    }
+
+    private void startChunk() {
+        this.inTag = true;
+        this.chunkStart = this.result.length();
+        this.pendingSpace = false;
+    }
+
+    private void appendText(final char c) {
+        if (isWhitespace(c)) {
+            if (this.result.length() > this.chunkStart) {
+                this.pendingSpace = true;
+            }
+            return;
+        }
+        if (this.pendingSpace) {
+            this.result.append(' ');
+            this.pendingSpace = false;
+        }
+        appendFolded(this.result, c);
+    }
+
+    /**
+     * Appends the entity that could not be decoded as it is.
+     */
+    private void flushEntity() {
+        this.inEntity = false;
+        appendText('&');
+        for (int i = 0; i < this.entityLength; i++) {
+            appendText(this.entity[i]);
+        }
+    }
+
+    private void decodeEntity() {
+        final int value = getEntityValue(this.entity, this.entityLength);
+        if (value < 0) {
+            flushEntity();
+            appendText(';');
+        } else if (value < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            appendText((char) value);
+        } else {
+            final int offset = value - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            appendText((char) (Character.MIN_HIGH_SURROGATE + (offset >>> 10)));
+            appendText((char) (Character.MIN_LOW_SURROGATE + (offset & 0x3FF)));
+        }
+    }
+
+    /**
+     * Replaces multiple whitespaces with a single space, removes leading and trailing whitespace and accents and
+     * lowercases everything.
+     *
+     * @param text
+     * @return the cleaned text.
+     */
+    static String cleanText(final String text) {
+        final StringBuilder result = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                pendingSpace = (result.length() > 0);
+                continue;
+            }
+            if (pendingSpace) {
+                result.append(' ');
+                pendingSpace = false;
+            }
+            appendFolded(result, c);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Checks whether the given character is a java whitespace, a unicode space separator or a non-breaking-space.
+     *
+     * @param c
+     * @return whether the given character is whitespace.
+     */
+    static boolean isWhitespace(final char c) {
+        if (c < 0x80) {
+            return (c <= ' ') && ((c == ' ') || ((c >= '\t') && (c <= '\r')) || Character.isWhitespace(c));
+        }
+        return (c == NBSP) || Character.isSpaceChar(c) || Character.isWhitespace(c);
+    }
+
+    private static void appendFolded(final StringBuilder result, final char c) {
+        if (c < 0x80) {
+            result.append(((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c);
+        } else {
+            result.append(getFold(c));
+        }
+    }
+
+    /**
+     * The given character without accents and in lowercase.
+     *
+     * @param c
+     * @return The given character without accents and in lowercase, empty if the character is an accent.
+     */
+    private static String getFold(final char c) {
+        String[] page = FOLD_PAGES[c >>> 8];
+        if (page == null) {
+            page = new String[256];
+            FOLD_PAGES[c >>> 8] = page;
+        }
+        String result = page[c & 0xFF];
+        if (result == null) {
+            result = createFold(c);
+            page[c & 0xFF] = result;
+        }
+        return result;
+    }
+
+    private static String createFold(final char c) {
+        final String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+        final StringBuilder result = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char d = decomposed.charAt(i);
+            if ((d < 0x0300) || (d > 0x036F)) {
+                result.append(Character.toLowerCase(d));
+            }
+        }
+        return result.toString();
+    }
+
+    private static void addEntity(final char[] name, final int value) {
+        int index = hash(name, name.length);
+        while (ENTITY_NAMES[index] != null) {
+            index = (index + 1) & (ENTITY_TABLE_SIZE - 1);
+        }
+        ENTITY_NAMES[index] = name;
+        ENTITY_VALUES[index] = value;
+    }
+
+    /**
+     * The character the entity with the given name stands for.
+     *
+     * @param name
+     * @param length
+     * @return The character the entity with the given name stands for, -1 if the entity is unknown.
+     */
+    private static int getEntityValue(final char[] name, final int length) {
+        if ((length > 1) && (name[0] == '#')) {
+            return getNumericEntityValue(name, length);
+        }
+        for (int index = hash(name, length); ENTITY_NAMES[index] != null;
+             index = (index + 1) & (ENTITY_TABLE_SIZE - 1)) {
+            if (equals(ENTITY_NAMES[index], name, length)) {
+                return ENTITY_VALUES[index];
+            }
+        }
+        return -1;
+    }
+
+    private static int getNumericEntityValue(final char[] name, final int length) {
+        final boolean hex = (name[1] == 'x') || (name[1] == 'X');
+        final int radix = hex ? 16 : 10;
+        final int start = hex ? 2 : 1;
+        if (start == length) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < length; i++) {
+            final int digit = Character.digit(name[i], radix);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value * radix) + digit;
+        }
+        return (value > Character.MAX_CODE_POINT) ? -1 : value;
+    }
+
+    private static int hash(final char[] name, final int length) {
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result = (31 * result) + name[i];
+        }
+        return (result ^ (result >>> 16)) & (ENTITY_TABLE_SIZE - 1);
+    }
+
+    private static boolean equals(final char[] name, final char[] other, final int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,687 @@
+package nl.siegmann.epublib.search;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A searchindex for searching through a book that, unlike the SearchIndex, does not scan the text of the book
+ * for every search.
+ *
+ * The search content of every resource is split into terms, using the same normalisation as the SearchIndex.
+ * For every term the index keeps where it occurs, so that a search only looks at the occurrences of the terms
+ * searched for.
+ *
+ * Searches:<br/>
+ * <code>boat</code> finds the term boat<br/>
+ * <code>three men</code> finds the phrase three men<br/>
+ * <code>thame*</code> finds all terms starting with thame<br/>
+ * <code>on the tha*</code> finds the phrase on the followed by a term starting with tha<br/>
+ *
+ * @author paul.siegmann
+ *
+ */
+public class InvertedSearchIndex {
+
+    private static final char PREFIX_WILDCARD = '*';
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // the number of characters of search content around a match in a snippet
+    private static final int SNIPPET_CONTEXT = 40;
+
+    private final List<Resource> resources = new ArrayList<Resource>();
+    private int[] resourceLengths = new int[16];
+    private long totalLength = 0;
+    private final TreeMap<String, Postings> postingsByTerm = new TreeMap<String, Postings>();
+    private Book book;
+
+    public InvertedSearchIndex() {
+    }
+
+    public InvertedSearchIndex(final Book book) {
+        initBook(book);
+    }
+
+    /**
+     * Creates an index from already built parts, like the ones read from a segment file.
+     *
+     * @param book
+     * @param resources
+     * @param resourceLengths the number of terms of every resource
+     * @param postingsByTerm
+     */
+    InvertedSearchIndex(final Book book, final List<Resource> resources, final int[] resourceLengths,
+                        final Map<String, Postings> postingsByTerm) {
+        this.book = book;
+        this.resources.addAll(resources);
+        this.resourceLengths = Arrays.copyOf(resourceLengths, Math.max(resourceLengths.length, 1));
+        for (int i = 0; i < resources.size(); i++) {
+            this.totalLength += resourceLengths[i];
+        }
+        this.postingsByTerm.putAll(postingsByTerm);
+    }
+
+    public Book getBook() {
+        return this.book;
+    }
+
+    public void initBook(final Book book) {
+        this.book = book;
+        this.resources.clear();
+        this.totalLength = 0;
+        this.postingsByTerm.clear();
+        if (book == null) {
+            return;
+        }
+        for (final Resource resource : book.getContents()) {
+            addResource(resource);
+        }
+    }
+
+    /**
+     * Extracts the search content of the resources of the given book in parallel on the given executor and adds
+     * them to the index in the order of the book's contents, while the next resources are still being extracted.
+     * Resources that the executor rejects are extracted by the calling thread.
+     *
+     * If the calling thread is interrupted or a resource can not be indexed, the extractions that did not run yet
+     * are cancelled and the index only contains the resources that were added before.
+     *
+     * @param book
+     * @param executor
+     * @throws InterruptedException
+     */
+    public void initBook(final Book book, final Executor executor) throws InterruptedException {
+        this.book = book;
+        this.resources.clear();
+        this.totalLength = 0;
+        this.postingsByTerm.clear();
+        if (book == null) {
+            return;
+        }
+        final List<Resource> contents = book.getContents();
+        final List<FutureTask<String>> searchContents = new ArrayList<FutureTask<String>>(contents.size());
+        for (final Resource resource : contents) {
+            final FutureTask<String> searchContent = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() {
+                    return SearchIndex.getSearchContent(resource);
+                }
+            });
+            searchContents.add(searchContent);
+            try {
+                executor.execute(searchContent);
+            } catch (RejectedExecutionException e) {
+                searchContent.run();
+            }
+        }
+        boolean complete = false;
+        try {
+            for (int i = 0; i < contents.size(); i++) {
+                final String searchContent;
+                try {
+                    searchContent = searchContents.get(i).get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Unable to index resource " + contents.get(i).getHref(),
+                                                    e.getCause());
+                }
+                if (StringUtils.isNotBlank(searchContent)) {
+                    addResource(contents.get(i), searchContent);
+                }
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                for (final FutureTask<String> searchContent : searchContents) {
+                    searchContent.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the given resource to the index, after the resources that are already in it.
+     *
+     * @param resource
+     */
+    public void addResource(final Resource resource) {
+        final String searchContent = SearchIndex.getSearchContent(resource);
+        if (StringUtils.isBlank(searchContent)) {
+            return;
+        }
+        addResource(resource, searchContent);
+    }
+
+    /**
+     * Adds the given resource with the given search content to the index, after the resources that are already
+     * in it.
+     *
+     * @param resource
+     * @param searchContent the content as created by SearchIndex.getSearchContent
+     */
+    void addResource(final Resource resource, final String searchContent) {
+        final int resourceIndex = this.resources.size();
+        this.resources.add(resource);
+        final TermTokenizer tokenizer = new TermTokenizer(searchContent);
+        int position = 0;
+        for (; tokenizer.next(); position++) {
+            final String term = tokenizer.getTerm();
+            Postings postings = this.postingsByTerm.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                this.postingsByTerm.put(term, postings);
+            } else {
+                final Postings appendable = postings.getAppendable();
+                if (appendable != postings) {
+                    postings = appendable;
+                    this.postingsByTerm.put(term, postings);
+                }
+            }
+            postings.add(resourceIndex, position, tokenizer.getOffset());
+        }
+        if (resourceIndex == this.resourceLengths.length) {
+            this.resourceLengths = Arrays.copyOf(this.resourceLengths, resourceIndex * 2);
+        }
+        this.resourceLengths[resourceIndex] = position;
+        this.totalLength += position;
+    }
+
+    List<Resource> getResources() {
+        return this.resources;
+    }
+
+    /**
+     * The number of terms in the resource with the given index.
+     *
+     * @param resourceIndex
+     * @return The number of terms in the resource with the given index.
+     */
+    int getResourceLength(final int resourceIndex) {
+        return this.resourceLengths[resourceIndex];
+    }
+
+    SortedMap<String, Postings> getPostingsByTerm() {
+        return this.postingsByTerm;
+    }
+
+    /**
+     * The number of resources in the index.
+     *
+     * @return The number of resources in the index.
+     */
+    public int getResourceCount() {
+        return this.resources.size();
+    }
+
+    /**
+     * The number of distinct terms in the index.
+     *
+     * @return The number of distinct terms in the index.
+     */
+    public int getTermCount() {
+        return this.postingsByTerm.size();
+    }
+
+    /**
+     * Finds the given term, phrase or prefix.
+     *
+     * The searchTerm is cleaned the same way as the content of the book. If it consists of several terms they
+     * must occur next to each other. If it ends with a '*' the last term matches all terms that start with it.
+     *
+     * @param searchTerm
+     * @return the occurrences of the searchTerm, in the order of the book's resources.
+     */
+    public SearchResults doSearch(final String searchTerm) {
+        final SearchResults result = new SearchResults();
+        if (StringUtils.isBlank(searchTerm)) {
+            return result;
+        }
+        final String cleanSearchTerm = SearchIndex.cleanText(searchTerm);
+        result.setSearchTerm(cleanSearchTerm);
+        result.setBook(this.book);
+        final List<List<Postings>> phrase = getPhrase(cleanSearchTerm);
+        if (phrase != null) {
+            result.addAll(findPhrase(phrase, cleanSearchTerm));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the given term, phrase or prefix, like doSearch, and ranks the resources that contain it.
+     *
+     * Every resource that contains the searchTerm becomes a single result, at its first occurrence. Resources are
+     * ranked with BM25 over the terms of the searchTerm. Only the results of the requested page get a snippet,
+     * the other occurrences are counted but not created.
+     *
+     * @param searchTerm
+     * @param firstResult the rank of the first result to return, starting at 0
+     * @param maxResults the maximum number of results to return
+     * @return the requested page of the ranked results, best first, with the total number of results.
+     */
+    public SearchResults doRankedSearch(final String searchTerm, final int firstResult, final int maxResults) {
+        return doRankedSearch(searchTerm, firstResult, maxResults, null, true);
+    }
+
+    /**
+     * Ranks the resources that contain the given searchTerm like doRankedSearch, with the given statistics of all
+     * indexes that are searched together instead of those of this index alone.
+     *
+     * @param searchTerm
+     * @param firstResult the rank of the first result to return, starting at 0
+     * @param maxResults the maximum number of results to return
+     * @param statistics the statistics of all indexes searched together, null for those of this index
+     * @param snippets whether the results get a snippet
+     * @return the requested page of the ranked results, best first, with the total number of results.
+     */
+    SearchResults doRankedSearch(final String searchTerm, final int firstResult, final int maxResults,
+                                 final CorpusStatistics statistics, final boolean snippets) {
+        final SearchResults result = new SearchResults();
+        result.setTotalSize(0);
+        if (StringUtils.isBlank(searchTerm)) {
+            return result;
+        }
+        final String cleanSearchTerm = SearchIndex.cleanText(searchTerm);
+        result.setSearchTerm(cleanSearchTerm);
+        result.setBook(this.book);
+        final List<List<Postings>> phrase = getPhrase(cleanSearchTerm);
+        if (phrase == null) {
+            return result;
+        }
+        final int[] matchCounts = new int[this.resources.size()];
+        final int[] firstOffsets = new int[this.resources.size()];
+        countPhrase(phrase, matchCounts, firstOffsets);
+        final double[] scores = score(phrase, matchCounts, (statistics == null) ? getStatistics(phrase) : statistics);
+        final List<Integer> ranked = new ArrayList<Integer>();
+        for (int i = 0; i < matchCounts.length; i++) {
+            if (matchCounts[i] > 0) {
+                ranked.add(i);
+            }
+        }
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer resource1, final Integer resource2) {
+                final int compare = Double.compare(scores[resource2], scores[resource1]);
+                return (compare != 0) ? compare : resource1.compareTo(resource2);
+            }
+        });
+        result.setTotalSize(ranked.size());
+        final int end = (int) Math.min((long) Math.max(firstResult, 0) + Math.max(maxResults, 0), ranked.size());
+        for (int i = Math.max(firstResult, 0); i < end; i++) {
+            final int resourceIndex = ranked.get(i);
+            final SearchResult searchResult = new SearchResult(firstOffsets[resourceIndex], cleanSearchTerm,
+                                                               this.resources.get(resourceIndex), this.book);
+            searchResult.setScore(scores[resourceIndex]);
+            if (snippets) {
+                setSnippet(searchResult, phrase.size());
+            }
+            result.getHits().add(searchResult);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the statistics of this index for the given cleaned searchTerm to the given statistics.
+     *
+     * @param cleanSearchTerm
+     * @param statistics
+     */
+    void addStatistics(final String cleanSearchTerm, final CorpusStatistics statistics) {
+        final List<List<Postings>> terms = getTermPostings(cleanSearchTerm);
+        if (terms != null) {
+            addStatistics(terms, statistics);
+        }
+    }
+
+    private CorpusStatistics getStatistics(final List<List<Postings>> phrase) {
+        final CorpusStatistics result = new CorpusStatistics();
+        addStatistics(phrase, result);
+        return result;
+    }
+
+    private void addStatistics(final List<List<Postings>> terms, final CorpusStatistics statistics) {
+        final int[] documentFrequencies = new int[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            documentFrequencies[i] = countResources(terms.get(i));
+        }
+        statistics.add(this.resources.size(), this.totalLength, documentFrequencies);
+    }
+
+    /**
+     * The number of resources in which at least one of the given postings occurs.
+     */
+    private int countResources(final List<Postings> postingsList) {
+        int result = 0;
+        if (postingsList.size() == 1) {
+            final Postings postings = postingsList.get(0);
+            for (int i = 0; i < postings.size(); i++) {
+                if ((i == 0) || (postings.getResource(i) != postings.getResource(i - 1))) {
+                    result++;
+                }
+            }
+            return result;
+        }
+        final boolean[] found = new boolean[this.resources.size()];
+        for (final Postings postings : postingsList) {
+            for (int i = 0; i < postings.size(); i++) {
+                if (!found[postings.getResource(i)]) {
+                    found[postings.getResource(i)] = true;
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Per term of the cleaned searchTerm the postings of all terms it matches.
+     *
+     * @param cleanSearchTerm
+     * @return Per term the postings of all terms it matches, null if a term does not occur at all.
+     */
+    private List<List<Postings>> getPhrase(final String cleanSearchTerm) {
+        final List<List<Postings>> result = getTermPostings(cleanSearchTerm);
+        if (result == null) {
+            return null;
+        }
+        for (final List<Postings> termPostings : result) {
+            if (termPostings.isEmpty()) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Per term of the cleaned searchTerm the postings of all terms it matches, empty for a term that does not
+     * occur.
+     *
+     * @param cleanSearchTerm
+     * @return Per term the postings of all terms it matches, null if the searchTerm has no terms.
+     */
+    private List<List<Postings>> getTermPostings(final String cleanSearchTerm) {
+        final boolean prefix = (cleanSearchTerm.length() > 0)
+                               && (cleanSearchTerm.charAt(cleanSearchTerm.length() - 1) == PREFIX_WILDCARD);
+        final List<String> terms = new ArrayList<String>();
+        final TermTokenizer tokenizer = new TermTokenizer(cleanSearchTerm);
+        while (tokenizer.next()) {
+            terms.add(tokenizer.getTerm());
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+        final List<List<Postings>> result = new ArrayList<List<Postings>>(terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            result.add(((i == (terms.size() - 1)) && prefix) ?
+                       getPostingsByPrefix(terms.get(i)) :
+                       getPostings(terms.get(i)));
+        }
+        return result;
+    }
+
+    private List<Postings> getPostings(final String term) {
+        final Postings postings = this.postingsByTerm.get(term);
+        if (postings == null) {
+            return new ArrayList<Postings>();
+        }
+        final List<Postings> result = new ArrayList<Postings>(1);
+        result.add(postings);
+        return result;
+    }
+
+    private List<Postings> getPostingsByPrefix(final String prefix) {
+        final SortedMap<String, Postings> prefixMap =
+                this.postingsByTerm.subMap(prefix, prefix + Character.MAX_VALUE);
+        return new ArrayList<Postings>(prefixMap.values());
+    }
+
+    /**
+     * Finds the occurrences of the first term that are followed by the other terms.
+     *
+     * Only the last term can match several terms, so the first term has a single postings unless it is the only
+     * term.
+     *
+     * @param phrase per term the postings of all terms it matches
+     * @param searchTerm
+     * @return the occurrences of the phrase, in order of resource and position.
+     */
+    private List<SearchResult> findPhrase(final List<List<Postings>> phrase, final String searchTerm) {
+        final List<SearchResult> result = new ArrayList<SearchResult>();
+        if (phrase.size() == 1) {
+            for (final long occurrence : collectOccurrences(phrase.get(0))) {
+                result.add(new SearchResult((int) occurrence, searchTerm,
+                                            this.resources.get((int) (occurrence >>> 32)), this.book));
+            }
+            return result;
+        }
+        final Postings first = phrase.get(0).get(0);
+        for (int i = 0; i < first.size(); i++) {
+            if (isFollowedBy(phrase, first.getResource(i), first.getPosition(i))) {
+                result.add(new SearchResult(first.getOffset(i), searchTerm,
+                                            this.resources.get(first.getResource(i)), this.book));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts the occurrences of the phrase per resource and finds the offset of the first one.
+     *
+     * @param phrase
+     * @param matchCounts per resource the number of occurrences of the phrase
+     * @param firstOffsets per resource the offset of the first occurrence of the phrase
+     */
+    private static void countPhrase(final List<List<Postings>> phrase, final int[] matchCounts,
+                                    final int[] firstOffsets) {
+        Arrays.fill(firstOffsets, Integer.MAX_VALUE);
+        for (final Postings first : phrase.get(0)) {
+            for (int i = 0; i < first.size(); i++) {
+                final int resourceIndex = first.getResource(i);
+                if ((phrase.size() == 1) || isFollowedBy(phrase, resourceIndex, first.getPosition(i))) {
+                    matchCounts[resourceIndex]++;
+                    firstOffsets[resourceIndex] = Math.min(firstOffsets[resourceIndex], first.getOffset(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * The BM25 score of every resource that contains the phrase, summed over the terms of the phrase.
+     * A prefix counts the occurrences of all terms that start with it.
+     *
+     * @param phrase
+     * @param matchCounts
+     * @param statistics the number of resources, their average length and the document frequencies to rank with
+     * @return per resource its score, 0 for the resources that do not contain the phrase.
+     */
+    private double[] score(final List<List<Postings>> phrase, final int[] matchCounts,
+                           final CorpusStatistics statistics) {
+        final int resourceCount = this.resources.size();
+        final int corpusResourceCount = statistics.getResourceCount();
+        final double averageLength = statistics.getAverageLength();
+        final double[] result = new double[resourceCount];
+        final int[] termFrequencies = new int[resourceCount];
+        for (int term = 0; term < phrase.size(); term++) {
+            Arrays.fill(termFrequencies, 0);
+            for (final Postings postings : phrase.get(term)) {
+                for (int i = 0; i < postings.size(); i++) {
+                    termFrequencies[postings.getResource(i)]++;
+                }
+            }
+            final int documentFrequency = statistics.getDocumentFrequency(term);
+            final double idf = Math.log(1 + ((corpusResourceCount - documentFrequency + 0.5)
+                                             / (documentFrequency + 0.5)));
+            for (int i = 0; i < resourceCount; i++) {
+                if (matchCounts[i] > 0) {
+                    final double normalizedLength = 1 - B + (B * this.resourceLengths[i] / averageLength);
+                    result[i] += idf * (termFrequencies[i] * (K1 + 1))
+                                 / (termFrequencies[i] + (K1 * normalizedLength));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the snippet of the given result of a ranked search that was done without snippets.
+     *
+     * @param searchResult
+     */
+    static void setSnippet(final SearchResult searchResult) {
+        final TermTokenizer tokenizer = new TermTokenizer(searchResult.getSearchTerm());
+        int termCount = 0;
+        while (tokenizer.next()) {
+            termCount++;
+        }
+        setSnippet(searchResult, termCount);
+    }
+
+    /**
+     * Sets the snippet of the given result: the phrase at the result's position with some search content around
+     * it.
+     *
+     * @param searchResult
+     * @param termCount the number of terms of the phrase
+     */
+    private static void setSnippet(final SearchResult searchResult, final int termCount) {
+        final String content = SearchIndex.getSearchContent(searchResult.getResource());
+        final int matchStart = searchResult.getPagePos();
+        if (matchStart >= content.length()) {
+            return;
+        }
+        final TermTokenizer tokenizer = new TermTokenizer(content, matchStart);
+        int matchEnd = matchStart;
+        for (int i = 0; (i < termCount) && tokenizer.next(); i++) {
+            matchEnd = tokenizer.getEnd();
+        }
+        int snippetStart = Math.max(0, matchStart - SNIPPET_CONTEXT);
+        while ((snippetStart > 0) && (snippetStart < matchStart) && (content.charAt(snippetStart - 1) != ' ')) {
+            snippetStart++;
+        }
+        int snippetEnd = Math.min(content.length(), matchEnd + SNIPPET_CONTEXT);
+        while ((snippetEnd < content.length()) && (snippetEnd > matchEnd) && (content.charAt(snippetEnd) != ' ')) {
+            snippetEnd--;
+        }
+        searchResult.setSnippet(content.substring(snippetStart, snippetEnd), matchStart - snippetStart,
+                                matchEnd - snippetStart);
+    }
+
+    /**
+     * The occurrences of all given postings, encoded as resource index in the high and offset in the low int,
+     * in order of resource and offset.
+     *
+     * @param postingsList
+     * @return The occurrences of all given postings.
+     */
+    private static long[] collectOccurrences(final Collection<Postings> postingsList) {
+        int size = 0;
+        for (final Postings postings : postingsList) {
+            size += postings.size();
+        }
+        final long[] result = new long[size];
+        int index = 0;
+        for (final Postings postings : postingsList) {
+            for (int i = 0; i < postings.size(); i++) {
+                result[index++] = ((long) postings.getResource(i) << 32) | postings.getOffset(i);
+            }
+        }
+        if (postingsList.size() > 1) {
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    private static boolean isFollowedBy(final List<List<Postings>> phrase, final int resourceIndex,
+                                        final int position) {
+        for (int i = 1; i < phrase.size(); i++) {
+            if (!containsAny(phrase.get(i), resourceIndex, position + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAny(final List<Postings> postingsList, final int resourceIndex,
+                                       final int position) {
+        for (final Postings postings : postingsList) {
+            if (postings.contains(resourceIndex, position)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits cleaned text into terms: runs of letters and digits.
+     */
+    static class TermTokenizer {
+        private final String text;
+        private int offset = 0;
+        private int end = 0;
+
+        TermTokenizer(final String text) {
+            this(text, 0);
+        }
+
+        /**
+         * Splits the given text into terms, starting at the given offset.
+         *
+         * @param text
+         * @param start
+         */
+        TermTokenizer(final String text, final int start) {
+            this.text = text;
+            this.end = start;
+        }
+
+        /**
+         * Moves to the next term.
+         *
+         * @return whether there is a next term.
+         */
+        boolean next() {
+            int start = this.end;
+            while ((start < this.text.length()) && !Character.isLetterOrDigit(this.text.charAt(start))) {
+                start++;
+            }
+            if (start >= this.text.length()) {
+                return false;
+            }
+            int termEnd = start + 1;
+            while ((termEnd < this.text.length()) && Character.isLetterOrDigit(this.text.charAt(termEnd))) {
+                termEnd++;
+            }
+            this.offset = start;
+            this.end = termEnd;
+            return true;
+        }
+
+        String getTerm() {
+            return this.text.substring(this.offset, this.end);
+        }
+
+        int getOffset() {
+            return this.offset;
+        }
+
+        int getEnd() {
+            return this.end;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package nl.siegmann.epublib.search;
+
+import java.util.Arrays;
+
+/**
+ * The occurrences of a single term in the resources of a book.
+ *
+ * Every occurrence has the index of the resource it occurs in, its position in the resource counted in terms and
+ * its position in the resource's search content counted in characters.
+ * Occurrences are kept in primitive int arrays, ordered by resource and position.
+ * Subclasses can serve them from elsewhere, like a memory-mapped segment file.
+ *
+ * @author paul.siegmann
+ *
+ */
+// package
+class Postings {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] resources;
+    private int[] positions;
+    private int[] offsets;
+    private int size = 0;
+
+    Postings() {
+        this(INITIAL_CAPACITY);
+    }
+
+    Postings(final int capacity) {
+        this.resources = new int[capacity];
+        this.positions = new int[capacity];
+        this.offsets = new int[capacity];
+    }
+
+    /**
+     * Adds an occurrence. Occurrences must be added in order of resource and position.
+     *
+     * @param resource
+     * @param position
+     * @param offset
+     */
+    void add(final int resource, final int position, final int offset) {
+        if (this.size == this.resources.length) {
+            final int capacity = Math.max(this.size * 2, INITIAL_CAPACITY);
+            this.resources = Arrays.copyOf(this.resources, capacity);
+            this.positions = Arrays.copyOf(this.positions, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+        }
+        this.resources[this.size] = resource;
+        this.positions[this.size] = position;
+        this.offsets[this.size] = offset;
+        this.size++;
+    }
+
+    /**
+     * Postings that occurrences can be added to: these postings, or a copy of them if they can not be changed.
+     *
+     * @return Postings that occurrences can be added to.
+     */
+    Postings getAppendable() {
+        return this;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int getResource(final int index) {
+        return this.resources[index];
+    }
+
+    int getPosition(final int index) {
+        return this.positions[index];
+    }
+
+    int getOffset(final int index) {
+        return this.offsets[index];
+    }
+
+    /**
+     * Whether the term occurs at the given position of the given resource.
+     *
+     * @param resource
+     * @param position
+     * @return Whether the term occurs at the given position of the given resource.
+     */
+    boolean contains(final int resource, final int position) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int compare = compare(getResource(middle), getPosition(middle), resource, position);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compare(final int resource1, final int position1, final int resource2, final int position2) {
+        if (resource1 != resource2) {
+            return (resource1 < resource2) ? -1 : 1;
+        }
+        return (position1 < position2) ? -1 : ((position1 == position2) ? 0 : 1);
+    }
+}
@@ -0,0 +1,164 @@
+package nl.siegmann.epublib.search;
+
+import nl.siegmann.epublib.domain.Book;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A searchindex for searching through many books at once.
+ *
+ * Every book has its own InvertedSearchIndex, so adding or removing a book does not touch the indexes of the
+ * other books. A search is done on every book's index and the results are ranked together.
+ *
+ * Every resource that contains the search term becomes a single result, at the first occurrence of the search
+ * term. Results are ranked with BM25, using the number of resources, their average length and the number of
+ * resources that contain every term over all books of the catalogue, so that the scores of different books are
+ * comparable. Ties are ranked in the order the books were added and the order of their resources.
+ *
+ * Every book only ranks its own best results, without creating results for the other occurrences; only the
+ * results that make it into the top get a snippet.
+ *
+ * @author paul.siegmann
+ *
+ */
+public class SearchCatalogue {
+
+    private final Map<Book, InvertedSearchIndex> searchIndexes = new LinkedHashMap<Book, InvertedSearchIndex>();
+
+    /**
+     * Builds the searchindex of the given book and adds it to the catalogue.
+     * If the book was already in the catalogue its searchindex is rebuilt.
+     *
+     * @param book
+     */
+    public void addBook(final Book book) {
+        addSearchIndex(new InvertedSearchIndex(book));
+    }
+
+    /**
+     * Adds an already built searchindex, like one read by SearchIndexSegment, to the catalogue.
+     * If the book of the searchindex was already in the catalogue its searchindex is replaced.
+     *
+     * @param searchIndex
+     */
+    public void addSearchIndex(final InvertedSearchIndex searchIndex) {
+        synchronized (this.searchIndexes) {
+            this.searchIndexes.put(searchIndex.getBook(), searchIndex);
+        }
+    }
+
+    /**
+     * Removes the given book from the catalogue.
+     *
+     * @param book
+     * @return whether the book was in the catalogue.
+     */
+    public boolean removeBook(final Book book) {
+        synchronized (this.searchIndexes) {
+            return this.searchIndexes.remove(book) != null;
+        }
+    }
+
+    public boolean containsBook(final Book book) {
+        synchronized (this.searchIndexes) {
+            return this.searchIndexes.containsKey(book);
+        }
+    }
+
+    /**
+     * The books in the catalogue, in the order they were added.
+     *
+     * @return The books in the catalogue.
+     */
+    public List<Book> getBooks() {
+        synchronized (this.searchIndexes) {
+            return new ArrayList<Book>(this.searchIndexes.keySet());
+        }
+    }
+
+    public int getBookCount() {
+        synchronized (this.searchIndexes) {
+            return this.searchIndexes.size();
+        }
+    }
+
+    /**
+     * Finds the given term, phrase or prefix in all books of the catalogue.
+     *
+     * The searchTerm is cleaned and matched the same way as by the InvertedSearchIndex.
+     *
+     * @param searchTerm
+     * @param maxResults the maximum number of results
+     * @return the best maxResults resources that contain the searchTerm, best first.
+     */
+    public SearchResults doSearch(final String searchTerm, final int maxResults) {
+        final SearchResults result = new SearchResults();
+        if (StringUtils.isBlank(searchTerm) || (maxResults <= 0)) {
+            return result;
+        }
+        final String cleanSearchTerm = SearchIndex.cleanText(searchTerm);
+        result.setSearchTerm(cleanSearchTerm);
+        final List<InvertedSearchIndex> searchIndexesSnapshot;
+        synchronized (this.searchIndexes) {
+            searchIndexesSnapshot = new ArrayList<InvertedSearchIndex>(this.searchIndexes.values());
+        }
+        final CorpusStatistics statistics = new CorpusStatistics();
+        for (final InvertedSearchIndex searchIndex : searchIndexesSnapshot) {
+            searchIndex.addStatistics(cleanSearchTerm, statistics);
+        }
+        final PriorityQueue<RankedResult> topResults =
+                new PriorityQueue<RankedResult>(Math.min(maxResults, 1024) + 1, RankedResult.WORST_FIRST);
+        int sequence = 0;
+        for (final InvertedSearchIndex searchIndex : searchIndexesSnapshot) {
+            for (final SearchResult hit : searchIndex
+                    .doRankedSearch(cleanSearchTerm, 0, maxResults, statistics, false).getHits()) {
+                topResults.add(new RankedResult(hit, sequence++));
+                if (topResults.size() > maxResults) {
+                    topResults.poll();
+                }
+            }
+        }
+        final List<SearchResult> hits = new ArrayList<SearchResult>(topResults.size());
+        while (!topResults.isEmpty()) {
+            hits.add(topResults.poll().searchResult);
+        }
+        Collections.reverse(hits);
+        for (final SearchResult hit : hits) {
+            InvertedSearchIndex.setSnippet(hit);
+        }
+        result.setHits(hits);
+        return result;
+    }
+
+    /**
+     * A search result with the order in which it was found, to break ties.
+     */
+    private static class RankedResult {
+
+        static final Comparator<RankedResult> WORST_FIRST = new Comparator<RankedResult>() {
+            @Override
+            public int compare(final RankedResult result1, final RankedResult result2) {
+                final int compare = Double.compare(result1.searchResult.getScore(), result2.searchResult.getScore());
+                if (compare != 0) {
+                    return compare;
+                }
+                return (result1.sequence > result2.sequence) ? -1 : ((result1.sequence == result2.sequence) ? 0 : 1);
+            }
+        };
+
+        final SearchResult searchResult;
+        final int sequence;
+
+        RankedResult(final SearchResult searchResult, final int sequence) {
+            this.searchResult = searchResult;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -3,19 +3,19 @@ package nl.siegmann.epublib.search;
 import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.Resource;
 import nl.siegmann.epublib.service.MediatypeService;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A searchindex for searching through a book.
@@ -29,12 +29,16 @@ public class SearchIndex {
 
     private static final int NBSP = 0x00A0;
 
-    // whitespace pattern that also matches U+00A0 (&nbsp; in html)
-    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[\\p{Z}\\s]+");
-
-    private static final Pattern REMOVE_ACCENT_PATTERN = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final ThreadLocal<HtmlTextExtractor> TEXT_EXTRACTORS = new ThreadLocal<HtmlTextExtractor>() {
+        @Override
+        protected HtmlTextExtractor initialValue() {
+            return new HtmlTextExtractor();
+        }
+    };
 
-    private List<ResourceSearchIndex> resourceSearchIndexes = new ArrayList<ResourceSearchIndex>();
+    private volatile AtomicReferenceArray<ResourceSearchIndex> resourceSearchIndexes =
+            new AtomicReferenceArray<ResourceSearchIndex>(0);
+    private volatile CountDownLatch pendingResources = new CountDownLatch(0);
     private Book book;
 
     public SearchIndex() {
@@ -44,6 +48,17 @@ public class SearchIndex {
         initBook(book);
     }
 
+    /**
+     * Creates a searchindex of the given book, indexing the resources of the book in parallel on the given
+     * executor.
+     *
+     * @param book
+     * @param executor
+     */
+    public SearchIndex(final Book book, final Executor executor) {
+        initBook(book, executor);
+    }
+
     public Book getBook() {
         return this.book;
     }
@@ -77,38 +92,139 @@ public class SearchIndex {
     }
 
     public void initBook(final Book book) {
-        this.resourceSearchIndexes = createSearchIndex(book);
+        final List<Resource> contents = getContents(book);
+        final AtomicReferenceArray<ResourceSearchIndex> result =
+                new AtomicReferenceArray<ResourceSearchIndex>(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            result.set(i, createResourceSearchIndex(contents.get(i)));
+        }
+        this.book = book;
+        this.pendingResources = new CountDownLatch(0);
+        this.resourceSearchIndexes = result;
     }
 
-    private static List<ResourceSearchIndex> createSearchIndex(final Book book) {
-        final List<ResourceSearchIndex> result = new ArrayList<ResourceSearchIndex>();
-        if (book == null) {
-            return result;
+    /**
+     * Indexes the resources of the given book in parallel on the given executor and waits until all of them
+     * are indexed.
+     *
+     * If the waiting thread is interrupted this returns early, with its interrupted status set, and the
+     * remaining resources are indexed in the background like with initBookProgressively.
+     *
+     * @param book
+     * @param executor
+     */
+    public void initBook(final Book book, final Executor executor) {
+        initBookProgressively(book, executor);
+        try {
+            awaitIndexed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        for (final Resource resource : book.getContents()) {
-            final ResourceSearchIndex resourceSearchIndex = createResourceSearchIndex(resource);
-            if (resourceSearchIndex != null) {
-                result.add(resourceSearchIndex);
+    }
+
+    /**
+     * Indexes the resources of the given book in parallel on the given executor and returns immediately.
+     *
+     * Searches that are done while the book is being indexed find the search term in the resources that are
+     * already indexed. Use isIndexed or awaitIndexed to find out whether all of them are.
+     * Resources that the executor rejects are indexed by the calling thread.
+     *
+     * @param book
+     * @param executor
+     */
+    public void initBookProgressively(final Book book, final Executor executor) {
+        final List<Resource> contents = getContents(book);
+        final AtomicReferenceArray<ResourceSearchIndex> result =
+                new AtomicReferenceArray<ResourceSearchIndex>(contents.size());
+        final CountDownLatch pending = new CountDownLatch(contents.size());
+        this.book = book;
+        this.pendingResources = pending;
+        this.resourceSearchIndexes = result;
+        for (int i = 0; i < contents.size(); i++) {
+            final int index = i;
+            final Resource resource = contents.get(i);
+            final Runnable indexResource = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.set(index, createResourceSearchIndex(resource));
+                    } catch (RuntimeException e) {
+                        log.error("Unable to index resource " + resource.getHref() + ": " + e.getMessage(), e);
+                    } finally {
+                        pending.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(indexResource);
+            } catch (RejectedExecutionException e) {
+                indexResource.run();
             }
         }
-        return result;
     }
 
+    /**
+     * Whether all resources of the book are indexed.
+     *
+     * @return whether all resources of the book are indexed.
+     */
+    public boolean isIndexed() {
+        return this.pendingResources.getCount() == 0;
+    }
+
+    /**
+     * Waits until all resources of the book are indexed.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitIndexed() throws InterruptedException {
+        this.pendingResources.await();
+    }
+
+    /**
+     * Waits at most the given time until all resources of the book are indexed.
+     *
+     * @param timeout
+     * @param unit
+     * @return whether all resources of the book are indexed.
+     * @throws InterruptedException
+     */
+    public boolean awaitIndexed(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return this.pendingResources.await(timeout, unit);
+    }
+
+    private static List<Resource> getContents(final Book book) {
+        if (book == null) {
+            return new ArrayList<Resource>();
+        }
+        return book.getContents();
+    }
+
+    /**
+     * Finds the given searchTerm in the resources that are indexed, in the order of the book's contents.
+     *
+     * @param searchTerm
+     * @return the occurrences of the searchTerm.
+     */
     public SearchResults doSearch(String searchTerm) {
         final SearchResults result = new SearchResults();
         if (StringUtils.isBlank(searchTerm)) {
             return result;
         }
         searchTerm = cleanText(searchTerm);
-        for (final ResourceSearchIndex resourceSearchIndex : this.resourceSearchIndexes) {
-            result.addAll(doSearch(searchTerm, resourceSearchIndex));
+        final AtomicReferenceArray<ResourceSearchIndex> searchIndexes = this.resourceSearchIndexes;
+        for (int i = 0; i < searchIndexes.length(); i++) {
+            final ResourceSearchIndex resourceSearchIndex = searchIndexes.get(i);
+            if (resourceSearchIndex != null) {
+                result.addAll(doSearch(searchTerm, resourceSearchIndex));
+            }
         }
         result.setSearchTerm(searchTerm);
         return result;
     }
 
 
-    private static String getSearchContent(final Resource resource) {
+    static String getSearchContent(final Resource resource) {
         if (resource.getMediaType() != MediatypeService.XHTML) {
             return "";
         }
@@ -122,19 +238,20 @@ public class SearchIndex {
     }
 
 
+    /**
+     * The text of the given html, as used for searching: without tags, with entities decoded and cleaned by
+     * cleanText.
+     *
+     * @param content
+     * @return The text of the given html, as used for searching.
+     */
     public static String getSearchContent(final Reader content) {
-        final StringBuilder result = new StringBuilder();
-        final Scanner scanner = new Scanner(content);
-        scanner.useDelimiter("<");
-        while (scanner.hasNext()) {
-            final String text = scanner.next();
-            final int closePos = text.indexOf('>');
-            String chunk = text.substring(closePos + 1).trim();
-            chunk = StringEscapeUtils.unescapeHtml(chunk);
-            chunk = cleanText(chunk);
-            result.append(chunk);
+        try {
+            return TEXT_EXTRACTORS.get().extract(content);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return "";
         }
-        return result.toString();
     }
 
     /**
@@ -178,22 +295,8 @@ public class SearchIndex {
      * @param text
      * @return html encoded text turned into plain text.
      */
-    public static String cleanText(String text) {
-        text = unicodeTrim(text);
-
-        // replace all multiple whitespaces by a single space
-        final Matcher matcher = WHITESPACE_PATTERN.matcher(text);
-        text = matcher.replaceAll(" ");
-
-        // turn accented characters into normalized form. Turns &ouml; into o"
-        text = Normalizer.normalize(text, Normalizer.Form.NFD);
-
-        // removes the marks found in the previous line.
-        text = REMOVE_ACCENT_PATTERN.matcher(text).replaceAll("");
-
-        // lowercase everything
-        text = text.toLowerCase();
-        return text;
+    public static String cleanText(final String text) {
+        return HtmlTextExtractor.cleanText(text);
     }
 
 
@@ -0,0 +1,349 @@
+package nl.siegmann.epublib.search;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Identifier;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.ArchiveResourceProvider;
+import nl.siegmann.epublib.util.ByteBufferInputStream;
+import nl.siegmann.epublib.util.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Stores an InvertedSearchIndex in a segment file, so that it does not have to be rebuilt every time a book is
+ * opened.
+ *
+ * A segment file is named after the book's identifier and a hash of the book's contents, so a changed book gets
+ * a new segment. Resources that are read lazily from an epub are hashed by the crc and size of their entry in the
+ * epub, so finding the segment of a book does not load its contents.
+ *
+ * Reading a segment memory-maps it: the terms are read into memory, the postings are read from the mapped file
+ * when a search needs them.
+ *
+ * Layout of a segment, big-endian:
+ * <pre>
+ * int      magic
+ * int      version
+ * utf      key
+ * int      resource count, followed by the href and the number of terms of every resource
+ * int      term count, followed by every term with the size of its postings
+ * padding  up to a multiple of 4 bytes
+ * int[]    per term the resource indexes, positions and offsets of its postings
+ * </pre>
+ *
+ * @author paul.siegmann
+ *
+ */
+public class SearchIndexSegment {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchIndexSegment.class);
+
+    public static final String SEGMENT_FILE_EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x45504958;
+    private static final int VERSION = 2;
+    private static final int MAX_BOOK_ID_LENGTH = 64;
+
+    /**
+     * Reads the segment of the book from the given directory. If there is no segment for the book yet the index
+     * is built and written to the directory.
+     *
+     * @param book
+     * @param directory
+     * @return the searchindex of the book.
+     * @throws IOException
+     */
+    public static InvertedSearchIndex load(final Book book, final File directory) throws IOException {
+        final String key = getKey(book);
+        final File segmentFile = new File(directory, key + SEGMENT_FILE_EXTENSION);
+        if (segmentFile.exists()) {
+            final InvertedSearchIndex result = read(book, segmentFile, key);
+            if (result != null) {
+                return result;
+            }
+            log.debug("Segment " + segmentFile + " does not match book, rebuilding it");
+        }
+        final InvertedSearchIndex result = new InvertedSearchIndex(book);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        write(result, segmentFile, key);
+        return result;
+    }
+
+    /**
+     * Reads the segment file of the given book.
+     *
+     * @param book
+     * @param segmentFile
+     * @return the searchindex of the book, null if the segment file is not of this book or its current contents.
+     * @throws IOException
+     */
+    public static InvertedSearchIndex read(final Book book, final File segmentFile) throws IOException {
+        return read(book, segmentFile, getKey(book));
+    }
+
+    /**
+     * Writes the given searchindex to the given segment file.
+     *
+     * @param searchIndex
+     * @param segmentFile
+     * @throws IOException
+     */
+    public static void write(final InvertedSearchIndex searchIndex, final File segmentFile) throws IOException {
+        write(searchIndex, segmentFile, getKey(searchIndex.getBook()));
+    }
+
+    /**
+     * The key of the segment of the given book: its identifier followed by a hash of the hrefs and data of its
+     * contents, or of the crc and size of the data if the contents are read lazily from an epub.
+     *
+     * @param book
+     * @return The key of the segment of the given book.
+     * @throws IOException
+     */
+    public static String getKey(final Book book) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        final Identifier identifier = Identifier.getBookIdIdentifier(book.getMetadata().getIdentifiers());
+        if (identifier != null) {
+            final String value = identifier.getValue();
+            for (int i = 0; (i < value.length()) && (result.length() < MAX_BOOK_ID_LENGTH); i++) {
+                final char c = value.charAt(i);
+                result.append((Character.isLetterOrDigit(c) && (c < 128)) || (c == '-') || (c == '.') ? c : '_');
+            }
+        }
+        if (result.length() == 0) {
+            result.append("book");
+        }
+        result.append('-');
+        result.append(getContentHash(book));
+        return result.toString();
+    }
+
+    private static String getContentHash(final Book book) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] buffer = new byte[IOUtil.IO_COPY_BUFFER_SIZE];
+        for (final Resource resource : book.getContents()) {
+            digest.update(resource.getHref().getBytes(Constants.CHARACTER_ENCODING));
+            digest.update((byte) 0);
+            final ZipEntry archiveEntry = getArchiveEntry(resource);
+            if (archiveEntry != null) {
+                digest.update((byte) 1);
+                updateLong(digest, archiveEntry.getCrc());
+                updateLong(digest, archiveEntry.getSize());
+                continue;
+            }
+            digest.update((byte) 2);
+            final InputStream in = resource.getInputStream();
+            try {
+                for (int length = in.read(buffer); length >= 0; length = in.read(buffer)) {
+                    digest.update(buffer, 0, length);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        final StringBuilder result = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16));
+            result.append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The entry of the archive an unmodified lazy resource is read from, so that its crc and size can stand in for
+     * its data without loading it.
+     *
+     * @param resource
+     * @return null if the resource is not served unmodified from an archive with a known crc and size.
+     * @throws IOException
+     */
+    private static ZipEntry getArchiveEntry(final Resource resource) throws IOException {
+        if (resource.isModified() || !(resource.getResourceProvider() instanceof ArchiveResourceProvider)) {
+            return null;
+        }
+        final ZipEntry result = ((ArchiveResourceProvider) resource.getResourceProvider())
+                .getRawEntry(resource.getOriginalHref());
+        if ((result == null) || (result.getCrc() < 0) || (result.getSize() < 0)) {
+            return null;
+        }
+        return result;
+    }
+
+    private static void updateLong(final MessageDigest digest, final long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+    }
+
+    private static void write(final InvertedSearchIndex searchIndex, final File segmentFile, final String key)
+            throws IOException {
+        final File tempFile = new File(segmentFile.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            final List<Resource> resources = searchIndex.getResources();
+            out.writeInt(resources.size());
+            for (int i = 0; i < resources.size(); i++) {
+                out.writeUTF(resources.get(i).getHref());
+                out.writeInt(searchIndex.getResourceLength(i));
+            }
+            final Map<String, Postings> postingsByTerm = searchIndex.getPostingsByTerm();
+            out.writeInt(postingsByTerm.size());
+            for (final Map.Entry<String, Postings> entry : postingsByTerm.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+            }
+            while ((out.size() % 4) != 0) {
+                out.writeByte(0);
+            }
+            for (final Postings postings : postingsByTerm.values()) {
+                for (int i = 0; i < postings.size(); i++) {
+                    out.writeInt(postings.getResource(i));
+                }
+                for (int i = 0; i < postings.size(); i++) {
+                    out.writeInt(postings.getPosition(i));
+                }
+                for (int i = 0; i < postings.size(); i++) {
+                    out.writeInt(postings.getOffset(i));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(segmentFile)) {
+            segmentFile.delete();
+            if (!tempFile.renameTo(segmentFile)) {
+                tempFile.delete();
+                throw new IOException("Unable to write segment " + segmentFile);
+            }
+        }
+    }
+
+    private static InvertedSearchIndex read(final Book book, final File segmentFile, final String key)
+            throws IOException {
+        final MappedByteBuffer buffer;
+        final RandomAccessFile file = new RandomAccessFile(segmentFile, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+        final DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+        if ((buffer.remaining() < 8) || (in.readInt() != MAGIC) || (in.readInt() != VERSION)
+            || !key.equals(in.readUTF())) {
+            return null;
+        }
+        final int resourceCount = in.readInt();
+        final List<Resource> resources = new ArrayList<Resource>(resourceCount);
+        final int[] resourceLengths = new int[resourceCount];
+        for (int i = 0; i < resourceCount; i++) {
+            final Resource resource = book.getResources().getByHref(in.readUTF());
+            if (resource == null) {
+                return null;
+            }
+            resources.add(resource);
+            resourceLengths[i] = in.readInt();
+        }
+        final int termCount = in.readInt();
+        final String[] terms = new String[termCount];
+        final int[] sizes = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = in.readUTF();
+            sizes[i] = in.readInt();
+        }
+        int dataStart = buffer.limit() - in.available();
+        dataStart += (4 - (dataStart % 4)) % 4;
+        buffer.position(dataStart);
+        final IntBuffer data = buffer.slice().asIntBuffer();
+        final Map<String, Postings> postingsByTerm = new LinkedHashMap<String, Postings>(termCount * 2);
+        int start = 0;
+        for (int i = 0; i < termCount; i++) {
+            postingsByTerm.put(terms[i], new MappedPostings(data, start, sizes[i]));
+            start += 3 * sizes[i];
+        }
+        if (start > data.limit()) {
+            return null;
+        }
+        return new InvertedSearchIndex(book, resources, resourceLengths, postingsByTerm);
+    }
+
+    /**
+     * Postings that are read from a mapped segment file.
+     * Adding occurrences to a term of a segment copies its postings onto the heap first.
+     */
+    private static class MappedPostings extends Postings {
+        private final IntBuffer data;
+        private final int start;
+        private final int size;
+
+        MappedPostings(final IntBuffer data, final int start, final int size) {
+            super(0);
+            this.data = data;
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        void add(final int resource, final int position, final int offset) {
+            throw new UnsupportedOperationException("Postings of a segment can not be changed");
+        }
+
+        @Override
+        Postings getAppendable() {
+            final Postings result = new Postings(this.size + 1);
+            for (int i = 0; i < this.size; i++) {
+                result.add(getResource(i), getPosition(i), getOffset(i));
+            }
+            return result;
+        }
+
+        @Override
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        int getResource(final int index) {
+            return this.data.get(this.start + index);
+        }
+
+        @Override
+        int getPosition(final int index) {
+            return this.data.get(this.start + this.size + index);
+        }
+
+        @Override
+        int getOffset(final int index) {
+            return this.data.get(this.start + (2 * this.size) + index);
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package nl.siegmann.epublib.search;
 
+import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.Resource;
 
 public class SearchResult {
     private int pagePos = -1;
     private final String searchTerm;
     private final Resource resource;
+    private final Book book;
+    private double score = 0;
+    private String snippet;
+    private int snippetHighlightStart = -1;
+    private int snippetHighlightEnd = -1;
 
     public SearchResult(final int pagePos, final String searchTerm, final Resource resource) {
+        this(pagePos, searchTerm, resource, null);
+    }
+
+    public SearchResult(final int pagePos, final String searchTerm, final Resource resource, final Book book) {
         this.pagePos = pagePos;
         this.searchTerm = searchTerm;
         this.resource = resource;
+        this.book = book;
     }
 
     public int getPagePos() {
@@ -24,4 +35,59 @@ public class SearchResult {
     public Resource getResource() {
         return this.resource;
     }
-}
\ No newline at end of file
+
+    /**
+     * The book the resource belongs to.
+     *
+     * @return The book the resource belongs to, null if the result was not created by a searchindex of a book.
+     */
+    public Book getBook() {
+        return this.book;
+    }
+
+    /**
+     * How well the resource matches the search term, compared to the other results of the same search.
+     *
+     * @return How well the resource matches the search term, 0 if the results are not ranked.
+     */
+    public double getScore() {
+        return this.score;
+    }
+
+    void setScore(final double score) {
+        this.score = score;
+    }
+
+    /**
+     * The text around the search term, taken from the search content of the resource.
+     *
+     * @return The text around the search term, null if the result has no snippet.
+     */
+    public String getSnippet() {
+        return this.snippet;
+    }
+
+    /**
+     * Where the search term starts in the snippet.
+     *
+     * @return Where the search term starts in the snippet, -1 if the result has no snippet.
+     */
+    public int getSnippetHighlightStart() {
+        return this.snippetHighlightStart;
+    }
+
+    /**
+     * Where the search term ends in the snippet.
+     *
+     * @return Where the search term ends in the snippet, exclusive, -1 if the result has no snippet.
+     */
+    public int getSnippetHighlightEnd() {
+        return this.snippetHighlightEnd;
+    }
+
+    void setSnippet(final String snippet, final int highlightStart, final int highlightEnd) {
+        this.snippet = snippet;
+        this.snippetHighlightStart = highlightStart;
+        this.snippetHighlightEnd = highlightEnd;
+    }
+}
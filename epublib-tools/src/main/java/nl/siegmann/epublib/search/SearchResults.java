@@ -34,6 +34,20 @@ public class SearchResults {
 
     private Book book;
     private List<SearchResult> hits = new ArrayList<SearchResult>();
+    private int totalSize = -1;
+
+    /**
+     * The number of results of the whole search, of which the hits may be a single page.
+     *
+     * @return The number of results of the whole search.
+     */
+    public int getTotalSize() {
+        return (this.totalSize < 0) ? this.hits.size() : this.totalSize;
+    }
+
+    public void setTotalSize(final int totalSize) {
+        this.totalSize = totalSize;
+    }
 
     public boolean isEmpty() {
         return this.hits.isEmpty();
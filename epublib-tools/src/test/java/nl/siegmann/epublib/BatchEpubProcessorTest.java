@@ -0,0 +1,259 @@
+package nl.siegmann.epublib;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.BookProcessor;
+import nl.siegmann.epublib.epub.EpubReader;
+import nl.siegmann.epublib.epub.EpubWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BatchEpubProcessorTest extends TestCase {
+
+    /**
+     * Supplies a manifest one line per read and counts the lines that were read.
+     */
+    private static class CountingManifestReader extends Reader {
+        final List<String> lines = new ArrayList<String>();
+        final AtomicInteger linesRead = new AtomicInteger();
+
+        @Override
+        public int read(final char[] buffer, final int offset, final int length) {
+            final int index = this.linesRead.get();
+            if (index == this.lines.size()) {
+                return -1;
+            }
+            final String line = this.lines.get(index) + "\n";
+            line.getChars(0, line.length(), buffer, offset);
+            this.linesRead.incrementAndGet();
+            return line.length();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private File testDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.testDir = File.createTempFile("epublib-batch", "");
+        this.testDir.delete();
+        this.testDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : this.testDir.listFiles()) {
+            file.delete();
+        }
+        this.testDir.delete();
+    }
+
+    public void testProcess() throws Exception {
+        final File input1 = writeBook("book1.epub", "Chapter one");
+        final File input2 = writeBook("book2.epub", "Chapter two");
+        final File output1 = new File(this.testDir, "out1.epub");
+        final File output2 = new File(this.testDir, "out2.epub");
+        final File missingOutput = new File(this.testDir, "out3.epub");
+        final String manifest = "# input\toutput\n"
+                                + input1.getPath() + "\t" + output1.getPath() + "\n"
+                                + "\n"
+                                + new File(this.testDir, "missing.epub").getPath() + "\t" + missingOutput.getPath()
+                                + "\n"
+                                + "no output column\n"
+                                + input2.getPath() + "\t" + output2.getPath() + "\tepub\n";
+        final BatchEpubProcessor batchEpubProcessor = new BatchEpubProcessor(2, 1);
+        batchEpubProcessor.setDefaultType("epub");
+
+        final BatchEpubProcessor.Report report = batchEpubProcessor.process(new StringReader(manifest));
+
+        assertEquals(4, report.getItemCount());
+        assertEquals(2, report.getSuccessCount());
+        assertEquals(2, report.getFailureCount());
+        // lines 4 and 5 fail, in either order
+        assertEquals(4 + 5, report.getFailures().get(0).getItem().getLineNumber()
+                            + report.getFailures().get(1).getItem().getLineNumber());
+        assertEquals("Chapter one", readBook(output1).getTitle());
+        assertEquals("Chapter two", readBook(output2).getTitle());
+        assertFalse(missingOutput.exists());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(100));
+        assertTrue(report.toString().contains("Converted 2 of 4 books"));
+    }
+
+    public void testBoundedConcurrency() throws Exception {
+        final File input = writeBook("book.epub", "Chapter");
+        final StringBuilder manifest = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            manifest.append(input.getPath()).append('\t').append(new File(this.testDir, "out" + i + ".epub").getPath())
+                    .append('\n');
+        }
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final BatchEpubProcessor batchEpubProcessor = new BatchEpubProcessor(3, 2) {
+            @Override
+            protected EpubWriter createEpubWriter() {
+                return new EpubWriter(new BookProcessor() {
+                    @Override
+                    public Book processBook(final Book book) throws IOException {
+                        final int count = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), count));
+                        }
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                        return book;
+                    }
+                });
+            }
+        };
+        batchEpubProcessor.setDefaultType("epub");
+
+        final BatchEpubProcessor.Report report = batchEpubProcessor.process(new StringReader(manifest.toString()));
+
+        assertEquals(20, report.getSuccessCount());
+        assertEquals(0, report.getFailureCount());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    public void testManifestReadingBlocksWhileWorkersAreBusy() throws Exception {
+        final File input = writeBook("book.epub", "Chapter");
+        final CountingManifestReader manifest = new CountingManifestReader();
+        for (int i = 0; i < 20; i++) {
+            manifest.lines.add(input.getPath() + "\t" + new File(this.testDir, "out" + i + ".epub").getPath());
+        }
+        final CountDownLatch released = new CountDownLatch(1);
+        final BatchEpubProcessor batchEpubProcessor = new BatchEpubProcessor(2, 3) {
+            @Override
+            protected EpubWriter createEpubWriter() {
+                return new EpubWriter(new BookProcessor() {
+                    @Override
+                    public Book processBook(final Book book) throws IOException {
+                        try {
+                            released.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e.getMessage());
+                        }
+                        return book;
+                    }
+                });
+            }
+        };
+        batchEpubProcessor.setDefaultType("epub");
+        final AtomicReference<BatchEpubProcessor.Report> report = new AtomicReference<BatchEpubProcessor.Report>();
+        final Thread processor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    report.set(batchEpubProcessor.process(manifest));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        processor.start();
+        try {
+            // 2 books being converted, 3 waiting and 1 waiting for a free slot
+            final int expectedLinesRead = 2 + 3 + 1;
+            for (int i = 0; (i < 1000) && (manifest.linesRead.get() < expectedLinesRead); i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertEquals(expectedLinesRead, manifest.linesRead.get());
+        } finally {
+            released.countDown();
+            processor.join(60000);
+        }
+        assertEquals(20, manifest.linesRead.get());
+        assertEquals(20, report.get().getSuccessCount());
+    }
+
+    public void testErrorIsReported() throws Exception {
+        final File input = writeBook("book.epub", "Chapter");
+        final File output = new File(this.testDir, "out.epub");
+        final BatchEpubProcessor batchEpubProcessor = new BatchEpubProcessor(1, 1) {
+            @Override
+            protected EpubWriter createEpubWriter() {
+                return new EpubWriter(new BookProcessor() {
+                    @Override
+                    public Book processBook(final Book book) {
+                        throw new NoClassDefFoundError("MissingBookProcessor");
+                    }
+                });
+            }
+        };
+        batchEpubProcessor.setDefaultType("epub");
+
+        final BatchEpubProcessor.Report report =
+                batchEpubProcessor.process(new StringReader(input.getPath() + "\t" + output.getPath()));
+
+        assertEquals(1, report.getFailureCount());
+        assertTrue(report.getFailures().get(0).getException() instanceof NoClassDefFoundError);
+        assertFalse(output.exists());
+    }
+
+    public void testReportIsBounded() {
+        final BatchEpubProcessor.Report report = new BatchEpubProcessor.Report();
+        final int itemCount = 2 * BatchEpubProcessor.Report.MAX_LATENCY_SAMPLES;
+        for (int i = 1; i <= itemCount; i++) {
+            if ((i % 2) == 0) {
+                report.addSuccess(i * 1000000L);
+            } else {
+                report.addFailure(new BatchEpubProcessor.Item(i, "in", "out", ""), new IOException(), i * 1000000L);
+            }
+        }
+        assertEquals(itemCount, report.getItemCount());
+        assertEquals(itemCount / 2, report.getFailureCount());
+        assertEquals(BatchEpubProcessor.Report.MAX_FAILURES, report.getFailures().size());
+        assertEquals(1.0, report.getLatencyMillis(0));
+        assertEquals((double) itemCount, report.getLatencyMillis(100));
+        assertEquals((itemCount + 1) / 2.0, report.getAverageLatencyMillis());
+        assertTrue(report.toString().contains("and " + (itemCount / 2 - BatchEpubProcessor.Report.MAX_FAILURES)
+                                              + " more failures"));
+    }
+
+    private File writeBook(final String fileName, final String title) throws IOException {
+        final Book book = new Book();
+        book.getMetadata().addTitle(title);
+        book.addSection(title, new Resource(("<html><head><title>" + title + "</title></head><body><p>" + title
+                                             + "</p></body></html>").getBytes(Constants.CHARACTER_ENCODING),
+                                            "chapter1.html"));
+        final File result = new File(this.testDir, fileName);
+        final OutputStream out = new FileOutputStream(result);
+        try {
+            new EpubWriter().write(book, out);
+        } finally {
+            out.close();
+        }
+        return result;
+    }
+
+    private static Book readBook(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return new EpubReader().readEpub(in);
+        } finally {
+            in.close();
+        }
+    }
+}
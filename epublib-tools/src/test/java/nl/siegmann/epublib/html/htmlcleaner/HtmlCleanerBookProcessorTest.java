@@ -3,14 +3,22 @@ package nl.siegmann.epublib.html.htmlcleaner;
 import junit.framework.TestCase;
 import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.bookprocessor.HtmlCleanerBookProcessor;
+import nl.siegmann.epublib.bookprocessor.TextReplaceBookProcessor;
 import nl.siegmann.epublib.domain.Book;
 import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.BookProcessor;
+import nl.siegmann.epublib.epub.BookProcessorPipeline;
 import nl.siegmann.epublib.service.MediatypeService;
+import nl.siegmann.epublib.util.IOUtil;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class HtmlCleanerBookProcessorTest extends TestCase {
 
+    private static final String HTML = "<html><head><title>test</title></head><body><p>hello &amp; <br>it&apos;s"
+                                       + "</body></html>";
+
     public void testSimpleDocument1() {
         final Book book = new Book();
         final String testInput = "<html><head><title>title</title></head><body>Hello, world!</html>";
@@ -193,4 +201,33 @@ public class HtmlCleanerBookProcessorTest extends TestCase {
             assertTrue(e.getMessage(), false);
         }
     }
+
+    public void testProcessHtmlText_same_as_processHtml() throws IOException {
+        final HtmlCleanerBookProcessor processor = new HtmlCleanerBookProcessor();
+        final Book book = new Book();
+        final Resource resource = new Resource(HTML.getBytes(Constants.CHARACTER_ENCODING), "chapter1.html");
+        final String expected = new String(processor.processHtml(resource, book, Constants.CHARACTER_ENCODING),
+                                           Constants.CHARACTER_ENCODING);
+        assertEquals(expected, processor.processHtmlText(HTML, resource, book));
+    }
+
+    public void testFusedPipeline_same_as_separate_processors() throws IOException {
+        final Book separateBook = createBook();
+        new HtmlCleanerBookProcessor().processBook(separateBook);
+        new TextReplaceBookProcessor().processBook(separateBook);
+
+        final Book fusedBook = createBook();
+        new BookProcessorPipeline(Arrays.<BookProcessor>asList(new HtmlCleanerBookProcessor(),
+                                                               new TextReplaceBookProcessor()))
+                .processBook(fusedBook);
+
+        assertEquals(IOUtil.toString(separateBook.getResources().getByHref("chapter1.html").getReader()),
+                     IOUtil.toString(fusedBook.getResources().getByHref("chapter1.html").getReader()));
+    }
+
+    private Book createBook() throws IOException {
+        final Book result = new Book();
+        result.addResource(new Resource(HTML.getBytes(Constants.CHARACTER_ENCODING), "chapter1.html"));
+        return result;
+    }
 }
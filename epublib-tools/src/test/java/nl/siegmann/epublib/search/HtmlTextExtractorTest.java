@@ -0,0 +1,68 @@
+package nl.siegmann.epublib.search;
+
+import junit.framework.TestCase;
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.Normalizer;
+import java.util.Scanner;
+
+public class HtmlTextExtractorTest extends TestCase {
+
+    private static final String[] HTML = {
+            "",
+            "a",
+            "A   \n\t\t\tB",
+            "&uuml;ber &Auml;rger",
+            " Ä ",
+            "<html><title>my title1</title><body><h1>wrong  title</h1></body></html>",
+            "<p>  Café crème&nbsp;&amp;&#233;&#xE9; naïve  </p>\n<p> second  paragraph </p>",
+            "<p>unknown &foo; entity &amp no semicolon &#xZZ; &#12</p>",
+            "<p class=\"a&amp;b\">tag attributes</p>",
+            "x>y<p>z",
+            "<p>Ελληνικά Ångström ệ</p>",
+            "<?xml version=\"1.0\"?><!DOCTYPE html><html><body>a<br/>b <i>c</i> d</body></html>"
+    };
+
+    /**
+     * How the search content was extracted before the HtmlTextExtractor.
+     */
+    private static String getSearchContentByChunk(final String html) {
+        final StringBuilder result = new StringBuilder();
+        final Scanner scanner = new Scanner(new StringReader(html));
+        scanner.useDelimiter("<");
+        while (scanner.hasNext()) {
+            final String text = scanner.next();
+            final int closePos = text.indexOf('>');
+            String chunk = text.substring(closePos + 1).trim();
+            chunk = StringEscapeUtils.unescapeHtml(chunk);
+            chunk = SearchIndex.unicodeTrim(chunk).replaceAll("[\\p{Z}\\s]+", " ");
+            chunk = Normalizer.normalize(chunk, Normalizer.Form.NFD);
+            chunk = chunk.replaceAll("\\p{InCombiningDiacriticalMarks}+", "").toLowerCase();
+            result.append(chunk);
+        }
+        return result.toString();
+    }
+
+    public void testSameAsByChunk() throws IOException {
+        final HtmlTextExtractor extractor = new HtmlTextExtractor();
+        for (final String html : HTML) {
+            assertEquals(html, getSearchContentByChunk(html), extractor.extract(new StringReader(html)));
+        }
+    }
+
+    public void testExtract() throws IOException {
+        final HtmlTextExtractor extractor = new HtmlTextExtractor();
+        assertEquals("cafe creme &ee naive" + "second paragraph",
+                     extractor.extract(new StringReader(HTML[6])));
+        assertEquals("unknown &foo; entity &amp no semicolon &#xzz; &#12",
+                     extractor.extract(new StringReader(HTML[7])));
+        assertEquals("𝐀", extractor.extract(new StringReader("&#x1D400;")));
+    }
+
+    public void testCleanText() {
+        assertEquals("", SearchIndex.cleanText("  \t"));
+        assertEquals("aeiou a*", SearchIndex.cleanText("  Áéîõü \n A*"));
+    }
+}
@@ -0,0 +1,151 @@
+package nl.siegmann.epublib.search;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class InvertedSearchIndexTest extends TestCase {
+
+    private static Book createBook() throws IOException {
+        final Book book = new Book();
+        book.addSection("chapter1", new Resource(new StringReader(
+                "<html><body><p>Three men in a boat,</p><p>to say nothing of the dog.</p></body></html>"),
+                                                 "chapter1.html"));
+        book.addSection("chapter2", new Resource(new StringReader(
+                "<html><body><p>The boat went down the Thames, the three M&eacute;n rowing.</p></body></html>"),
+                                                 "chapter2.html"));
+        return book;
+    }
+
+    public void testTermSearch() throws IOException {
+        final Book book = createBook();
+        final InvertedSearchIndex searchIndex = new InvertedSearchIndex(book);
+        assertEquals(2, searchIndex.getResourceCount());
+
+        final SearchResults searchResults = searchIndex.doSearch("Boat");
+        assertEquals("boat", searchResults.getSearchTerm());
+        assertEquals(2, searchResults.size());
+        assertSame(book.getResources().getByHref("chapter1.html"), searchResults.getHits().get(0).getResource());
+        assertEquals(15, searchResults.getHits().get(0).getPagePos());
+        assertSame(book.getResources().getByHref("chapter2.html"), searchResults.getHits().get(1).getResource());
+        assertEquals(4, searchResults.getHits().get(1).getPagePos());
+
+        assertTrue(searchIndex.doSearch("boa").isEmpty());
+        assertTrue(searchIndex.doSearch("zeppelin").isEmpty());
+        assertTrue(searchIndex.doSearch(" ").isEmpty());
+    }
+
+    public void testSameResultsAsSearchIndex() throws IOException {
+        final Book book = createBook();
+        final SearchResults expected = new SearchIndex(book).doSearch("the");
+        final SearchResults actual = new InvertedSearchIndex(book).doSearch("the");
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.getHits().get(i).getResource(), actual.getHits().get(i).getResource());
+            assertEquals(expected.getHits().get(i).getPagePos(), actual.getHits().get(i).getPagePos());
+        }
+    }
+
+    public void testPhraseSearch() throws IOException {
+        final InvertedSearchIndex searchIndex = new InvertedSearchIndex(createBook());
+        final SearchResults searchResults = searchIndex.doSearch("three  men");
+        assertEquals(2, searchResults.size());
+        assertEquals(0, searchResults.getHits().get(0).getPagePos());
+        assertEquals("three men", searchResults.getSearchTerm());
+        assertTrue(searchIndex.doSearch("men three").isEmpty());
+        assertEquals(1, searchIndex.doSearch("of the dog").size());
+    }
+
+    public void testPrefixSearch() throws IOException {
+        final InvertedSearchIndex searchIndex = new InvertedSearchIndex(createBook());
+        final SearchResults searchResults = searchIndex.doSearch("th*");
+        // three, the, the, the, thames, the, three
+        assertEquals(7, searchResults.size());
+        assertEquals(0, searchResults.getHits().get(0).getPagePos());
+        assertEquals(1, searchIndex.doSearch("down the tha*").size());
+        assertEquals(1, searchIndex.doSearch("the thr*").size());
+    }
+
+    public void testInitBookParallel() throws Exception {
+        final Book book = createBook();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final InvertedSearchIndex searchIndex = new InvertedSearchIndex();
+            searchIndex.initBook(book, executor);
+            final InvertedSearchIndex expected = new InvertedSearchIndex(book);
+            assertEquals(expected.getTermCount(), searchIndex.getTermCount());
+            final SearchResults searchResults = searchIndex.doSearch("th*");
+            assertEquals(expected.doSearch("th*").size(), searchResults.size());
+            assertSame(book.getResources().getByHref("chapter1.html"), searchResults.getHits().get(0).getResource());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testInitBookWithShutDownExecutor() throws Exception {
+        final Book book = createBook();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        final InvertedSearchIndex searchIndex = new InvertedSearchIndex();
+        searchIndex.initBook(book, executor);
+        assertEquals(new InvertedSearchIndex(book).getTermCount(), searchIndex.getTermCount());
+        assertEquals(2, searchIndex.doSearch("boat").size());
+    }
+
+    public void testInitBookInterrupted() throws Exception {
+        final Book book = createBook();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final InvertedSearchIndex searchIndex = new InvertedSearchIndex();
+        Thread.currentThread().interrupt();
+        try {
+            searchIndex.initBook(book, new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    tasks.add(command);
+                }
+            });
+            fail("Expected an InterruptedException");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        assertEquals(2, tasks.size());
+        for (final Runnable task : tasks) {
+            assertTrue(((Future<?>) task).isCancelled());
+        }
+    }
+
+    public void testRankedSearch() throws IOException {
+        final Book book = createBook();
+        final InvertedSearchIndex searchIndex = new InvertedSearchIndex(book);
+        final SearchResults searchResults = searchIndex.doRankedSearch("The", 0, 10);
+        assertEquals(2, searchResults.size());
+        assertEquals(2, searchResults.getTotalSize());
+        final SearchResult best = searchResults.getHits().get(0);
+        assertSame(book.getResources().getByHref("chapter2.html"), best.getResource());
+        assertSame(book, best.getBook());
+        assertEquals(0, best.getPagePos());
+        assertTrue(best.getScore() > searchResults.getHits().get(1).getScore());
+        assertEquals("the", best.getSnippet().substring(best.getSnippetHighlightStart(),
+                                                        best.getSnippetHighlightEnd()));
+
+        final SearchResults secondPage = searchIndex.doRankedSearch("the", 1, 1);
+        assertEquals(1, secondPage.size());
+        assertEquals(2, secondPage.getTotalSize());
+        assertSame(book.getResources().getByHref("chapter1.html"), secondPage.getHits().get(0).getResource());
+        assertTrue(searchIndex.doRankedSearch("the", 2, 10).isEmpty());
+
+        final SearchResult phrase = searchIndex.doRankedSearch("three men", 0, 10).getHits().get(0);
+        assertEquals("three men", phrase.getSnippet().substring(phrase.getSnippetHighlightStart(),
+                                                                phrase.getSnippetHighlightEnd()));
+        assertEquals(0, searchIndex.doRankedSearch("zeppelin", 0, 10).getTotalSize());
+    }
+}
@@ -0,0 +1,99 @@
+package nl.siegmann.epublib.search;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class SearchCatalogueTest extends TestCase {
+
+    private static Book createBook(final String... chapters) throws IOException {
+        final Book book = new Book();
+        for (int i = 0; i < chapters.length; i++) {
+            book.addSection("chapter" + i, new Resource(new StringReader(
+                    "<html><body><p>" + chapters[i] + "</p></body></html>"), "chapter" + i + ".html"));
+        }
+        return book;
+    }
+
+    public void testRanking() throws IOException {
+        final Book book1 = createBook("A boat on the river.", "No boats here.");
+        final Book book2 = createBook("The boat, the boat and the other boat.", "Another boat.");
+        final SearchCatalogue catalogue = new SearchCatalogue();
+        catalogue.addBook(book1);
+        catalogue.addBook(book2);
+        assertEquals(2, catalogue.getBookCount());
+
+        final SearchResults searchResults = catalogue.doSearch("Boat", 10);
+        assertEquals("boat", searchResults.getSearchTerm());
+        assertEquals(3, searchResults.size());
+        final SearchResult best = searchResults.getHits().get(0);
+        assertSame(book2, best.getBook());
+        assertEquals("chapter0.html", best.getResource().getHref());
+        assertEquals(4, best.getPagePos());
+        assertEquals("boat", best.getSnippet().substring(best.getSnippetHighlightStart(),
+                                                         best.getSnippetHighlightEnd()));
+        // a single occurrence ranks higher in a shorter resource
+        assertSame(book2, searchResults.getHits().get(1).getBook());
+        assertEquals("chapter1.html", searchResults.getHits().get(1).getResource().getHref());
+        assertSame(book1, searchResults.getHits().get(2).getBook());
+        assertTrue(searchResults.getHits().get(1).getScore() > searchResults.getHits().get(2).getScore());
+
+        final SearchResults top = catalogue.doSearch("boat", 1);
+        assertEquals(1, top.size());
+        assertSame(best.getResource(), top.getHits().get(0).getResource());
+        assertTrue(catalogue.doSearch("boat", 0).isEmpty());
+        assertTrue(catalogue.doSearch("zeppelin", 10).isEmpty());
+    }
+
+    public void testTies() throws IOException {
+        final SearchCatalogue catalogue = new SearchCatalogue();
+        final Book book1 = createBook("Three men in a boat.");
+        final Book book2 = createBook("Three men in a boat.");
+        catalogue.addBook(book1);
+        catalogue.addBook(book2);
+        final SearchResults searchResults = catalogue.doSearch("boat", 10);
+        assertEquals(searchResults.getHits().get(0).getScore(), searchResults.getHits().get(1).getScore());
+        // ties in the order the books were added
+        assertSame(book1, searchResults.getHits().get(0).getBook());
+        assertSame(book2, searchResults.getHits().get(1).getBook());
+    }
+
+    public void testScoresOverAllBooks() throws IOException {
+        final String[] chapters = {"A boat on the river.", "No boats here.", "The boat, the boat and the other boat.",
+                                   "Another boat on the river bank."};
+        final SearchCatalogue catalogue = new SearchCatalogue();
+        catalogue.addBook(createBook(chapters[0], chapters[1]));
+        catalogue.addBook(createBook(chapters[2], chapters[3]));
+        final InvertedSearchIndex allChapters = new InvertedSearchIndex(createBook(chapters));
+
+        for (final String searchTerm : new String[]{"boat", "the river", "boat*", "on the"}) {
+            final SearchResults expected = allChapters.doRankedSearch(searchTerm, 0, 10);
+            final SearchResults actual = catalogue.doSearch(searchTerm, 10);
+            assertEquals(searchTerm, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(searchTerm, expected.getHits().get(i).getScore(), actual.getHits().get(i).getScore(),
+                             1e-9);
+                assertEquals(searchTerm, expected.getHits().get(i).getSnippet(), actual.getHits().get(i).getSnippet());
+            }
+        }
+    }
+
+    public void testAddAndRemove() throws IOException {
+        final Book book1 = createBook("Three men in a boat.");
+        final Book book2 = createBook("Three men on the bummel.");
+        final SearchCatalogue catalogue = new SearchCatalogue();
+        catalogue.addBook(book1);
+        assertEquals(1, catalogue.doSearch("three men", 10).size());
+        catalogue.addSearchIndex(new InvertedSearchIndex(book2));
+        assertEquals(2, catalogue.doSearch("three men", 10).size());
+        assertTrue(catalogue.removeBook(book1));
+        assertFalse(catalogue.removeBook(book1));
+        assertFalse(catalogue.containsBook(book1));
+        final SearchResults searchResults = catalogue.doSearch("three men", 10);
+        assertEquals(1, searchResults.size());
+        assertSame(book2, searchResults.getHits().get(0).getBook());
+    }
+}
@@ -0,0 +1,151 @@
+package nl.siegmann.epublib.search;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Identifier;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.ZipFileResourceProvider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class SearchIndexSegmentTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.directory = File.createTempFile("searchindex", "");
+        this.directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    private static Book createBook(final String chapter2) throws IOException {
+        final Book book = new Book();
+        book.getMetadata().addIdentifier(new Identifier(Identifier.Scheme.ISBN, "978-0-14-043750-8"));
+        book.addSection("chapter1", new Resource(new StringReader(
+                "<html><body><p>Three men in a boat,</p><p>to say nothing of the dog.</p></body></html>"),
+                                                 "chapter1.html"));
+        book.addSection("chapter2", new Resource(new StringReader(chapter2), "chapter2.html"));
+        return book;
+    }
+
+    public void testLoad() throws IOException {
+        final String chapter2 = "<html><body><p>The boat went down the Thames, the three men rowing.</p></body></html>";
+        final InvertedSearchIndex built = SearchIndexSegment.load(createBook(chapter2), this.directory);
+        final File[] segmentFiles = this.directory.listFiles();
+        assertEquals(1, segmentFiles.length);
+        assertTrue(segmentFiles[0].getName().startsWith("978-0-14-043750-8-"));
+
+        final Book book = createBook(chapter2);
+        final InvertedSearchIndex mapped = SearchIndexSegment.read(book, segmentFiles[0]);
+        assertNotNull(mapped);
+        assertSame(book, mapped.getBook());
+        assertEquals(built.getResourceCount(), mapped.getResourceCount());
+        assertEquals(built.getTermCount(), mapped.getTermCount());
+        for (final String searchTerm : new String[]{"boat", "three men", "th*", "the thames", "zeppelin"}) {
+            final SearchResults expected = built.doSearch(searchTerm);
+            final SearchResults actual = mapped.doSearch(searchTerm);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getHits().get(i).getResource().getHref(),
+                             actual.getHits().get(i).getResource().getHref());
+                assertSame(book.getResources().getByHref(actual.getHits().get(i).getResource().getHref()),
+                           actual.getHits().get(i).getResource());
+                assertEquals(expected.getHits().get(i).getPagePos(), actual.getHits().get(i).getPagePos());
+            }
+        }
+        assertEquals(built.doRankedSearch("the", 0, 10).getHits().get(0).getScore(),
+                     mapped.doRankedSearch("the", 0, 10).getHits().get(0).getScore());
+        assertEquals(2, SearchIndexSegment.load(book, this.directory).doSearch("three men").size());
+        assertEquals(1, this.directory.listFiles().length);
+    }
+
+    public void testChangedContent() throws IOException {
+        final Book book = createBook("<html><body><p>The boat went down the Thames.</p></body></html>");
+        SearchIndexSegment.load(book, this.directory);
+        final File segmentFile = this.directory.listFiles()[0];
+
+        final Book changedBook = createBook("<html><body><p>The zeppelin went up.</p></body></html>");
+        assertFalse(SearchIndexSegment.getKey(book).equals(SearchIndexSegment.getKey(changedBook)));
+        assertNull(SearchIndexSegment.read(changedBook, segmentFile));
+        assertEquals(1, SearchIndexSegment.load(changedBook, this.directory).doSearch("zeppelin").size());
+        assertEquals(2, this.directory.listFiles().length);
+    }
+
+    public void testAddResourceToSegment() throws IOException {
+        final String chapter2 = "<html><body><p>The boat went down the Thames.</p></body></html>";
+        SearchIndexSegment.load(createBook(chapter2), this.directory);
+        final Book book = createBook(chapter2);
+        final InvertedSearchIndex mapped = SearchIndexSegment.read(book, this.directory.listFiles()[0]);
+
+        final Resource chapter3 = new Resource(new StringReader(
+                "<html><body><p>Another boat, and a zeppelin.</p></body></html>"), "chapter3.html");
+        book.addSection("chapter3", chapter3);
+        mapped.addResource(chapter3);
+
+        assertEquals(3, mapped.doSearch("boat").size());
+        assertSame(chapter3, mapped.doSearch("boat").getHits().get(2).getResource());
+        assertEquals(1, mapped.doSearch("zeppelin").size());
+        assertEquals(1, mapped.doSearch("three men").size());
+        assertEquals(1, mapped.doSearch("the thames").size());
+    }
+
+    public void testGetKeyOfLazyBook() throws IOException {
+        this.directory.mkdirs();
+        final File epubFile = new File(this.directory, "book.zip");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(epubFile));
+        try {
+            out.putNextEntry(new ZipEntry("chapter1.html"));
+            out.write("<html><body><p>The boat went down the Thames.</p></body></html>".getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        final String key = getLazyKey(epubFile, false);
+        assertEquals(key, getLazyKey(epubFile, false));
+        assertFalse(key.equals(getLazyKey(epubFile, true)));
+    }
+
+    private static String getLazyKey(final File epubFile, final boolean modify) throws IOException {
+        final AtomicInteger openCount = new AtomicInteger();
+        final ZipFileResourceProvider resourceProvider = new ZipFileResourceProvider(epubFile.getPath()) {
+            @Override
+            protected InputStream openEntry(final String href) throws IOException {
+                openCount.incrementAndGet();
+                return super.openEntry(href);
+            }
+        };
+        final Book book = new Book();
+        book.getMetadata().addIdentifier(new Identifier(Identifier.Scheme.ISBN, "978-0-14-043750-8"));
+        book.setResourceProvider(resourceProvider);
+        final Resource resource = new Resource(resourceProvider, epubFile.length(), "chapter1.html");
+        book.addSection("chapter1", resource);
+        try {
+            if (modify) {
+                resource.setData("<html><body><p>Changed.</p></body></html>".getBytes("UTF-8"));
+            }
+            final String result = SearchIndexSegment.getKey(book);
+            assertEquals(0, openCount.get());
+            return result;
+        } finally {
+            book.close();
+        }
+    }
+}
@@ -7,7 +7,13 @@ import nl.siegmann.epublib.service.MediatypeService;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class SearchIndexTest extends TestCase {
 
@@ -99,4 +105,85 @@ public class SearchIndexTest extends TestCase {
                          + "\'", testData[i + 1], actualText);
         }
     }
+
+    private static Book createBook(final int chapterCount) {
+        final Book book = new Book();
+        for (int i = 0; i < chapterCount; i++) {
+            book.addSection("chapter" + i, new Resource(("<p>chapter " + i + " of the boat</p>").getBytes(),
+                                                        "chapter" + i + ".html"));
+        }
+        return book;
+    }
+
+    public void testInitBookParallel() throws Exception {
+        final Book book = createBook(20);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final SearchIndex searchIndex = new SearchIndex(book, executor);
+            assertTrue(searchIndex.isIndexed());
+            final SearchResults expected = new SearchIndex(book).doSearch("boat");
+            final SearchResults actual = searchIndex.doSearch("boat");
+            assertEquals(20, actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSame(expected.getHits().get(i).getResource(), actual.getHits().get(i).getResource());
+                assertEquals(expected.getHits().get(i).getPagePos(), actual.getHits().get(i).getPagePos());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testInitBookProgressively() throws Exception {
+        final Book book = createBook(3);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final SearchIndex searchIndex = new SearchIndex();
+        searchIndex.initBookProgressively(book, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+        assertEquals(3, tasks.size());
+        assertFalse(searchIndex.isIndexed());
+        assertTrue(searchIndex.doSearch("boat").isEmpty());
+
+        tasks.get(2).run();
+        final SearchResults searchResults = searchIndex.doSearch("boat");
+        assertEquals(1, searchResults.size());
+        assertEquals("chapter2.html", searchResults.getHits().get(0).getResource().getHref());
+        assertFalse(searchIndex.awaitIndexed(1, TimeUnit.MILLISECONDS));
+
+        tasks.get(0).run();
+        tasks.get(1).run();
+        assertTrue(searchIndex.awaitIndexed(1, TimeUnit.MILLISECONDS));
+        assertEquals("chapter0.html", searchIndex.doSearch("boat").getHits().get(0).getResource().getHref());
+    }
+
+    public void testInitBookWithRejectingExecutor() throws Exception {
+        final Book book = createBook(3);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final SearchIndex searchIndex = new SearchIndex();
+        searchIndex.initBookProgressively(book, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                if (!tasks.isEmpty()) {
+                    throw new RejectedExecutionException();
+                }
+                tasks.add(command);
+            }
+        });
+        assertEquals(1, tasks.size());
+        assertFalse(searchIndex.isIndexed());
+        assertEquals(2, searchIndex.doSearch("boat").size());
+
+        tasks.get(0).run();
+        assertTrue(searchIndex.isIndexed());
+        assertEquals(3, searchIndex.doSearch("boat").size());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        final SearchIndex shutDownSearchIndex = new SearchIndex(book, executor);
+        assertTrue(shutDownSearchIndex.isIndexed());
+        assertEquals(3, shutDownSearchIndex.doSearch("boat").size());
+    }
 }